@@ -33,6 +33,10 @@ android {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
     }
+    testOptions {
+        // JVM tests touch classes that log through android.util.Log
+        unitTests.isReturnDefaultValues = true
+    }
     kotlin {
         compilerOptions {
             jvmTarget.set(org.jetbrains.kotlin.gradle.dsl.JvmTarget.JVM_11)
@@ -46,6 +50,7 @@ dependencies {
     implementation(libs.material)
     implementation(libs.core.ktx)
     testImplementation(libs.junit)
+    testImplementation("com.squareup.okhttp3:mockwebserver:4.12.0")
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
     implementation("androidx.core:core-splashscreen:1.0.1")
@@ -64,5 +69,6 @@ dependencies {
     implementation("com.airbnb.android:lottie:6.5.2")
     implementation("com.facebook.shimmer:shimmer:0.5.0")
     implementation("com.google.firebase:firebase-database:20.3.0")
+    implementation("androidx.work:work-runtime-ktx:2.9.1")
 
 }
@@ -0,0 +1,153 @@
+package com.simats.criticall;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.simats.criticall.roles.patient.PatientVitalsLocalDb;
+import com.simats.criticall.roles.patient.PatientVitalsLocalDb.Aggregate;
+import com.simats.criticall.roles.patient.PatientVitalsLocalDb.Bucket;
+import com.simats.criticall.roles.patient.PatientVitalsLocalDb.Metric;
+import com.simats.criticall.roles.patient.PatientVitalsLocalDb.NewReading;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 10k readings through insertLocal (one transaction each) and insertBatch (one transaction):
+ * both must leave the same rollups, matching the raw data. Throughput is logged, not asserted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PatientVitalsLocalDbInsertTest {
+
+    private static final String TAG = "VitalsInsertTest";
+    private static final String DB_SINGLE = "vitals_test_single.db";
+    private static final String DB_BATCH = "vitals_test_batch.db";
+    private static final int N = 10_000;
+    private static final long PATIENT = 42L;
+    private static final long START_MS = 1_700_000_000_000L;
+    private static final long STEP_MS = 5 * 60_000L; // one reading every 5 minutes, ~35 days
+
+    private Context ctx;
+
+    @Before
+    public void setUp() {
+        ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        ctx.deleteDatabase(DB_SINGLE);
+        ctx.deleteDatabase(DB_BATCH);
+    }
+
+    @After
+    public void tearDown() {
+        ctx.deleteDatabase(DB_SINGLE);
+        ctx.deleteDatabase(DB_BATCH);
+    }
+
+    @Test
+    public void insertLocalAndInsertBatch_produceSameRollups() {
+        List<NewReading> readings = readings();
+
+        PatientVitalsLocalDb single = new PatientVitalsLocalDb(ctx, DB_SINGLE);
+        PatientVitalsLocalDb batch = new PatientVitalsLocalDb(ctx, DB_BATCH);
+        try {
+            long t0 = SystemClock.elapsedRealtime();
+            for (NewReading r : readings) {
+                single.insertLocal(r.getPatientId(), r.getRecordedAtMs(), r.getSystolic(), r.getDiastolic(),
+                        r.getSugar(), r.getSugarContext(), r.getTemperatureF(), r.getWeightKg(), r.getNotes());
+            }
+            long singleMs = Math.max(1, SystemClock.elapsedRealtime() - t0);
+
+            t0 = SystemClock.elapsedRealtime();
+            int inserted = batch.insertBatch(readings);
+            long batchMs = Math.max(1, SystemClock.elapsedRealtime() - t0);
+
+            Log.i(TAG, "insertLocal: " + N + " rows in " + singleMs + " ms (" + (N * 1000L / singleMs) + " rows/s)");
+            Log.i(TAG, "insertBatch: " + N + " rows in " + batchMs + " ms (" + (N * 1000L / batchMs) + " rows/s)");
+            assertEquals(N, inserted);
+
+            long from = START_MS;
+            long to = START_MS + N * STEP_MS;
+            for (Metric m : new Metric[]{Metric.SYSTOLIC, Metric.SUGAR, Metric.WEIGHT}) {
+                for (Bucket b : Bucket.values()) {
+                    List<Aggregate> a = single.aggregates(PATIENT, m, b, from, to);
+                    List<Aggregate> c = batch.aggregates(PATIENT, m, b, from, to);
+                    assertEquals(m + "/" + b + " bucket count", a.size(), c.size());
+                    for (int i = 0; i < a.size(); i++) {
+                        assertEquals(a.get(i).getBucketStartMs(), c.get(i).getBucketStartMs());
+                        assertEquals(a.get(i).getCount(), c.get(i).getCount());
+                        assertEquals(a.get(i).getMin(), c.get(i).getMin(), 1e-9);
+                        assertEquals(a.get(i).getMax(), c.get(i).getMax(), 1e-9);
+                        assertEquals(a.get(i).getAvg(), c.get(i).getAvg(), 1e-9);
+                    }
+                    assertTotalsMatchRaw(m, b, c, readings);
+                }
+            }
+        } finally {
+            single.close();
+            batch.close();
+        }
+    }
+
+    // rollup totals (count, min, max, sum) equal the raw readings that carry the metric
+    private static void assertTotalsMatchRaw(Metric m, Bucket b, List<Aggregate> aggs, List<NewReading> readings) {
+        long n = 0;
+        double min = Double.MAX_VALUE, max = -Double.MAX_VALUE, sum = 0;
+        for (NewReading r : readings) {
+            Double v = valueOf(m, r);
+            if (v == null) continue;
+            n++;
+            sum += v;
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+
+        long rn = 0;
+        double rmin = Double.MAX_VALUE, rmax = -Double.MAX_VALUE, rsum = 0;
+        for (Aggregate a : aggs) {
+            rn += a.getCount();
+            rsum += a.getAvg() * a.getCount();
+            rmin = Math.min(rmin, a.getMin());
+            rmax = Math.max(rmax, a.getMax());
+        }
+        String what = m + "/" + b;
+        assertEquals(what + " count", n, rn);
+        assertEquals(what + " min", min, rmin, 1e-9);
+        assertEquals(what + " max", max, rmax, 1e-9);
+        assertEquals(what + " sum", sum, rsum, Math.abs(sum) * 1e-9);
+    }
+
+    private static Double valueOf(Metric m, NewReading r) {
+        switch (m) {
+            case SYSTOLIC: return r.getSystolic() == null ? null : r.getSystolic().doubleValue();
+            case DIASTOLIC: return r.getDiastolic() == null ? null : r.getDiastolic().doubleValue();
+            case SUGAR: return r.getSugar() == null ? null : r.getSugar().doubleValue();
+            case TEMPERATURE: return r.getTemperatureF();
+            case WEIGHT: return r.getWeightKg();
+            default: return null;
+        }
+    }
+
+    // deterministic mix: BP on every row, sugar on every third, weight on every tenth
+    private static List<NewReading> readings() {
+        List<NewReading> out = new ArrayList<>(N);
+        for (int i = 0; i < N; i++) {
+            Integer sys = 100 + (i * 37) % 60;
+            Integer dia = 60 + (i * 17) % 30;
+            Integer sugar = i % 3 == 0 ? 80 + (i * 13) % 150 : null;
+            Double weight = i % 10 == 0 ? 60.0 + (i % 50) / 10.0 : null;
+            out.add(new NewReading(PATIENT, START_MS + i * STEP_MS, sys, dia, sugar,
+                    i % 2 == 0 ? "FASTING" : "RANDOM", null, weight, ""));
+        }
+        return out;
+    }
+}
@@ -0,0 +1,168 @@
+package com.simats.criticall;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.simats.criticall.roles.patient.PatientVitalsLocalDb;
+import com.simats.criticall.roles.patient.VitalsSyncWorker;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Bulk vs per-row upload in {@link VitalsSyncWorker.Uploader}, against a scripted fake backend.
+ */
+@RunWith(AndroidJUnit4.class)
+public class VitalsSyncUploaderTest {
+
+    private Context ctx;
+    private final List<String> calls = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        EndpointCapabilities.INSTANCE.forget(ctx, VitalsSyncWorker.FEATURE);
+        calls.clear();
+    }
+
+    @After
+    public void tearDown() {
+        EndpointCapabilities.INSTANCE.forget(ctx, VitalsSyncWorker.FEATURE);
+    }
+
+    @Test
+    public void bulk_mapsEveryRow_andIsRemembered() {
+        VitalsSyncWorker.Uploader up = new VitalsSyncWorker.Uploader(ctx, (path, body) -> {
+            calls.add(path);
+            if (!VitalsSyncWorker.PATH_BULK.equals(path)) return fail(500);
+            JSONArray in = body.optJSONArray("items");
+            JSONArray out = new JSONArray();
+            for (int i = 0; i < in.length(); i++) {
+                long localId = in.optJSONObject(i).optLong("client_local_id");
+                out.put(obj("client_local_id", localId, "id", 1000 + localId));
+            }
+            return ok(obj("ok", true, "data", obj("items", out)));
+        });
+
+        Map<Long, Long> synced = up.push(rows(3));
+
+        assertNotNull(synced);
+        assertEquals(3, synced.size());
+        assertEquals(Long.valueOf(1001), synced.get(1L));
+        assertEquals(1, calls.size());
+        assertEquals(VitalsSyncWorker.VARIANT_BULK, EndpointCapabilities.INSTANCE.known(ctx, VitalsSyncWorker.FEATURE));
+    }
+
+    @Test
+    public void missingBulk_fallsBackToOnePostPerRow() {
+        VitalsSyncWorker.Uploader up = new VitalsSyncWorker.Uploader(ctx, (path, body) -> {
+            calls.add(path);
+            if (VitalsSyncWorker.PATH_BULK.equals(path)) return fail(404);
+            return ok(obj("ok", true, "data", obj("id", 500 + calls.size())));
+        });
+
+        Map<Long, Long> synced = up.push(rows(3));
+
+        assertNotNull(synced);
+        assertEquals(3, synced.size());
+        assertEquals(4, calls.size()); // one bulk probe + three rows
+        assertEquals(VitalsSyncWorker.VARIANT_SINGLE, EndpointCapabilities.INSTANCE.known(ctx, VitalsSyncWorker.FEATURE));
+
+        // remembered: the next batch skips the bulk probe
+        calls.clear();
+        assertEquals(2, up.push(rows(2)).size());
+        assertEquals(2, calls.size());
+        assertFalse(calls.contains(VitalsSyncWorker.PATH_BULK));
+    }
+
+    @Test
+    public void perRow_stopsAtFirstFailure_keepingOrder() {
+        VitalsSyncWorker.Uploader up = new VitalsSyncWorker.Uploader(ctx, (path, body) -> {
+            calls.add(path);
+            if (VitalsSyncWorker.PATH_BULK.equals(path)) return fail(405);
+            if (calls.size() == 3) return fail(500); // second row
+            return ok(obj("ok", true, "data", obj("id", "77")));
+        });
+
+        Map<Long, Long> synced = up.push(rows(3));
+
+        assertNotNull(synced);
+        assertEquals(1, synced.size());
+        assertEquals(Long.valueOf(77), synced.get(1L));
+        assertEquals(3, calls.size());
+    }
+
+    @Test
+    public void bulkReplyWithoutUsableItems_isAFailure_notAnEmptySuccess() {
+        VitalsSyncWorker.Uploader up = new VitalsSyncWorker.Uploader(ctx, (path, body) -> {
+            calls.add(path);
+            return ok(json("{\"ok\":true,\"data\":{\"items\":[{\"id\":0},{\"foo\":1}]}}"));
+        });
+
+        assertNull(up.push(rows(2)));
+        assertEquals(1, calls.size()); // 200 is not "missing": no per-row fallback
+        assertNull(EndpointCapabilities.INSTANCE.known(ctx, VitalsSyncWorker.FEATURE));
+    }
+
+    @Test
+    public void transientBulkFailure_doesNotFallBackOrRemember() {
+        VitalsSyncWorker.Uploader up = new VitalsSyncWorker.Uploader(ctx, (path, body) -> {
+            calls.add(path);
+            return fail(503);
+        });
+
+        assertNull(up.push(rows(2)));
+        assertEquals(1, calls.size());
+        assertEquals(Integer.valueOf(503), up.getLastHttpCode());
+        assertNull(EndpointCapabilities.INSTANCE.known(ctx, VitalsSyncWorker.FEATURE));
+    }
+
+    // ---- helpers
+
+    private static List<PatientVitalsLocalDb.Row> rows(int n) {
+        List<PatientVitalsLocalDb.Row> out = new ArrayList<>();
+        for (int i = 1; i <= n; i++) {
+            out.add(new PatientVitalsLocalDb.Row(i, 0L, 0L, 1_700_000_000_000L + i * 60_000L,
+                    120, 80, null, "FASTING", null, null, "", 0));
+        }
+        return out;
+    }
+
+    private static JSONObject json(String s) {
+        try {
+            return new JSONObject(s);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static JSONObject obj(Object... kv) {
+        try {
+            JSONObject o = new JSONObject();
+            for (int i = 0; i < kv.length; i += 2) o.put((String) kv[i], kv[i + 1]);
+            return o;
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static ApiClient.ApiResult ok(JSONObject body) {
+        return new ApiClient.ApiResult(true, 200, body, null, "test://");
+    }
+
+    private static ApiClient.ApiResult fail(int code) {
+        return new ApiClient.ApiResult(false, code, null, "HTTP " + code, "test://");
+    }
+}
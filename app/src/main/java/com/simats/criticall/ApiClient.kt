@@ -1,11 +1,7 @@
 package com.simats.criticall
 
+import okhttp3.RequestBody.Companion.toRequestBody
 import org.json.JSONObject
-import java.io.BufferedReader
-import java.io.InputStream
-import java.net.HttpURLConnection
-import java.net.ProtocolException
-import java.net.URL
 
 object ApiClient {
 
@@ -21,27 +17,40 @@ object ApiClient {
     private const val DEFAULT_TIMEOUT_MS = 15_000
 
     fun postJson(path: String, body: JSONObject): ApiResult {
-        return postJsonInternal(path, body, DEFAULT_TIMEOUT_MS, retryOnEof = true, headers = emptyMap())
+        return postJsonInternal(path, body, DEFAULT_TIMEOUT_MS, headers = emptyMap())
     }
 
     fun postJson(path: String, body: JSONObject, timeoutMs: Int): ApiResult {
-        return postJsonInternal(path, body, timeoutMs, retryOnEof = true, headers = emptyMap())
+        return postJsonInternal(path, body, timeoutMs, headers = emptyMap())
     }
 
     fun postJson(path: String, body: JSONObject, timeoutMs: Int, headers: Map<String, String>): ApiResult {
-        return postJsonInternal(path, body, timeoutMs, retryOnEof = true, headers = headers)
+        return postJsonInternal(path, body, timeoutMs, headers = headers)
     }
 
-    fun postJsonAuth(path: String, body: JSONObject, token: String, timeoutMs: Int = DEFAULT_TIMEOUT_MS): ApiResult {
+    fun postJsonAuth(
+        path: String,
+        body: JSONObject,
+        token: String,
+        timeoutMs: Int = DEFAULT_TIMEOUT_MS,
+        idempotent: Boolean = false
+    ): ApiResult {
         val h = if (token.isBlank()) emptyMap() else mapOf("Authorization" to "Bearer $token")
-        return postJsonInternal(path, body, timeoutMs, retryOnEof = true, headers = h)
+        return postJsonInternal(path, body, timeoutMs, headers = h, idempotent = idempotent)
     }
 
-    fun postJsonWithAuth(path: String, body: JSONObject, token: String, timeoutMs: Int = DEFAULT_TIMEOUT_MS): ApiResult {
+    /** [idempotent]: the endpoint only reads (list/detail/status), so a stale-socket failure may be retried. */
+    fun postJsonWithAuth(
+        path: String,
+        body: JSONObject,
+        token: String,
+        timeoutMs: Int = DEFAULT_TIMEOUT_MS,
+        idempotent: Boolean = false
+    ): ApiResult {
         return if (token.isBlank()) {
-            postJson(path, body, timeoutMs)
+            postJsonInternal(path, body, timeoutMs, headers = emptyMap(), idempotent = idempotent)
         } else {
-            postJsonAuth(path, body, token, timeoutMs)
+            postJsonAuth(path, body, token, timeoutMs, idempotent)
         }
     }
 
@@ -72,51 +81,19 @@ object ApiClient {
         path: String,
         body: JSONObject,
         timeoutMs: Int,
-        retryOnEof: Boolean,
-        headers: Map<String, String>
+        headers: Map<String, String>,
+        idempotent: Boolean = false
     ): ApiResult {
         val fullUrl = BASE_URL + path
 
-        // fixes XAMPP intermittent EOF
-        System.setProperty("http.keepAlive", "false")
-
-        var conn: HttpURLConnection? = null
-
-        fun readAll(stream: InputStream?): String {
-            if (stream == null) return ""
-            return stream.bufferedReader().use(BufferedReader::readText)
-        }
-
         try {
-            val url = URL(fullUrl)
-            conn = (url.openConnection() as HttpURLConnection).apply {
-                requestMethod = "POST"
-                instanceFollowRedirects = false
-                useCaches = false
-                doInput = true
-                doOutput = true
-
-                connectTimeout = timeoutMs
-                readTimeout = timeoutMs
-
-                setRequestProperty("Content-Type", "application/json; charset=utf-8")
-                setRequestProperty("Accept", "application/json")
-                setRequestProperty("Accept-Encoding", "identity")
-                setRequestProperty("Connection", "close")
-
-                for ((k, v) in headers) setRequestProperty(k, v)
-            }
-
-            val bytes = body.toString().toByteArray(Charsets.UTF_8)
-            conn.setFixedLengthStreamingMode(bytes.size)
+            val req = HttpTransport.jsonRequest(fullUrl, idempotent)
+                .apply { for ((k, v) in headers) header(k, v) }
+                .post(body.toString().toRequestBody(HttpTransport.JSON_MEDIA))
+                .build()
 
-            conn.outputStream.use { os ->
-                os.write(bytes)
-                os.flush()
-            }
-
-            val code = conn.responseCode
-            val text = if (code in 200..299) readAll(conn.inputStream) else readAll(conn.errorStream)
+            // pooled + keep-alive + gzip; stale XAMPP sockets are retried once inside HttpTransport (reads only)
+            val (code, text) = HttpTransport.fetchText(req, timeoutMs, followRedirects = false)
             val json = runCatching { JSONObject(text) }.getOrNull()
 
             val ok = (code in 200..299) && (json?.optBoolean("ok", false) == true)
@@ -139,15 +116,8 @@ object ApiClient {
                 errorMessage = normalizedErr,
                 url = fullUrl
             )
-        } catch (e: ProtocolException) {
-            if (retryOnEof) {
-                return postJsonInternal(path, body, timeoutMs, retryOnEof = false, headers = headers)
-            }
-            return ApiResult(false, 0, null, "ProtocolException: ${e.message}", fullUrl)
         } catch (e: Exception) {
             return ApiResult(false, 0, null, "${e.javaClass.simpleName}: ${e.message}", fullUrl)
-        } finally {
-            conn?.disconnect()
         }
     }
 }
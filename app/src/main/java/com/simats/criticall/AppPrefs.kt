@@ -2,8 +2,8 @@ package com.simats.criticall
 
 import android.content.Context
 
+// facade over PrefStore (was SharedPreferences "app_prefs")
 object AppPrefs {
-    private const val PREF = "app_prefs"
     private const val KEY_LANG = "selected_language"
     private const val KEY_ROLE = "selected_role"
     private const val KEY_TOKEN = "auth_token"
@@ -22,7 +22,7 @@ object AppPrefs {
     private const val KEY_LAST_UID = "last_uid"
     private const val KEY_LAST_USER_NAME = "last_user_name"
 
-    private fun prefs(c: Context) = c.getSharedPreferences(PREF, Context.MODE_PRIVATE)
+    private fun prefs(c: Context) = PrefStore.ns(c, PrefStore.NS_APP)
 
     fun getLang(c: Context): String? = prefs(c).getString(KEY_LANG, null)
     fun setLang(c: Context, lang: String) = prefs(c).edit().putString(KEY_LANG, lang).apply()
@@ -493,7 +493,9 @@ object AssistantBarController {
         tvSub?.text = "Generating reply"
         AssistantUiBridge.setSpeaking(true)
 
-        lab.sendText(system, payload, 140, object : LabClient.Listener {
+        // same user, prompt and normalized question -> answered from AssistantReplyCache, no request
+        val cacheKey = AssistantReplyCache.key(activity, "quick", lang, text, AssistantReplyCache.contextHash(system))
+        lab.sendText(system, payload, 140, cacheKey, AssistantReplyCache.TTL_CHAT_MS, object : LabClient.Listener {
             override fun onSuccess(replyText: String) {
                 activity.runOnUiThread {
                     AssistantUiBridge.setSpeaking(false)
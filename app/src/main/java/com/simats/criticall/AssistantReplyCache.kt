@@ -0,0 +1,127 @@
+package com.simats.criticall
+
+import android.content.Context
+import android.util.Log
+import com.simats.criticall.TieredCache.Codecs
+import java.security.MessageDigest
+import java.text.Normalizer
+import java.util.Locale
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Disk-backed cache of Gemini replies, shared by the chat sheet, the assistant bar and chip suggestions
+ * (all through [LabClient.sendText] with a key from [key]).
+ *
+ * Keys are built from the signed-in user, the *normalized* question (case, whitespace, punctuation,
+ * Unicode form), the reply language and a hash of whatever context the prompt carried (system prompt,
+ * labs, Rx, risk...), so a context change is simply a different key and old answers age out through
+ * their TTL. Normalizing keeps everything that can change a medical answer: comparison operators,
+ * signs and decimal points ("sugar > 200" and "sugar < 200" stay apart, "0.5" stays "0.5").
+ * The whole cache is per device, so it is dropped on logout ([clear]).
+ */
+object AssistantReplyCache {
+
+    private const val TAG = "AssistantReplyCache"
+    private const val NAMESPACE = "assistant_replies"
+    private const val DISK_BYTES = 2L * 1024 * 1024
+
+    const val TTL_CHAT_MS = 6 * 60 * 60 * 1000L
+    const val TTL_CHIPS_MS = 24 * 60 * 60 * 1000L
+    const val TTL_LANG_MS = 7 * 24 * 60 * 60 * 1000L
+
+    class Stats {
+        val hits = AtomicLong()
+        val misses = AtomicLong()
+
+        fun hitRate(): Double {
+            val h = hits.get()
+            val total = h + misses.get()
+            return if (total == 0L) 0.0 else h.toDouble() / total
+        }
+
+        override fun toString(): String =
+            "hits=${hits.get()} misses=${misses.get()} rate=${String.format(Locale.US, "%.2f", hitRate())}"
+    }
+
+    private val stats = ConcurrentHashMap<String, Stats>()
+
+    // "." / "," only count as punctuation when they aren't between two digits
+    private val PUNCT = Regex("(?<!\\d)[.,]|[.,](?!\\d)|[\\p{P}\\p{S}&&[^<>=≤≥+\\-/%.,]]")
+    private val OPERATORS = Regex("\\s*([<>=≤≥]+)\\s*")
+    private val SPACES = Regex("\\s+")
+
+    /**
+     * "What should I do today?" and "what  should i do today" both become "what should i do today";
+     * "Sugar>200?" becomes "sugar > 200" (operators, signs, "/", "%" and decimals are kept).
+     */
+    @JvmStatic
+    fun normalize(question: String): String {
+        val nfkc = Normalizer.normalize(question, Normalizer.Form.NFKC)
+        return nfkc.lowercase(Locale.ROOT)
+            .replace(PUNCT, " ")
+            .replace(OPERATORS, " $1 ")
+            .replace(SPACES, " ")
+            .trim()
+    }
+
+    /** Hash of the prompt context; pass every input that changes the answer (labs, Rx, risk...). */
+    @JvmStatic
+    fun contextHash(vararg parts: String?): String {
+        val md = MessageDigest.getInstance("SHA-1")
+        for (p in parts) {
+            md.update((p ?: "").toByteArray(Charsets.UTF_8))
+            md.update(0)
+        }
+        val d = md.digest()
+        val sb = StringBuilder(16)
+        for (i in 0 until 8) sb.append(String.format("%02x", d[i]))
+        return sb.toString()
+    }
+
+    /**
+     * [scope] separates callers whose prompts differ (chat / quick / chips / lang); [contextHash]
+     * ([contextHash]) must cover the system prompt and anything else the reply depends on.
+     * The signed-in user is always part of the key.
+     */
+    @JvmStatic
+    fun key(c: Context, scope: String, lang: String, question: String, contextHash: String): String {
+        val user = "${AppPrefs.getLastRole(c).orEmpty()}:${AppPrefs.getLastUid(c)}"
+        return "$scope|$user|${lang.lowercase(Locale.ROOT)}|$contextHash|${normalize(question)}"
+    }
+
+    @JvmStatic
+    fun get(c: Context, key: String): String? {
+        val v = store(c).get(key, Codecs.STRING)
+        val s = statsOf(key)
+        if (v.isNullOrBlank()) {
+            s.misses.incrementAndGet()
+            return null
+        }
+        s.hits.incrementAndGet()
+        return v
+    }
+
+    @JvmStatic
+    fun put(c: Context, key: String, reply: String, ttlMs: Long) {
+        if (reply.isBlank()) return
+        store(c).put(key, reply, Codecs.STRING, ttlMs)
+    }
+
+    /** Forget every cached reply (logout / account switch). */
+    @JvmStatic
+    fun clear(c: Context) {
+        store(c).clear()
+    }
+
+    fun statsFor(scope: String): Stats = stats.getOrPut(scope) { Stats() }
+
+    /** Debug helper: hit rate per scope in logcat. */
+    fun dump() {
+        for ((k, v) in stats.entries.sortedBy { it.key }) Log.d(TAG, "$k -> $v")
+    }
+
+    private fun statsOf(key: String) = statsFor(key.substringBefore('|'))
+
+    private fun store(c: Context) = TieredCache.namespace(c, NAMESPACE, DISK_BYTES)
+}
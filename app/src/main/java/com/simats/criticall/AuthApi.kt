@@ -98,7 +98,7 @@ object AuthApi {
     // =========================================================
     fun checkVerificationStatus(token: String = ""): ApiClient.ApiResult {
         val body = JSONObject().apply { put("ping", 1) }
-        return ApiClient.postJsonWithAuth("auth/check_verification_status.php", body, token)
+        return ApiClient.postJsonWithAuth("auth/check_verification_status.php", body, token, idempotent = true)
     }
 
     // =========================================================
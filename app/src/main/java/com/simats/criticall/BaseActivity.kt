@@ -4,7 +4,12 @@ import android.content.Context
 import android.content.Intent
 import android.os.Bundle
 import androidx.activity.addCallback
+import androidx.appcompat.app.AlertDialog
 import androidx.appcompat.app.AppCompatActivity
+import androidx.lifecycle.lifecycleScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 
 open class BaseActivity : AppCompatActivity() {
     private var lastVolDownMs: Long = 0L
@@ -16,6 +21,8 @@ open class BaseActivity : AppCompatActivity() {
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
+        HttpTransport.install(this)
+        MutationOutbox.install(this)
         setupRootBackBehavior()
     }
 
@@ -25,6 +32,29 @@ open class BaseActivity : AppCompatActivity() {
             AssistantBarController.attach(this)
         } catch (_: Throwable) {
         }
+        showFailedMutations()
+    }
+
+    // offline edits the outbox gave up on: tell the user once per new failure, let them retry or drop
+    private fun showFailedMutations() {
+        lifecycleScope.launch {
+            val failed = withContext(Dispatchers.IO) {
+                runCatching { MutationOutbox.failed(this@BaseActivity) }.getOrDefault(emptyList())
+            }
+            val newest = failed.maxOfOrNull { it.id } ?: return@launch
+            if (newest <= failedShownUpTo || isFinishing) return@launch
+            failedShownUpTo = newest
+            AlertDialog.Builder(this@BaseActivity)
+                .setTitle(R.string.outbox_failed_title)
+                .setMessage(getString(R.string.outbox_failed_message, failed.size, failed.last().error.orEmpty()))
+                .setPositiveButton(R.string.retry) { _, _ ->
+                    lifecycleScope.launch { MutationOutbox.retryFailed(applicationContext) }
+                }
+                .setNegativeButton(R.string.outbox_discard) { _, _ ->
+                    lifecycleScope.launch { MutationOutbox.discardFailed(applicationContext) }
+                }
+                .show()
+        }
     }
 
     override fun onPause() {
@@ -106,6 +136,11 @@ open class BaseActivity : AppCompatActivity() {
         }
     }
 
+    companion object {
+        // highest failed outbox row already shown this process
+        @Volatile private var failedShownUpTo = 0L
+    }
+
     override fun finish() {
         super.finish()
         // If caller didn't use goBack(), still keep it smooth:
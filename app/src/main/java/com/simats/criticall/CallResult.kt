@@ -0,0 +1,16 @@
+package com.simats.criticall
+
+/**
+ * Outcome of one API call. Status travels with the call instead of through shared
+ * lastError/lastHttpCode fields, so several calls can run at the same time.
+ */
+sealed class CallResult<out T> {
+    data class Ok<out T>(val value: T) : CallResult<T>()
+    data class Failed(val error: String, val httpCode: Int? = null, val raw: String? = null) : CallResult<Nothing>()
+
+    val isOk: Boolean get() = this is Ok
+
+    fun valueOrNull(): T? = (this as? Ok)?.value
+
+    fun errorOrNull(): String? = (this as? Failed)?.error
+}
@@ -0,0 +1,41 @@
+package com.simats.criticall
+
+import android.app.Activity
+import android.app.Application
+import android.os.Bundle
+
+class CriticallApp : Application() {
+
+    override fun onCreate() {
+        super.onCreate()
+        // start reading startup settings before the first Activity asks for them
+        PrefStore.preload(this)
+        // offline screen copies: memory tier is filled from disk in the background, not on first read
+        LocalCache.preload(this)
+        // before anything (WorkManager workers included) touches HttpTransport.client
+        HttpTransport.install(this)
+        // caches shrink on onTrimMemory instead of the process being killed first
+        registerComponentCallbacks(MemoryGovernor)
+        // PrefStore writes are async: make sure they reached disk before the process may be killed
+        registerActivityLifecycleCallbacks(object : ActivityLifecycleCallbacks {
+            private var started = 0
+
+            override fun onActivityStarted(activity: Activity) {
+                started++
+            }
+
+            override fun onActivityStopped(activity: Activity) {
+                if (--started <= 0) {
+                    started = 0
+                    PrefStore.flush()
+                }
+            }
+
+            override fun onActivityCreated(activity: Activity, savedInstanceState: Bundle?) {}
+            override fun onActivityResumed(activity: Activity) {}
+            override fun onActivityPaused(activity: Activity) {}
+            override fun onActivitySaveInstanceState(activity: Activity, outState: Bundle) {}
+            override fun onActivityDestroyed(activity: Activity) {}
+        })
+    }
+}
@@ -314,6 +314,7 @@ class DoctorRegistrationActivity : BaseActivity() {
         }
 
         runCatching { AppPrefs.setToken(this, "") }
+        runCatching { SessionReset.onLogout(this) }
         runCatching { AppPrefs.setDoctorApplicationNo(this, "") }
 
         RoleResolver.persist(this, role)
@@ -0,0 +1,74 @@
+package com.simats.criticall
+
+import android.content.Context
+
+/**
+ * Remembers which variant of an endpoint the backend actually supports (e.g. NEW patient/* path vs
+ * legacy path), so callers skip the known-missing one instead of paying two round trips every time.
+ * The remembered variant is re-probed against the preferred order every [REPROBE_MS].
+ */
+object EndpointCapabilities {
+    private const val PREF = "endpoint_caps_v1"
+    private const val REPROBE_MS = 6L * 60 * 60 * 1000
+
+    private fun p(c: Context) = c.getSharedPreferences(PREF, Context.MODE_PRIVATE)
+
+    /** Remembered working variant for [feature], or null if unknown / due for a re-probe. */
+    fun known(c: Context, feature: String): String? {
+        val raw = p(c).getString(feature, null) ?: return null
+        val sep = raw.lastIndexOf('|')
+        if (sep <= 0) return null
+        val at = raw.substring(sep + 1).toLongOrNull() ?: return null
+        if (System.currentTimeMillis() - at > REPROBE_MS) return null
+        return raw.substring(0, sep)
+    }
+
+    fun remember(c: Context, feature: String, variant: String) {
+        p(c).edit().putString(feature, variant + "|" + System.currentTimeMillis()).apply()
+    }
+
+    fun forget(c: Context, feature: String) {
+        p(c).edit().remove(feature).apply()
+    }
+
+    /** HTTP codes that mean "this variant doesn't exist here", as opposed to a failed call. */
+    fun isMissing(httpCode: Int?): Boolean = httpCode == 404 || httpCode == 405 || httpCode == 410 || httpCode == 501
+
+    /**
+     * Try [variants] (preferred first) until [call] returns [CallResult.Ok].
+     * The next variant is only tried when [tryNext] accepts the failure; by default that is a
+     * missing-looking status ([isMissing]), so a timeout, network error or 5xx ends the attempt without
+     * remembering anything and a flaky moment on the preferred path can't pin callers to the legacy one
+     * for [REPROBE_MS]. Call sites whose old fallback also covered answered refusals (400, ok:false)
+     * pass their own [tryNext].
+     * With a remembered variant only that one is tried, unless [tryNext] accepts its failure.
+     * Each attempt carries its own HTTP status, so concurrent calls (FanOut) never see each other's.
+     */
+    inline fun <T> firstWorking(
+        c: Context,
+        feature: String,
+        variants: List<String>,
+        tryNext: (CallResult.Failed) -> Boolean = { isMissing(it.httpCode) },
+        call: (String) -> CallResult<T>
+    ): CallResult<T> {
+        val remembered = known(c, feature)?.takeIf { it in variants }
+        var last: CallResult<T> = CallResult.Failed("No endpoint variant")
+        if (remembered != null) {
+            val r = call(remembered)
+            if (r is CallResult.Ok || !tryNext(r as CallResult.Failed)) return r
+            forget(c, feature)
+            last = r
+        }
+        for (v in variants) {
+            if (v == remembered) continue
+            val r = call(v)
+            if (r is CallResult.Ok) {
+                remember(c, feature, v)
+                return r
+            }
+            last = r
+            if (!tryNext(r as CallResult.Failed)) return r
+        }
+        return last
+    }
+}
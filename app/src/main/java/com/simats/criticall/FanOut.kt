@@ -0,0 +1,44 @@
+package com.simats.criticall
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
+
+/**
+ * Structured fan-out for blocking API calls: start them together, wait for all, one shared deadline.
+ * A screen that needs three endpoints waits max(latency) instead of sum(latency).
+ *
+ *   FanOut.within(15_000) {
+ *       val doc = call { PatientApi.doctorDetail(ctx, id) }
+ *       val days = call { PatientApi.availableDays(ctx, id) }
+ *       bind(doc.await(), days.await())
+ *   }
+ *
+ * Every HTTP call made inside [Scope.call] is cut off at the deadline (see [HttpTransport.withDeadline])
+ * and comes back as [CallResult.Failed], so [within] returns shortly after the deadline at the latest.
+ */
+object FanOut {
+
+    class Scope internal constructor(
+        private val scope: CoroutineScope,
+        private val deadlineAt: Long
+    ) {
+        fun <T> call(block: () -> CallResult<T>): Deferred<CallResult<T>> = scope.async(Dispatchers.IO) {
+            if (System.currentTimeMillis() >= deadlineAt) {
+                CallResult.Failed("Timed out")
+            } else {
+                try {
+                    HttpTransport.withDeadline(deadlineAt, block)
+                } catch (e: Exception) {
+                    CallResult.Failed(e.message ?: "Network error")
+                }
+            }
+        }
+    }
+
+    suspend fun <R> within(timeoutMs: Long, block: suspend Scope.() -> R): R = coroutineScope {
+        Scope(this, System.currentTimeMillis() + timeoutMs).block()
+    }
+}
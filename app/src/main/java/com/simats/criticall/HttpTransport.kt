@@ -0,0 +1,298 @@
+package com.simats.criticall
+
+import android.content.Context
+import android.util.Log
+import okhttp3.Cache
+import okhttp3.Call
+import okhttp3.Connection
+import okhttp3.ConnectionPool
+import okhttp3.EventListener
+import okhttp3.Interceptor
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.OkHttpClient
+import okhttp3.Protocol
+import okhttp3.Request
+import okhttp3.Response
+import java.io.ByteArrayInputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FilterInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.InterruptedIOException
+import java.net.InetSocketAddress
+import java.net.Proxy
+import java.net.ProtocolException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.zip.GZIPInputStream
+
+/**
+ * One pooled OkHttp client for the whole app (keep-alive, HTTP/2 where the server offers it).
+ *
+ * XAMPP/Apache drops idle keep-alive sockets after ~5s, which used to surface as EOF on the
+ * next request. Instead of disabling reuse globally we retire pooled sockets a little earlier
+ * than that and retry once when a call dies on a stale connection. OkHttp's own silent retry is
+ * off, so only calls that are safe to send twice (GET/HEAD, or [Idempotent] read-only POSTs) are
+ * ever replayed.
+ *
+ * GETs go through an on-disk HTTP cache ([install], done in CriticallApp.onCreate so worker-only
+ * processes get it too). Responses carrying an ETag/Last-Modified are always revalidated, so an
+ * unchanged list costs a 304 + cache read instead of a full body; responses without a validator
+ * are fetched in full as before. The cache is keyed by URL, so authorized responses are stored with
+ * `Vary: Authorization` (another token never matches them) and [evictCache] empties it on logout.
+ */
+object HttpTransport {
+
+    private const val POOL_MAX_IDLE = 8
+    private const val POOL_KEEP_ALIVE_MS = 4_000L
+    private const val DEFAULT_TIMEOUT_MS = 10_000
+
+    val JSON_MEDIA = "application/json; charset=utf-8".toMediaType()
+
+    private const val CACHE_DIR = "http_cache"
+    private const val CACHE_MAX_BYTES = 20L * 1024 * 1024
+
+    private val pool = ConnectionPool(POOL_MAX_IDLE, POOL_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS)
+
+    @Volatile private var cacheDir: File? = null
+    @Volatile private var cache: Cache? = null
+
+    /** Where the disk cache lives. Call before the first request (CriticallApp does); later calls are no-ops. */
+    @JvmStatic
+    fun install(context: Context) {
+        installCacheDir(File(context.applicationContext.cacheDir, CACHE_DIR))
+    }
+
+    /** Same as [install] with an explicit directory (JVM tests have no Context). */
+    @JvmStatic
+    fun installCacheDir(dir: File) {
+        if (cacheDir == null) cacheDir = dir
+    }
+
+    @JvmStatic
+    val client: OkHttpClient by lazy {
+        // the Cache is created here, from whatever install() recorded, so a late install can't be missed silently
+        val dir = cacheDir
+        if (dir == null) Log.w("HttpTransport", "client built before install(); HTTP cache disabled for this process")
+        val c = dir?.let { Cache(it, CACHE_MAX_BYTES) }
+        cache = c
+        OkHttpClient.Builder()
+            .connectionPool(pool)
+            .cache(c)
+            .addNetworkInterceptor(RevalidateInterceptor())
+            .protocols(listOf(Protocol.HTTP_2, Protocol.HTTP_1_1))
+            .retryOnConnectionFailure(false) // replays are decided in execute(), per request
+            .eventListenerFactory { call -> ReuseListener(endpointOf(call.request())) }
+            .connectTimeout(DEFAULT_TIMEOUT_MS.toLong(), TimeUnit.MILLISECONDS)
+            .readTimeout(DEFAULT_TIMEOUT_MS.toLong(), TimeUnit.MILLISECONDS)
+            .build()
+    }
+
+    /** Drop every cached response (logout: the next account must not see this one's data). Runs off the caller's thread. */
+    @JvmStatic
+    fun evictCache() {
+        val c = cache ?: return
+        client.dispatcher.executorService.execute { runCatching { c.evictAll() } }
+    }
+
+    // derived clients share pool + dispatcher; cache them so we don't rebuild per call
+    private val derived = ConcurrentHashMap<String, OkHttpClient>()
+
+    fun clientFor(timeoutMs: Int, followRedirects: Boolean = true): OkHttpClient {
+        if (timeoutMs == DEFAULT_TIMEOUT_MS && followRedirects) return client
+        return derived.getOrPut("$timeoutMs/$followRedirects") {
+            client.newBuilder()
+                .connectTimeout(timeoutMs.toLong(), TimeUnit.MILLISECONDS)
+                .readTimeout(timeoutMs.toLong(), TimeUnit.MILLISECONDS)
+                .writeTimeout(timeoutMs.toLong(), TimeUnit.MILLISECONDS)
+                .followRedirects(followRedirects)
+                .build()
+        }
+    }
+
+    // per-thread absolute deadline (wall clock ms) set by FanOut; caps every call made inside it
+    private val deadline = ThreadLocal<Long>()
+
+    /** Run [block] with every HTTP call on this thread bounded by the absolute deadline [atMs]. */
+    fun <T> withDeadline(atMs: Long, block: () -> T): T {
+        val prev = deadline.get()
+        deadline.set(atMs)
+        try {
+            return block()
+        } finally {
+            if (prev == null) deadline.remove() else deadline.set(prev)
+        }
+    }
+
+    /** Time left before this thread's deadline, or null when no deadline is set. */
+    fun remainingMs(): Long? = deadline.get()?.let { it - System.currentTimeMillis() }
+
+    /** Request tag for non-GET calls that are safe to send twice (see [execute]). */
+    object Idempotent
+
+    /**
+     * Blocking execute with a single retry when the pooled socket turned out to be stale.
+     * Only GET/HEAD or requests tagged [Idempotent] are retried: a reset/EOF can arrive after the
+     * server already ran a POST (booking, medicine request), and resending it would duplicate it.
+     * Caller must close the returned Response.
+     */
+    @Throws(IOException::class)
+    fun execute(request: Request, timeoutMs: Int, followRedirects: Boolean = true): Response {
+        val endpoint = endpointOf(request)
+        NetStats.onCall(endpoint)
+        val c = clientFor(timeoutMs, followRedirects)
+        return try {
+            newCall(c, request).execute()
+        } catch (e: IOException) {
+            if (!isStaleConnectionFailure(e) || !isRetrySafe(request)) throw e
+            NetStats.onStaleRetry(endpoint)
+            pool.evictAll()
+            newCall(c, request).execute()
+        }
+    }
+
+    private fun newCall(c: OkHttpClient, request: Request): Call {
+        val call = c.newCall(request)
+        val left = remainingMs() ?: return call
+        if (left <= 0) throw InterruptedIOException("Deadline exceeded")
+        call.timeout().timeout(left, TimeUnit.MILLISECONDS)
+        return call
+    }
+
+    data class Text(val code: Int, val body: String)
+
+    /**
+     * Request builder with the headers every JSON endpoint uses (gzip negotiated, decoded by [openBody]).
+     * [idempotent] tags a POST that only reads (lists, details) so a stale-socket failure is retried.
+     */
+    fun jsonRequest(url: String, idempotent: Boolean = false): Request.Builder =
+        Request.Builder()
+            .url(url)
+            .header("Accept", "application/json")
+            .header("Accept-Encoding", "gzip")
+            .apply { if (idempotent) tag(Idempotent::class.java, Idempotent) }
+
+    /** Authenticated GET through the shared client (pool, gzip, coalescing, HTTP cache). */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun getText(url: String, token: String?, timeoutMs: Int): Text {
+        val rb = jsonRequest(url).get()
+        if (!token.isNullOrBlank()) rb.header("Authorization", "Bearer $token")
+        return fetchText(rb.build(), timeoutMs)
+    }
+
+    /**
+     * Execute and read the (decoded) body fully.
+     * Reads ([shareInFlight], default for GET) are coalesced with identical concurrent calls via [SingleFlight].
+     */
+    @Throws(IOException::class)
+    fun fetchText(
+        request: Request,
+        timeoutMs: Int,
+        followRedirects: Boolean = true,
+        shareInFlight: Boolean = request.method == "GET"
+    ): Text {
+        if (!shareInFlight) return fetchTextDirect(request, timeoutMs, followRedirects)
+        return SingleFlight.run(request, timeoutMs) { fetchTextDirect(request, timeoutMs, followRedirects) }
+    }
+
+    private fun fetchTextDirect(request: Request, timeoutMs: Int, followRedirects: Boolean): Text {
+        return execute(request, timeoutMs, followRedirects).use { resp ->
+            Text(resp.code, openBody(resp).bufferedReader(Charsets.UTF_8).use { it.readText() })
+        }
+    }
+
+    /**
+     * Response body as a decoded stream. We ask for gzip ourselves (so OkHttp doesn't decode
+     * transparently) which lets us count wire bytes before inflating and decoded bytes after.
+     */
+    fun openBody(resp: Response): InputStream {
+        val body = resp.body ?: return ByteArrayInputStream(ByteArray(0))
+        val endpoint = endpointOf(resp.request)
+        val network = resp.networkResponse
+        val fromCache = resp.cacheResponse != null && (network == null || network.code == 304)
+        if (fromCache) NetStats.onCacheHit(endpoint, revalidated = network != null)
+        val wire = CountingStream(body.byteStream()) {
+            if (fromCache) NetStats.onCacheBytes(endpoint, it) else NetStats.onWireBytes(endpoint, it)
+        }
+        val gzip = resp.header("Content-Encoding").equals("gzip", ignoreCase = true) &&
+            body.contentLength() != 0L
+        val decoded = if (gzip) GZIPInputStream(wire, 8 * 1024) else wire
+        return CountingStream(decoded) { NetStats.onDecodedBytes(endpoint, it) }
+    }
+
+    fun endpointOf(request: Request): String = request.url.encodedPath
+
+    private fun isRetrySafe(request: Request): Boolean =
+        request.method == "GET" || request.method == "HEAD" || request.tag(Idempotent::class.java) != null
+
+    private fun isStaleConnectionFailure(e: IOException): Boolean {
+        if (e is EOFException || e is ProtocolException) return true
+        val msg = e.message.orEmpty()
+        return msg.contains("unexpected end of stream", ignoreCase = true) ||
+            msg.contains("Connection reset", ignoreCase = true) ||
+            e.cause is EOFException
+    }
+
+    /**
+     * Responses that carry a validator (ETag / Last-Modified) but no Cache-Control are marked no-cache,
+     * so OkHttp stores them and always asks the server (If-None-Match / If-Modified-Since) before reusing.
+     * Endpoints that send no validator are untouched and never cached.
+     * Any response to an authorized GET varies by Authorization, whatever the server sent, so a cached
+     * patient list is only ever reused for the same token.
+     */
+    private class RevalidateInterceptor : Interceptor {
+        override fun intercept(chain: Interceptor.Chain): Response {
+            val resp = chain.proceed(chain.request())
+            if (chain.request().method != "GET") return resp
+            val authorized = chain.request().header("Authorization") != null
+            val hasValidator = resp.header("ETag") != null || resp.header("Last-Modified") != null
+            val hasPolicy = resp.header("Cache-Control") != null || resp.header("Expires") != null
+            val revalidate = hasValidator && !hasPolicy
+            if (!revalidate && !authorized) return resp
+            val b = resp.newBuilder()
+            if (revalidate) {
+                b.header("Cache-Control", "private, no-cache").removeHeader("Pragma")
+            }
+            if (authorized) {
+                val vary = resp.headers("Vary").joinToString(", ")
+                if (!vary.contains("Authorization", ignoreCase = true)) {
+                    b.header("Vary", if (vary.isBlank()) "Authorization" else "$vary, Authorization")
+                }
+            }
+            return b.build()
+        }
+    }
+
+    /** connectStart only fires for fresh sockets, so acquired-without-connect = reused. */
+    private class ReuseListener(private val endpoint: String) : EventListener() {
+        private var connecting = false
+
+        override fun connectStart(call: Call, inetSocketAddress: InetSocketAddress, proxy: Proxy) {
+            connecting = true
+        }
+
+        override fun connectionAcquired(call: Call, connection: Connection) {
+            NetStats.onConnectionAcquired(endpoint, reused = !connecting)
+            connecting = false
+        }
+    }
+
+    private class CountingStream(
+        input: InputStream,
+        private val onBytes: (Long) -> Unit
+    ) : FilterInputStream(input) {
+        override fun read(): Int {
+            val b = super.read()
+            if (b >= 0) onBytes(1L)
+            return b
+        }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            val n = super.read(b, off, len)
+            if (n > 0) onBytes(n.toLong())
+            return n
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.simats.criticall
+
+import android.util.JsonReader
+import android.util.JsonToken
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.trySendBlocking
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.withContext
+import okhttp3.Request
+import org.json.JSONArray
+import org.json.JSONObject
+import java.io.InputStreamReader
+
+/**
+ * Streaming reader for list endpoints shaped like
+ * `{ ok, error, data: { total, ..., items: [ {...}, ... ] } }` (array at root or `data: [...]` also accepted).
+ *
+ * Rows are emitted in chunks while the body is still arriving. Only one row at a time is turned
+ * into a JSONObject, so a 500-row list is never held as String + full JSONObject tree + row models.
+ * Collect on Main; parsing runs on IO.
+ */
+object JsonRowStream {
+
+    class Chunk(
+        val rows: List<JSONObject>,
+        /** Everything outside the row array (ok, error, total, server_now_ms...), `data` flattened in. */
+        val header: JSONObject,
+        val last: Boolean
+    ) {
+        val ok: Boolean get() = header.optBoolean("ok", false) || header.optBoolean("success", false)
+    }
+
+    /**
+     * @param firstChunk rows in the first emission (about one screenful)
+     * @param chunk rows per emission after that
+     */
+    fun rows(
+        request: Request,
+        timeoutMs: Int,
+        arrayKeys: Set<String> = setOf("items"),
+        firstChunk: Int = 20,
+        chunk: Int = 100
+    ): Flow<Chunk> = channelFlow {
+        val out = this
+        withContext(Dispatchers.IO) {
+            val header = JSONObject()
+            val buf = ArrayList<JSONObject>(firstChunk)
+            var limit = firstChunk
+            // header fields only get added (rows are mid-array while we flush), so copy it when it grew
+            var headerCopy = JSONObject()
+
+            fun flush() {
+                if (buf.isEmpty()) return
+                if (headerCopy.length() != header.length()) headerCopy = JSONObject(header, header.keys().asSequence().toList().toTypedArray())
+                val c = Chunk(ArrayList(buf), headerCopy, last = false)
+                buf.clear()
+                limit = chunk
+                if (out.trySendBlocking(c).isFailure) throw CancellationException("collector gone")
+            }
+
+            try {
+                HttpTransport.execute(request, timeoutMs).use { resp ->
+                    JsonReader(InputStreamReader(HttpTransport.openBody(resp), Charsets.UTF_8)).use { r ->
+                        readEnvelope(r, header, arrayKeys) { row ->
+                            buf.add(row)
+                            if (buf.size >= limit) flush()
+                        }
+                    }
+                }
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                header.put("ok", false)
+                if (!header.has("error")) header.put("error", e.message ?: "Network error")
+            }
+
+            out.send(Chunk(ArrayList(buf), header, last = true))
+        }
+    }
+
+    private fun readEnvelope(
+        r: JsonReader,
+        header: JSONObject,
+        arrayKeys: Set<String>,
+        onRow: (JSONObject) -> Unit
+    ) {
+        if (r.peek() == JsonToken.BEGIN_ARRAY) {
+            readRows(r, onRow)
+            return
+        }
+        r.beginObject()
+        while (r.hasNext()) {
+            val name = r.nextName()
+            val token = r.peek()
+            when {
+                name in arrayKeys && token == JsonToken.BEGIN_ARRAY -> readRows(r, onRow)
+                name == "data" && token == JsonToken.BEGIN_OBJECT -> readEnvelope(r, header, arrayKeys, onRow)
+                name == "data" && token == JsonToken.BEGIN_ARRAY -> readRows(r, onRow)
+                else -> header.put(name, readValue(r))
+            }
+        }
+        r.endObject()
+    }
+
+    private fun readRows(r: JsonReader, onRow: (JSONObject) -> Unit) {
+        r.beginArray()
+        while (r.hasNext()) {
+            if (r.peek() == JsonToken.BEGIN_OBJECT) onRow(readObject(r)) else r.skipValue()
+        }
+        r.endArray()
+    }
+
+    private fun readObject(r: JsonReader): JSONObject {
+        val o = JSONObject()
+        r.beginObject()
+        while (r.hasNext()) {
+            val name = r.nextName()
+            o.put(name, readValue(r))
+        }
+        r.endObject()
+        return o
+    }
+
+    // same value types org.json would have produced for the buffered body
+    private fun readValue(r: JsonReader): Any? {
+        return when (r.peek()) {
+            JsonToken.BEGIN_OBJECT -> readObject(r)
+            JsonToken.BEGIN_ARRAY -> {
+                val a = JSONArray()
+                r.beginArray()
+                while (r.hasNext()) a.put(readValue(r))
+                r.endArray()
+                a
+            }
+            JsonToken.STRING -> r.nextString()
+            JsonToken.NUMBER -> {
+                val s = r.nextString()
+                s.toIntOrNull() ?: s.toLongOrNull() ?: s.toDoubleOrNull() ?: s
+            }
+            JsonToken.BOOLEAN -> r.nextBoolean()
+            JsonToken.NULL -> {
+                r.nextNull()
+                JSONObject.NULL
+            }
+            else -> {
+                r.skipValue()
+                null
+            }
+        }
+    }
+}
@@ -4,12 +4,15 @@ import android.content.Context;
 import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import okhttp3.Call;
 import okhttp3.Callback;
@@ -36,7 +39,14 @@ public class LabClient {
     private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
     private static final String MODEL = "gemini-2.5-flash-lite";
 
-    private final OkHttpClient http = new OkHttpClient();
+    // cache lookups can hit disk; callers are usually on the main thread
+    private static final ExecutorService CACHE_LOOKUP = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "lab-cache");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final OkHttpClient http = HttpTransport.getClient();
     private final Context appCtx;
 
     public LabClient(@NonNull Context ctx) {
@@ -48,6 +58,44 @@ public class LabClient {
             @NonNull String userText,
             int maxOutputTokens,
             @NonNull Listener listener
+    ) {
+        sendText(systemPrompt, userText, maxOutputTokens, null, 0L, listener);
+    }
+
+    /**
+     * Same as above, but answers from {@link AssistantReplyCache} when {@code cacheKey} is known
+     * (no request) and stores successful replies under it for {@code ttlMs}.
+     * The lookup runs off the calling thread, so the listener is always called on a background thread.
+     */
+    public void sendText(
+            @NonNull String systemPrompt,
+            @NonNull String userText,
+            int maxOutputTokens,
+            @Nullable String cacheKey,
+            long ttlMs,
+            @NonNull Listener listener
+    ) {
+        if (cacheKey == null) {
+            request(systemPrompt, userText, maxOutputTokens, null, ttlMs, listener);
+            return;
+        }
+        CACHE_LOOKUP.execute(() -> {
+            String cached = AssistantReplyCache.get(appCtx, cacheKey);
+            if (cached != null) {
+                listener.onSuccess(cached);
+            } else {
+                request(systemPrompt, userText, maxOutputTokens, cacheKey, ttlMs, listener);
+            }
+        });
+    }
+
+    private void request(
+            @NonNull String systemPrompt,
+            @NonNull String userText,
+            int maxOutputTokens,
+            @Nullable String cacheKey,
+            long ttlMs,
+            @NonNull Listener listener
     ) {
         String apiKey = BuildConfig.GEMINI_API_KEY;
 
@@ -130,7 +178,11 @@ public class LabClient {
                     }
                     JsonObject p0 = parts.get(0).getAsJsonObject();
                     String text = p0.has("text") ? p0.get("text").getAsString() : "";
-                    if (TextUtils.isEmpty(text)) text = "I couldn't generate a response.";
+                    if (TextUtils.isEmpty(text)) {
+                        text = "I couldn't generate a response.";
+                    } else if (cacheKey != null) {
+                        AssistantReplyCache.put(appCtx, cacheKey, text.trim(), ttlMs);
+                    }
                     listener.onSuccess(text.trim());
                 } catch (Exception ex) {
                     listener.onError("Parse error: " + ex.getMessage());
@@ -1,32 +1,83 @@
 package com.simats.criticall
 
 import android.content.Context
+import com.simats.criticall.TieredCache.Codecs
+import org.json.JSONObject
 
+/**
+ * Offline copies of screen data. Same API as before, now backed by [TieredCache]
+ * (memory LRU + one file per key) instead of a single SharedPreferences XML that was
+ * rewritten on every put.
+ */
 object LocalCache {
-    private const val PREF = "local_cache_v1"
+    private const val LEGACY_PREF = "local_cache_v1" // migrated once, then deleted
+    private const val NAMESPACE = "local"
 
-    private fun p(c: Context) = c.getSharedPreferences(PREF, Context.MODE_PRIVATE)
+    @Volatile private var store: TieredCache.Namespace? = null
 
-    fun putString(c: Context, key: String, value: String?) {
-        p(c).edit().putString(key, value).apply()
+    private fun s(c: Context): TieredCache.Namespace =
+        store ?: synchronized(this) {
+            store ?: TieredCache.namespace(c, NAMESPACE).also {
+                val app = c.applicationContext
+                // off the caller's thread (often main); legacy keys read as missing until it is done
+                Thread({ migrateLegacy(app, it) }, "local-cache-migrate").start()
+                store = it
+            }
+        }
+
+    /** Open the namespace early so its warm-up (and the legacy migration) runs before the first screen reads (CriticallApp does). */
+    @JvmStatic
+    fun preload(c: Context) {
+        s(c)
+    }
+
+    // runs once per install; if we die half way the prefs file is still there and the copy simply repeats.
+    // Anything already written through LocalCache is newer than the legacy copy and is kept.
+    private fun migrateLegacy(app: Context, ns: TieredCache.Namespace) {
+        val prefs = app.getSharedPreferences(LEGACY_PREF, Context.MODE_PRIVATE)
+        val all = prefs.all
+        if (all.isEmpty()) return
+        for ((k, v) in all) {
+            when (v) {
+                is Int -> ns.putIfAbsent(k, v, Codecs.INT)
+                is Long -> ns.putIfAbsent(k, v, Codecs.LONG)
+                null -> Unit
+                else -> ns.putIfAbsent(k, v.toString(), Codecs.STRING)
+            }
+        }
+        ns.flush()
+        prefs.edit().clear().commit()
+        app.deleteSharedPreferences(LEGACY_PREF)
+    }
+
+    /** [ttlMs] <= 0 keeps the value until overwritten/removed (old behaviour). */
+    fun putString(c: Context, key: String, value: String?, ttlMs: Long = 0L) {
+        s(c).put(key, value, Codecs.STRING, ttlMs)
     }
 
-    fun getString(c: Context, key: String): String? = p(c).getString(key, null)
+    fun getString(c: Context, key: String): String? = s(c).get(key, Codecs.STRING)
 
     fun putInt(c: Context, key: String, value: Int) {
-        p(c).edit().putInt(key, value).apply()
+        s(c).put(key, value, Codecs.INT)
     }
 
-    fun getInt(c: Context, key: String, def: Int = 0): Int = p(c).getInt(key, def)
+    fun getInt(c: Context, key: String, def: Int = 0): Int = s(c).get(key, Codecs.INT) ?: def
 
     fun putLong(c: Context, key: String, value: Long) {
-        p(c).edit().putLong(key, value).apply()
+        s(c).put(key, value, Codecs.LONG)
+    }
+
+    fun getLong(c: Context, key: String, def: Long = 0L): Long = s(c).get(key, Codecs.LONG) ?: def
+
+    /** Typed JSON access: parsed once and kept parsed in the memory tier; callers get their own copy. */
+    fun putJson(c: Context, key: String, value: JSONObject?, ttlMs: Long = 0L) {
+        s(c).put(key, value, Codecs.JSON_OBJECT, ttlMs)
     }
 
-    fun getLong(c: Context, key: String, def: Long = 0L): Long = p(c).getLong(key, def)
+    fun getJson(c: Context, key: String): JSONObject? = s(c).get(key, Codecs.JSON_OBJECT)
 
     fun remove(c: Context, key: String) {
-        p(c).edit().remove(key).apply()
+        s(c).remove(key)
     }
 
     fun key(prefix: String, id: Long): String = "${prefix}_${id}"
@@ -0,0 +1,103 @@
+package com.simats.criticall
+
+import android.content.ComponentCallbacks2
+import android.content.res.Configuration
+import android.util.Log
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Central registry of in-memory caches, driven by [ComponentCallbacks2] trim levels
+ * (registered once in [CriticallApp]).
+ *
+ * Each cache registers under a name with a [Priority]; on memory pressure the cheap-to-rebuild ones are
+ * shrunk/dropped first and the expensive ones (ML model, speech model) only when the process is about to
+ * be killed anyway. [usage] reports what every cache holds right now.
+ *
+ * Registrations are strong references: screen-scoped caches must [unregister] when they go away.
+ */
+object MemoryGovernor : ComponentCallbacks2 {
+
+    private const val TAG = "MemoryGovernor"
+
+    enum class Priority {
+        /** Refetched/rebuilt in a few ms (decoded profiles, short-TTL lists). */
+        LOW,
+        /** Worth keeping while visible (memory tier of the disk caches, screen lists). */
+        NORMAL,
+        /** Slow to rebuild (models parsed from assets); dropped last. */
+        HIGH
+    }
+
+    interface Trimmable {
+        /** Rough bytes held right now. */
+        fun memoryBytes(): Long
+
+        /** Shrink to about [keepFraction] of the current size; 0 drops everything. */
+        fun trimTo(keepFraction: Float)
+    }
+
+    private class Registration(val priority: Priority, val cache: Trimmable)
+
+    private val caches = ConcurrentHashMap<String, Registration>()
+
+    /** Re-registering a name replaces the previous entry. */
+    @JvmStatic
+    fun register(name: String, priority: Priority, cache: Trimmable) {
+        caches[name] = Registration(priority, cache)
+    }
+
+    /** Removes [name] only if it is still [cache] (a newer screen may have taken the name over). */
+    @JvmStatic
+    fun unregister(name: String, cache: Trimmable) {
+        caches.computeIfPresent(name) { _, r -> if (r.cache === cache) null else r }
+    }
+
+    /** name -> bytes, largest first. */
+    @JvmStatic
+    fun usage(): Map<String, Long> {
+        val out = LinkedHashMap<String, Long>()
+        caches.entries
+            .map { it.key to runCatching { it.value.cache.memoryBytes() }.getOrDefault(0L) }
+            .sortedByDescending { it.second }
+            .forEach { out[it.first] = it.second }
+        return out
+    }
+
+    @JvmStatic
+    fun totalBytes(): Long = usage().values.sum()
+
+    /** Debug helper: per-cache usage in logcat. */
+    fun dump() {
+        for ((k, v) in usage()) Log.d(TAG, "$k -> ${v / 1024} KB")
+    }
+
+    override fun onTrimMemory(level: Int) {
+        val plan = planFor(level) ?: return
+        val before = totalBytes()
+        for ((name, reg) in caches) {
+            val keep = plan[reg.priority.ordinal]
+            if (keep >= 1f) continue
+            runCatching { reg.cache.trimTo(keep) }.onFailure { Log.w(TAG, "trim failed: $name", it) }
+        }
+        Log.d(TAG, "trim level=$level: ${before / 1024} KB -> ${totalBytes() / 1024} KB")
+    }
+
+    override fun onLowMemory() {
+        onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE)
+    }
+
+    override fun onConfigurationChanged(newConfig: Configuration) {}
+
+    // fraction kept per priority (LOW, NORMAL, HIGH); null = nothing to do
+    @Suppress("DEPRECATION")
+    private fun planFor(level: Int): FloatArray? = when {
+        level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE -> floatArrayOf(0f, 0f, 0f)
+        level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND -> floatArrayOf(0f, 0f, 1f)
+        level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN -> floatArrayOf(0f, 0.5f, 1f)
+        // still in the foreground: HIGH (the models) stays until we are in the background
+        level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL -> floatArrayOf(0f, 0f, 1f)
+        level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW -> floatArrayOf(0f, 0.5f, 1f)
+        level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE -> floatArrayOf(0.5f, 1f, 1f)
+        else -> null
+    }
+}
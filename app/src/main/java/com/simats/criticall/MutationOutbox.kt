@@ -0,0 +1,320 @@
+package com.simats.criticall
+
+import android.content.Context
+import android.net.ConnectivityManager
+import android.net.Network
+import android.util.Log
+import com.simats.criticall.roles.patient.PatientApi
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import org.json.JSONObject
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Persistent outbox for write calls that used to fail outright when offline
+ * (stock quantity, mark-available, medicine requests, notification read/dismiss).
+ *
+ * Screens apply the change locally first, then [submit]. Redundant rows are coalesced on insert
+ * (repeated quantity sets on one item keep only the last; a dismiss swallows a pending mark-read),
+ * and the queue is replayed in order, a batch at a time over the pooled connection, whenever
+ * the network comes back ([install]) or something new is queued.
+ *
+ * Nothing unsent is deleted silently: offline/IO failures back off without using up attempts, and a
+ * row the server keeps failing ([MAX_ATTEMPTS] answered errors) or refuses outside [submit] is parked
+ * as failed. [failed] lists those for the UI, which can [retryFailed] or [discardFailed] them.
+ */
+object MutationOutbox {
+
+    private const val TAG = "MutationOutbox"
+    private const val TIMEOUT_MS = 20_000
+    private const val BATCH = 50
+    private const val MAX_ATTEMPTS = 20
+    private const val BACKOFF_MIN_MS = 5_000L
+    private const val BACKOFF_MAX_MS = 5 * 60_000L
+
+    const val KIND_SET_QTY = "set_qty"
+    const val KIND_MARK_AVAILABLE = "mark_available"
+    const val KIND_MEDICINE_REQUEST = "medicine_request"
+    const val KIND_NOTIF_READ = "notif_read"
+    const val KIND_NOTIF_DISMISS = "notif_dismiss"
+
+    class Mutation(
+        val kind: String,
+        val path: String,
+        val body: JSONObject,
+        val coalesceKey: String? = null,
+        val supersedes: List<String> = emptyList(),
+        val supersededBy: List<String> = emptyList()
+    )
+
+    sealed class Submit {
+        /** Reached the server and was accepted. */
+        object Sent : Submit()
+        /** Stored; will be replayed when online. */
+        object Queued : Submit()
+        /** Server refused it (4xx / ok=false); dropped from the queue. */
+        data class Rejected(val error: String) : Submit()
+    }
+
+    // ---- mutations
+
+    fun setQuantity(itemId: Long, quantity: Int) = Mutation(
+        kind = KIND_SET_QTY,
+        path = "pharmacist/inventory_set_quantity.php",
+        body = JSONObject().apply {
+            put("item_id", itemId)
+            put("quantity", quantity)
+        },
+        coalesceKey = "qty:$itemId"
+    )
+
+    fun markRequestAvailable(requestId: Int) = Mutation(
+        kind = KIND_MARK_AVAILABLE,
+        path = "pharmacist/requests_mark_available.php",
+        body = JSONObject().apply { put("request_id", requestId) },
+        coalesceKey = "avail:$requestId"
+    )
+
+    fun createMedicineRequest(pharmacistUserId: Int, medicineName: String, strength: String, quantity: Int) = Mutation(
+        kind = KIND_MEDICINE_REQUEST,
+        path = "patient/medicine_request_create.php",
+        body = JSONObject().apply {
+            put("pharmacist_user_id", pharmacistUserId)
+            put("medicine_name", medicineName)
+            put("strength", strength)
+            put("quantity", quantity)
+            // lets the server drop a duplicate if a replay does get through
+            put("client_request_id", UUID.randomUUID().toString())
+        }
+    )
+
+    fun markNotificationRead(notificationId: Long) = Mutation(
+        kind = KIND_NOTIF_READ,
+        path = "patient/notifications_mark_read.php",
+        body = JSONObject().apply { put("notification_id", notificationId) },
+        coalesceKey = "notif_read:$notificationId",
+        supersededBy = listOf("notif_dismiss:$notificationId")
+    )
+
+    fun dismissNotification(notificationId: Long) = Mutation(
+        kind = KIND_NOTIF_DISMISS,
+        path = "patient/notifications_dismiss.php",
+        body = JSONObject().apply { put("notification_id", notificationId) },
+        coalesceKey = "notif_dismiss:$notificationId",
+        supersedes = listOf("notif_read:$notificationId")
+    )
+
+    // ---- queue
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val drainLock = Mutex()
+    private val rejected = ConcurrentHashMap<Long, String>()
+
+    @Volatile private var installed = false
+    // consecutive transient failures -> delay before the next automatic flush; reset on any success
+    @Volatile private var backoffMs = 0L
+    @Volatile private var retryJob: Job? = null
+
+    /** Replay on every reconnect. Call once (BaseActivity does); later calls are no-ops. */
+    @JvmStatic
+    fun install(context: Context) {
+        if (installed) return
+        synchronized(this) {
+            if (installed) return
+            installed = true
+        }
+        val app = context.applicationContext
+        runCatching {
+            val cm = app.getSystemService(Context.CONNECTIVITY_SERVICE) as ConnectivityManager
+            cm.registerDefaultNetworkCallback(object : ConnectivityManager.NetworkCallback() {
+                override fun onAvailable(network: Network) {
+                    kick(app)
+                }
+            })
+        }.onFailure { Log.w(TAG, "network callback not registered", it) }
+        kick(app)
+    }
+
+    /** Flush in the background. */
+    fun kick(context: Context) {
+        val app = context.applicationContext
+        scope.launch { flush(app) }
+    }
+
+    /** Queue [m] (coalescing with what is already pending) and try to send the queue right away. */
+    suspend fun submit(context: Context, m: Mutation): Submit = withContext(Dispatchers.IO) {
+        val app = context.applicationContext
+        val id = OutboxDb.get(app).enqueue(
+            ownerUid = AppPrefs.getLastUid(app),
+            kind = m.kind,
+            path = m.path,
+            body = m.body.toString(),
+            coalesceKey = m.coalesceKey,
+            supersedes = m.supersedes,
+            supersededBy = m.supersededBy
+        )
+        if (id <= 0L) {
+            kick(app)
+            return@withContext Submit.Queued
+        }
+        flush(app)
+        val err = rejected.remove(id)
+        when {
+            err != null -> {
+                // the caller shows this error, so it doesn't need to stay parked as failed
+                OutboxDb.get(app).delete(id)
+                Submit.Rejected(err)
+            }
+            OutboxDb.get(app).exists(id) -> Submit.Queued
+            else -> Submit.Sent
+        }
+    }
+
+    /** Bodies of pending mutations of [kind] for the current user, oldest first (for optimistic UI). */
+    fun pending(context: Context, kind: String): List<JSONObject> {
+        val app = context.applicationContext
+        return OutboxDb.get(app).listPendingByKind(AppPrefs.getLastUid(app), kind)
+            .mapNotNull { runCatching { JSONObject(it.body) }.getOrNull() }
+    }
+
+    /**
+     * item_id -> quantity for stock edits not replayed yet; screens that list inventory show these
+     * over the server's numbers. Reads SQLite, so call it off the main thread.
+     */
+    fun pendingQuantities(context: Context): Map<Long, Int> =
+        pending(context, KIND_SET_QTY).associate { it.optLong("item_id", 0L) to it.optInt("quantity", 0) }
+
+    /** A mutation that will not be replayed on its own; [error] is the last server/network error. */
+    data class Failed(val id: Long, val kind: String, val createdAtMs: Long, val error: String?)
+
+    /** Parked mutations of the current user (see class doc). Reads SQLite, so call it off the main thread. */
+    fun failed(context: Context): List<Failed> {
+        val app = context.applicationContext
+        return OutboxDb.get(app).listFailed(AppPrefs.getLastUid(app))
+            .map { Failed(it.id, it.kind, it.createdAtMs, it.lastError) }
+    }
+
+    /** Queue every failed mutation again (fresh attempt count) and flush. */
+    suspend fun retryFailed(context: Context) = withContext(Dispatchers.IO) {
+        val app = context.applicationContext
+        if (OutboxDb.get(app).requeueFailed(AppPrefs.getLastUid(app)) > 0) flush(app)
+    }
+
+    /** Drop failed mutations after the user has seen them. */
+    suspend fun discardFailed(context: Context) = withContext(Dispatchers.IO) {
+        val app = context.applicationContext
+        OutboxDb.get(app).deleteFailed(AppPrefs.getLastUid(app))
+    }
+
+    /** Replay pending rows in order; stops at the first transient failure so order is preserved. */
+    suspend fun flush(context: Context) = drainLock.withLock {
+        val app = context.applicationContext
+        val token = AppPrefs.getToken(app).orEmpty()
+        if (token.isBlank()) return@withLock
+
+        val db = OutboxDb.get(app)
+        val owner = AppPrefs.getLastUid(app)
+        while (true) {
+            val batch = db.listPending(owner, BATCH)
+            if (batch.isEmpty()) return@withLock
+            for (row in batch) {
+                when (val r = send(app, token, row)) {
+                    is Outcome.Done -> {
+                        db.delete(row.id)
+                        backoffMs = 0L
+                    }
+                    is Outcome.Refused -> {
+                        Log.w(TAG, "refused ${row.kind} #${row.id}: ${r.error}")
+                        if (rejected.size > 100) rejected.clear() // only submit() reads these back
+                        rejected[row.id] = r.error
+                        db.markFailed(row.id, r.error)
+                    }
+                    is Outcome.Retry -> {
+                        // only answers from the server count; being offline says nothing about the row
+                        if (r.counted && row.attempts + 1 >= MAX_ATTEMPTS) {
+                            Log.w(TAG, "parked ${row.kind} #${row.id} after $MAX_ATTEMPTS attempts: ${r.error}")
+                            db.markFailed(row.id, r.error)
+                            continue
+                        }
+                        db.markAttempt(row.id, r.error, count = r.counted)
+                        scheduleRetry(app)
+                        return@withLock
+                    }
+                }
+            }
+        }
+    }
+
+    // exponential, in memory only: a restart or reconnect flushes right away anyway
+    private fun scheduleRetry(app: Context) {
+        val wait = (backoffMs * 2).coerceIn(BACKOFF_MIN_MS, BACKOFF_MAX_MS)
+        backoffMs = wait
+        retryJob?.cancel()
+        retryJob = scope.launch {
+            delay(wait)
+            flush(app)
+        }
+    }
+
+    private sealed class Outcome {
+        object Done : Outcome()
+        class Refused(val error: String) : Outcome()
+        /** [counted]: the server answered (408/429/5xx) rather than the call failing on the network. */
+        class Retry(val error: String, val counted: Boolean) : Outcome()
+    }
+
+    // offline / server trouble / expired session -> keep it; anything else the server refused -> park it
+    private fun isTransient(httpCode: Int?): Boolean =
+        httpCode == null || httpCode == 0 || httpCode == 401 || httpCode == 408 || httpCode == 429 || httpCode >= 500
+
+    // no answer (offline, IO) or an expired session: not the row's fault, so no attempt is used up
+    private fun retry(error: String, httpCode: Int?): Outcome =
+        Outcome.Retry(error, counted = httpCode != null && httpCode != 0 && httpCode != 401)
+
+    // sending these twice has the same effect as once; a medicine request would be created twice
+    private fun isIdempotent(kind: String): Boolean = kind != KIND_MEDICINE_REQUEST
+
+    // code 0 covers every exception; only these ones mean the request never left the device
+    private fun neverSent(error: String?): Boolean {
+        val e = error ?: return false
+        return e.startsWith("UnknownHostException") || e.startsWith("ConnectException") ||
+            e.startsWith("NoRouteToHostException") || e.contains("failed to connect", ignoreCase = true) ||
+            e.contains("connect timed out", ignoreCase = true)
+    }
+
+    private fun send(ctx: Context, token: String, row: OutboxDb.Row): Outcome {
+        val body = runCatching { JSONObject(row.body) }.getOrNull() ?: return Outcome.Refused("Corrupt body")
+
+        // notifications go through PatientApi so its NEW/legacy endpoint fallback still applies
+        val notifId = body.optLong("notification_id", 0L)
+        val typed = when (row.kind) {
+            KIND_NOTIF_READ -> PatientApi.notificationRead(ctx, notifId)
+            KIND_NOTIF_DISMISS -> PatientApi.notificationDismiss(ctx, notifId)
+            else -> null
+        }
+        if (typed != null) {
+            return when (typed) {
+                is CallResult.Ok -> Outcome.Done
+                is CallResult.Failed ->
+                    if (isTransient(typed.httpCode)) retry(typed.error, typed.httpCode) else Outcome.Refused(typed.error)
+            }
+        }
+
+        val res = ApiClient.postJsonWithAuth(row.path, body, token, TIMEOUT_MS)
+        if (res.ok) return Outcome.Done
+        val err = res.errorMessage ?: res.json?.optString("error")?.takeIf { it.isNotBlank() } ?: "Failed"
+        // a create that died mid-flight (read timeout, reset) may already exist server-side: don't post it again
+        if (res.httpCode == 0 && !isIdempotent(row.kind) && !neverSent(res.errorMessage)) {
+            return Outcome.Refused("Not confirmed by the server: $err")
+        }
+        return if (isTransient(res.httpCode)) retry(err, res.httpCode) else Outcome.Refused(err)
+    }
+}
@@ -0,0 +1,86 @@
+package com.simats.criticall
+
+import android.util.Log
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Per-endpoint network counters (process lifetime only).
+ * Endpoint = URL path, e.g. "/criticall_api/api/patient/dashboard.php".
+ */
+object NetStats {
+
+    private const val TAG = "NetStats"
+
+    class Endpoint {
+        val calls = AtomicLong()
+        val newConnections = AtomicLong()
+        val reusedConnections = AtomicLong()
+        val staleRetries = AtomicLong()
+        val wireBytes = AtomicLong()
+        val decodedBytes = AtomicLong()
+        val coalesced = AtomicLong()
+        val cacheHits = AtomicLong()
+        val notModified = AtomicLong()
+        val cacheBytes = AtomicLong()
+
+        override fun toString(): String =
+            "calls=${calls.get()} new=${newConnections.get()} reused=${reusedConnections.get()} " +
+                "staleRetries=${staleRetries.get()} wire=${wireBytes.get()}B decoded=${decodedBytes.get()}B " +
+                "coalesced=${coalesced.get()} cacheHits=${cacheHits.get()} 304=${notModified.get()} " +
+                "fromCache=${cacheBytes.get()}B"
+    }
+
+    private val byEndpoint = ConcurrentHashMap<String, Endpoint>()
+
+    fun of(endpoint: String): Endpoint = byEndpoint.getOrPut(endpoint) { Endpoint() }
+
+    fun onCall(endpoint: String) {
+        of(endpoint).calls.incrementAndGet()
+    }
+
+    fun onConnectionAcquired(endpoint: String, reused: Boolean) {
+        val e = of(endpoint)
+        if (reused) e.reusedConnections.incrementAndGet() else e.newConnections.incrementAndGet()
+    }
+
+    fun onStaleRetry(endpoint: String) {
+        of(endpoint).staleRetries.incrementAndGet()
+    }
+
+    fun onWireBytes(endpoint: String, n: Long) {
+        of(endpoint).wireBytes.addAndGet(n)
+    }
+
+    fun onDecodedBytes(endpoint: String, n: Long) {
+        of(endpoint).decodedBytes.addAndGet(n)
+    }
+
+    fun onCacheHit(endpoint: String, revalidated: Boolean) {
+        val e = of(endpoint)
+        e.cacheHits.incrementAndGet()
+        if (revalidated) e.notModified.incrementAndGet()
+    }
+
+    fun onCacheBytes(endpoint: String, n: Long) {
+        of(endpoint).cacheBytes.addAndGet(n)
+    }
+
+    fun onCoalesced(endpoint: String) {
+        of(endpoint).coalesced.incrementAndGet()
+    }
+
+    /** Calls that piggy-backed on an identical in-flight request, across all endpoints. */
+    fun totalCoalesced(): Long = byEndpoint.values.sumOf { it.coalesced.get() }
+
+    fun snapshot(): Map<String, Endpoint> = HashMap(byEndpoint)
+
+    fun reset() = byEndpoint.clear()
+
+    /** Debug helper: one line per endpoint in logcat. */
+    fun dump() {
+        for ((k, v) in byEndpoint.entries.sortedBy { it.key }) {
+            Log.d(TAG, "$k -> $v")
+        }
+    }
+}
@@ -1,42 +1,198 @@
 package com.simats.criticall;
 
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
-import java.lang.reflect.Type;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Assistant chat history, one SQLite row per message, keyed by patient.
+ * Writes append only the new message; reads page backwards from the newest message
+ * (see {@link #loadLatest} / {@link #loadBefore}), so history is no longer capped.
+ */
 public class OfflineChatStore {
+    private static final String TAG = "OfflineChatStore";
+
+    // legacy: whole history as one Gson string per patient (moved into SQLite on first open)
     private static final String PREF_NAME = "PatientOfflineChatPrefs";
     private static final String KEY_PREFIX = "patient_chat_";
-    private static final int MAX_MESSAGES = 10;
-    private final SharedPreferences prefs;
-    private final com.google.gson.Gson gson = new com.google.gson.Gson();
+
+    public static final int PAGE_SIZE = 30;
+
+    /** Messages oldest-first, plus the cursor for the next (older) page. */
+    public static class Page {
+        public final List<PatientChatMessage> messages;
+        /** Row id of the oldest message in this page; pass to {@link #loadBefore}. */
+        public final long oldestId;
+        public final boolean hasMore;
+
+        Page(List<PatientChatMessage> messages, long oldestId, boolean hasMore) {
+            this.messages = messages;
+            this.oldestId = oldestId;
+            this.hasMore = hasMore;
+        }
+    }
+
+    private static volatile Db db;
+
+    private final Db helper;
 
     public OfflineChatStore(Context ctx) {
-        this.prefs = ctx.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+        this.helper = db(ctx.getApplicationContext());
+    }
+
+    private static Db db(Context app) {
+        Db d = db;
+        if (d != null) return d;
+        synchronized (OfflineChatStore.class) {
+            if (db == null) {
+                Db created = new Db(app);
+                migrateLegacy(app, created);
+                db = created;
+            }
+            return db;
+        }
+    }
+
+    public long append(String patientId, PatientChatMessage m) {
+        if (m == null) return -1L;
+        ContentValues cv = new ContentValues();
+        cv.put("patient_id", patientId == null ? "" : patientId);
+        cv.put("sender", m.getSender() != null ? m.getSender().name() : PatientChatMessage.Sender.AI.name());
+        cv.put("text", m.getText() != null ? m.getText() : "");
+        cv.put("ts", m.getTimestampMs());
+        if (m.getConfidenceTag() != null) cv.put("confidence", m.getConfidenceTag()); else cv.putNull("confidence");
+        List<String> actions = m.getActions();
+        if (actions != null && !actions.isEmpty()) cv.put("actions", new JSONArray(actions).toString()); else cv.putNull("actions");
+        return helper.getWritableDatabase().insert("chat_messages", null, cv);
+    }
+
+    public Page loadLatest(String patientId) {
+        return loadBefore(patientId, Long.MAX_VALUE);
+    }
+
+    /** Up to {@link #PAGE_SIZE} messages older than row {@code beforeId}, oldest-first. */
+    public Page loadBefore(String patientId, long beforeId) {
+        List<PatientChatMessage> out = new ArrayList<>();
+        long oldest = beforeId;
+        // one extra row tells us whether there is another page
+        try (Cursor c = helper.getReadableDatabase().rawQuery(
+                "SELECT id, sender, text, ts, confidence, actions FROM chat_messages "
+                        + "WHERE patient_id=? AND id<? ORDER BY id DESC LIMIT ?",
+                new String[]{patientId == null ? "" : patientId, String.valueOf(beforeId), String.valueOf(PAGE_SIZE + 1)})) {
+            while (c.moveToNext() && out.size() < PAGE_SIZE) {
+                oldest = c.getLong(0);
+                out.add(readRow(c));
+            }
+            boolean hasMore = c.getCount() > PAGE_SIZE;
+            Collections.reverse(out);
+            return new Page(out, oldest, hasMore);
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to read chat history", e);
+            return new Page(new ArrayList<>(), beforeId, false);
+        }
+    }
+
+    public void clear(String patientId) {
+        helper.getWritableDatabase().delete("chat_messages", "patient_id=?",
+                new String[]{patientId == null ? "" : patientId});
     }
 
-    public List<PatientChatMessage> load(String patientId) {
-        String raw = prefs.getString(KEY_PREFIX + patientId, null);
-        if (raw == null) return new ArrayList<>();
+    private static PatientChatMessage readRow(Cursor c) {
+        PatientChatMessage.Sender sender;
         try {
-            Type type = new com.google.gson.reflect.TypeToken<List<PatientChatMessage>>() {}.getType();
-            List<PatientChatMessage> list = gson.fromJson(raw, type);
-            return list != null ? list : new ArrayList<>();
+            sender = PatientChatMessage.Sender.valueOf(c.getString(1));
         } catch (Exception e) {
-            Log.w("OfflineChatStore", "Failed to parse chat history", e);
-            return new ArrayList<>();
+            sender = PatientChatMessage.Sender.AI;
         }
+        List<String> actions = null;
+        if (!c.isNull(5)) {
+            try {
+                JSONArray arr = new JSONArray(c.getString(5));
+                actions = new ArrayList<>();
+                for (int i = 0; i < arr.length(); i++) actions.add(arr.optString(i, ""));
+            } catch (Exception ignored) {}
+        }
+        return new PatientChatMessage(sender, c.getString(2), c.getLong(3),
+                c.isNull(4) ? null : c.getString(4), actions);
     }
 
-    public void save(String patientId, List<PatientChatMessage> messages) {
-        if (messages == null) return;
-        List<PatientChatMessage> trimmed = new ArrayList<>();
-        int start = Math.max(0, messages.size() - MAX_MESSAGES);
-        for (int i = start; i < messages.size(); i++) trimmed.add(messages.get(i));
-        prefs.edit().putString(KEY_PREFIX + patientId, gson.toJson(trimmed)).apply();
+    // Old prefs held at most 10 messages per patient in Gson's field layout; parse it with org.json once.
+    private static void migrateLegacy(Context app, Db d) {
+        SharedPreferences prefs = app.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+        Map<String, ?> all = prefs.getAll();
+        if (all.isEmpty()) return;
+
+        SQLiteDatabase w = d.getWritableDatabase();
+        w.beginTransaction();
+        try {
+            for (Map.Entry<String, ?> e : all.entrySet()) {
+                if (!e.getKey().startsWith(KEY_PREFIX) || !(e.getValue() instanceof String)) continue;
+                String patientId = e.getKey().substring(KEY_PREFIX.length());
+                JSONArray arr;
+                try {
+                    arr = new JSONArray((String) e.getValue());
+                } catch (Exception bad) {
+                    continue;
+                }
+                for (int i = 0; i < arr.length(); i++) {
+                    JSONObject o = arr.optJSONObject(i);
+                    if (o == null) continue;
+                    ContentValues cv = new ContentValues();
+                    cv.put("patient_id", patientId);
+                    cv.put("sender", o.optString("sender", PatientChatMessage.Sender.AI.name()));
+                    cv.put("text", o.optString("text", ""));
+                    cv.put("ts", o.optLong("timestampMs", 0L));
+                    if (o.has("confidenceTag") && !o.isNull("confidenceTag")) cv.put("confidence", o.optString("confidenceTag"));
+                    JSONArray actions = o.optJSONArray("actions");
+                    if (actions != null && actions.length() > 0) cv.put("actions", actions.toString());
+                    w.insert("chat_messages", null, cv);
+                }
+            }
+            w.setTransactionSuccessful();
+        } finally {
+            w.endTransaction();
+        }
+        prefs.edit().clear().commit();
+        app.deleteSharedPreferences(PREF_NAME);
+    }
+
+    private static class Db extends SQLiteOpenHelper {
+        private static final String DB_NAME = "criticall_chat.db";
+        private static final int DB_VER = 1;
+
+        Db(Context ctx) {
+            super(ctx, DB_NAME, null, DB_VER);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS chat_messages ("
+                    + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + "patient_id TEXT NOT NULL DEFAULT '',"
+                    + "sender TEXT NOT NULL,"
+                    + "text TEXT NOT NULL DEFAULT '',"
+                    + "ts INTEGER NOT NULL DEFAULT 0,"
+                    + "confidence TEXT,"
+                    + "actions TEXT"
+                    + ");");
+            db.execSQL("CREATE INDEX IF NOT EXISTS idx_chat_patient ON chat_messages(patient_id, id);");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            if (oldVersion < 1) onCreate(db);
+        }
     }
 }
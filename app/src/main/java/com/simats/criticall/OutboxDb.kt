@@ -0,0 +1,200 @@
+package com.simats.criticall
+
+import android.content.ContentValues
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteOpenHelper
+
+/** Pending write calls (see [MutationOutbox]). Own file so it never fights PatientVitalsLocalDb over versions. */
+class OutboxDb(ctx: Context) : SQLiteOpenHelper(ctx.applicationContext, DB_NAME, null, DB_VER) {
+
+    data class Row(
+        val id: Long,
+        val ownerUid: Long,
+        val kind: String,
+        val path: String,
+        val body: String,
+        val coalesceKey: String?,
+        val createdAtMs: Long,
+        val attempts: Int,
+        val lastError: String?
+    )
+
+    override fun onCreate(db: SQLiteDatabase) {
+        db.execSQL(
+            """
+            CREATE TABLE IF NOT EXISTS outbox (
+              id INTEGER PRIMARY KEY AUTOINCREMENT,
+              owner_uid INTEGER NOT NULL DEFAULT 0,
+              kind TEXT NOT NULL,
+              path TEXT NOT NULL,
+              body TEXT NOT NULL DEFAULT '{}',
+              coalesce_key TEXT,
+              created_at_ms INTEGER NOT NULL,
+              attempts INTEGER NOT NULL DEFAULT 0,
+              last_error TEXT,
+              state INTEGER NOT NULL DEFAULT 0
+            );
+            """.trimIndent()
+        )
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_outbox_owner ON outbox(owner_uid, id);")
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_outbox_key ON outbox(owner_uid, coalesce_key);")
+    }
+
+    override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+        if (oldVersion < 1) onCreate(db)
+        if (oldVersion in 1..1) db.execSQL("ALTER TABLE outbox ADD COLUMN state INTEGER NOT NULL DEFAULT 0;")
+    }
+
+    /**
+     * Insert with coalescing, in one transaction:
+     * - dropped (returns -1) if a row keyed in [supersededBy] is already pending
+     * - rows keyed in [supersedes], and an older row with the same [coalesceKey], are removed first
+     */
+    fun enqueue(
+        ownerUid: Long,
+        kind: String,
+        path: String,
+        body: String,
+        coalesceKey: String?,
+        supersedes: List<String>,
+        supersededBy: List<String>
+    ): Long {
+        val db = writableDatabase
+        db.beginTransaction()
+        try {
+            for (k in supersededBy) {
+                if (hasKey(db, ownerUid, k)) {
+                    db.setTransactionSuccessful()
+                    return -1L
+                }
+            }
+            val drop = if (coalesceKey != null) supersedes + coalesceKey else supersedes
+            for (k in drop) {
+                db.delete("outbox", "owner_uid=? AND coalesce_key=?", arrayOf(ownerUid.toString(), k))
+            }
+            val cv = ContentValues().apply {
+                put("owner_uid", ownerUid)
+                put("kind", kind)
+                put("path", path)
+                put("body", body)
+                if (coalesceKey != null) put("coalesce_key", coalesceKey) else putNull("coalesce_key")
+                put("created_at_ms", System.currentTimeMillis())
+                put("attempts", 0)
+            }
+            val id = db.insert("outbox", null, cv)
+            db.setTransactionSuccessful()
+            return id
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    private fun hasKey(db: SQLiteDatabase, ownerUid: Long, key: String): Boolean {
+        db.rawQuery(
+            "SELECT 1 FROM outbox WHERE owner_uid=? AND coalesce_key=? AND state=$STATE_PENDING LIMIT 1",
+            arrayOf(ownerUid.toString(), key)
+        ).use { return it.moveToFirst() }
+    }
+
+    fun listPending(ownerUid: Long, limit: Int): List<Row> {
+        val out = ArrayList<Row>()
+        readableDatabase.rawQuery(
+            "SELECT * FROM outbox WHERE owner_uid=? AND state=$STATE_PENDING ORDER BY id ASC LIMIT ?",
+            arrayOf(ownerUid.toString(), limit.toString())
+        ).use {
+            while (it.moveToNext()) out.add(readRow(it))
+        }
+        return out
+    }
+
+    fun listPendingByKind(ownerUid: Long, kind: String): List<Row> {
+        val out = ArrayList<Row>()
+        readableDatabase.rawQuery(
+            "SELECT * FROM outbox WHERE owner_uid=? AND kind=? AND state=$STATE_PENDING ORDER BY id ASC",
+            arrayOf(ownerUid.toString(), kind)
+        ).use {
+            while (it.moveToNext()) out.add(readRow(it))
+        }
+        return out
+    }
+
+    fun exists(id: Long): Boolean {
+        readableDatabase.rawQuery("SELECT 1 FROM outbox WHERE id=? LIMIT 1", arrayOf(id.toString())).use {
+            return it.moveToFirst()
+        }
+    }
+
+    fun delete(id: Long) {
+        writableDatabase.delete("outbox", "id=?", arrayOf(id.toString()))
+    }
+
+    /** Records [error]; [count] is false for failures that say nothing about the row (offline). */
+    fun markAttempt(id: Long, error: String?, count: Boolean = true) {
+        writableDatabase.execSQL(
+            "UPDATE outbox SET attempts = attempts + ?, last_error = ? WHERE id = ?",
+            arrayOf<Any?>(if (count) 1 else 0, error, id)
+        )
+    }
+
+    /** Parks the row: no longer replayed, listed by [listFailed] until retried or discarded. */
+    fun markFailed(id: Long, error: String?) {
+        writableDatabase.execSQL(
+            "UPDATE outbox SET state = $STATE_FAILED, last_error = ? WHERE id = ?",
+            arrayOf<Any?>(error, id)
+        )
+    }
+
+    fun listFailed(ownerUid: Long): List<Row> {
+        val out = ArrayList<Row>()
+        readableDatabase.rawQuery(
+            "SELECT * FROM outbox WHERE owner_uid=? AND state=$STATE_FAILED ORDER BY id ASC",
+            arrayOf(ownerUid.toString())
+        ).use {
+            while (it.moveToNext()) out.add(readRow(it))
+        }
+        return out
+    }
+
+    /** Puts every failed row of [ownerUid] back in the queue with a fresh attempt count. */
+    fun requeueFailed(ownerUid: Long): Int {
+        val cv = ContentValues().apply {
+            put("state", STATE_PENDING)
+            put("attempts", 0)
+        }
+        return writableDatabase.update("outbox", cv, "owner_uid=? AND state=$STATE_FAILED", arrayOf(ownerUid.toString()))
+    }
+
+    fun deleteFailed(ownerUid: Long): Int =
+        writableDatabase.delete("outbox", "owner_uid=? AND state=$STATE_FAILED", arrayOf(ownerUid.toString()))
+
+    private fun readRow(c: android.database.Cursor): Row {
+        fun i(name: String) = c.getColumnIndexOrThrow(name)
+        return Row(
+            id = c.getLong(i("id")),
+            ownerUid = c.getLong(i("owner_uid")),
+            kind = c.getString(i("kind")) ?: "",
+            path = c.getString(i("path")) ?: "",
+            body = c.getString(i("body")) ?: "{}",
+            coalesceKey = if (c.isNull(i("coalesce_key"))) null else c.getString(i("coalesce_key")),
+            createdAtMs = c.getLong(i("created_at_ms")),
+            attempts = c.getInt(i("attempts")),
+            lastError = if (c.isNull(i("last_error"))) null else c.getString(i("last_error"))
+        )
+    }
+
+    companion object {
+        private const val DB_NAME = "criticall_outbox.db"
+        private const val DB_VER = 2
+
+        private const val STATE_PENDING = 0
+        private const val STATE_FAILED = 1
+
+        @Volatile private var instance: OutboxDb? = null
+
+        fun get(ctx: Context): OutboxDb =
+            instance ?: synchronized(this) {
+                instance ?: OutboxDb(ctx).also { instance = it }
+            }
+    }
+}
@@ -50,6 +50,13 @@ public class PatientChatAdapter extends RecyclerView.Adapter<PatientChatAdapter.
         notifyDataSetChanged();
     }
 
+    /** Older history page on top (paging up from the newest message). */
+    public void prependMessages(List<PatientChatMessage> older) {
+        if (older == null || older.isEmpty()) return;
+        messages.addAll(0, older);
+        notifyItemRangeInserted(0, older.size());
+    }
+
     public void addMessage(PatientChatMessage msg) {
         if (msg == null) return;
         messages.add(msg);
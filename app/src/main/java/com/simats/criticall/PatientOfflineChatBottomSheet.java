@@ -2,8 +2,8 @@ package com.simats.criticall;
 
 import android.Manifest;
 import android.animation.ValueAnimator;
+import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.os.Handler;
@@ -23,7 +23,6 @@ import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.collection.LruCache;
 import androidx.core.content.ContextCompat;
 import androidx.fragment.app.FragmentManager;
 import androidx.recyclerview.widget.LinearLayoutManager;
@@ -54,14 +53,13 @@ import com.simats.criticall.LocalCache;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 @SuppressWarnings("unchecked")
@@ -86,7 +84,15 @@ public class PatientOfflineChatBottomSheet extends BottomSheetDialogFragment {
     private HashMap<String, String> lastLabs;
 
     private PatientChatAdapter chatAdapter;
-    private OfflineChatStore chatStore;
+    // all chatStore work (open + legacy migration, paging, appends, clear) runs in order on CHAT_IO
+    private static final ExecutorService CHAT_IO = Executors.newSingleThreadExecutor();
+    private volatile OfflineChatStore chatStore;
+    // paging cursor into chatStore (older messages load when the list is scrolled to the top)
+    private long historyOldestId = Long.MAX_VALUE;
+    private boolean historyHasMore = false;
+    private boolean historyLoading = false;
+    // bumped on clear so a page read before the clear is dropped
+    private int historyGen = 0;
     private LabClient labClient;
 
     private final Handler handler = new Handler(Looper.getMainLooper());
@@ -171,14 +177,9 @@ public class PatientOfflineChatBottomSheet extends BottomSheetDialogFragment {
     private boolean ttsReady = false;
 
     // Lang listeners
-    private SharedPreferences prefs;
-    private SharedPreferences.OnSharedPreferenceChangeListener langListener;
     private TranslationManager.LangListener tmLangListener;
     private final List<TextView> chipViews = new ArrayList<>();
 
-    // Cheap Gemini: cache recent responses (avoid repeat credits)
-    private final LruCache<String, String> geminiCache = new LruCache<>(60);
-
     private final java.util.concurrent.atomic.AtomicBoolean upcomingBookingLoading = new java.util.concurrent.atomic.AtomicBoolean(false);
     private volatile long lastUpcomingBookingFetchMs = 0L;
     private AppointmentSnapshot lastUpcomingSnapshot = null;
@@ -304,7 +305,6 @@ public class PatientOfflineChatBottomSheet extends BottomSheetDialogFragment {
         initialPrompt = a != null ? a.getString(ARG_INITIAL_PROMPT, "") : "";
         final boolean startListening = a != null && a.getBoolean(ARG_START_LISTENING, false);
 
-        chatStore = new OfflineChatStore(requireContext());
         labClient = new LabClient(requireContext());
         streamingRenderer = new StreamingTextRenderer();
 
@@ -346,9 +346,29 @@ public class PatientOfflineChatBottomSheet extends BottomSheetDialogFragment {
         rvChat.setLayoutManager(new LinearLayoutManager(requireContext()));
         rvChat.setAdapter(chatAdapter);
 
-        List<PatientChatMessage> history = chatStore.load(patientId);
-        chatAdapter.setMessages(history);
-        scrollToBottom(rvChat);
+        final Context app = requireContext().getApplicationContext();
+        final String historyPatient = patientId;
+        final int gen = historyGen;
+        historyLoading = true;
+        CHAT_IO.execute(() -> {
+            chatStore = new OfflineChatStore(app);
+            OfflineChatStore.Page history = chatStore.loadLatest(historyPatient);
+            handler.post(() -> {
+                if (!isAdded() || gen != historyGen) return;
+                historyLoading = false;
+                historyOldestId = history.oldestId;
+                historyHasMore = history.hasMore;
+                // messages added while this was loading are already in the adapter and newer
+                chatAdapter.prependMessages(history.messages);
+                scrollToBottom(rvChat);
+                fillScreenWithHistory();
+            });
+        });
+        rvChat.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override public void onScrolled(@NonNull RecyclerView rv, int dx, int dy) {
+                if (dy < 0 && !rv.canScrollVertically(-1)) loadOlderHistory();
+            }
+        });
 
         initTts();
         setupComposerBehavior();
@@ -362,7 +382,14 @@ public class PatientOfflineChatBottomSheet extends BottomSheetDialogFragment {
         fetchUpcomingBookingFlag();
 
         btnClear.setOnClickListener(v -> {
-            chatStore.save(patientId, new ArrayList<>());
+            final String clearPatient = patientId;
+            CHAT_IO.execute(() -> {
+                if (chatStore != null) chatStore.clear(clearPatient);
+            });
+            historyGen++;
+            historyLoading = false;
+            historyOldestId = Long.MAX_VALUE;
+            historyHasMore = false;
             chatAdapter.setMessages(new ArrayList<>());
             resetConversationState();
             setupChips(chipsContainer, etInput, rvChat);
@@ -577,24 +604,16 @@ public class PatientOfflineChatBottomSheet extends BottomSheetDialogFragment {
     }
 
     private void runGemini(String msg, RecyclerView rv) {
-        String cacheKey = buildCacheKey(msg);
-        String cached = geminiCache.get(cacheKey);
-        if (!TextUtils.isEmpty(cached)) {
-            handler.post(() -> {
-                addMessage(new PatientChatMessage(PatientChatMessage.Sender.AI, cached, System.currentTimeMillis(), null), rv);
-                hideBusyUi();
-            });
-            return;
-        }
-
         // cheap prompt: minimal context; keeps Gemini tokens low
         String system = buildSystemPromptCheap();
         String payload = buildUserPayloadCheap(msg);
 
-        labClient.sendText(system, payload, 220, new LabClient.Listener() {
+        // shared disk cache: a repeated (normalized) question answers without a request
+        String cacheKey = buildCacheKey(msg, system);
+
+        labClient.sendText(system, payload, 220, cacheKey, AssistantReplyCache.TTL_CHAT_MS, new LabClient.Listener() {
             @Override public void onSuccess(@NonNull String replyText) {
                 handler.post(() -> {
-                    geminiCache.put(cacheKey, replyText);
                     final SpecialitySuggestion suggestion = parseSpecialitySuggestion(replyText);
                     String cleanReply = suggestion.cleanedText;
                     boolean doctorIntent = isBookingFlowActive() || isDoctorIntentQuestion(msg);
@@ -652,7 +671,8 @@ public class PatientOfflineChatBottomSheet extends BottomSheetDialogFragment {
         }
         String system = "Detect the language of the user text. Reply with ONLY one code: en,hi,ta,te,kn,ml. If unsure, reply en.";
         String payload = "Text=" + msg;
-        labClient.sendText(system, payload, 6, new LabClient.Listener() {
+        String langKey = AssistantReplyCache.key(requireContext(), "lang", "", msg, AssistantReplyCache.contextHash(system));
+        labClient.sendText(system, payload, 6, langKey, AssistantReplyCache.TTL_LANG_MS, new LabClient.Listener() {
             @Override public void onSuccess(@NonNull String replyText) {
                 String tag = "";
                 String lower = replyText == null ? "" : replyText.toLowerCase(Locale.ROOT);
@@ -765,15 +785,20 @@ public class PatientOfflineChatBottomSheet extends BottomSheetDialogFragment {
         return "Respond in English.";
     }
 
-    private String buildCacheKey(String msg) {
+    private String buildCacheKey(String msg, String system) {
         String lang = currentLangForAi();
         // Add small context key so cache doesnÃ¢â‚¬â„¢t give wrong answers after risk/labs change
-        String labsKey = (lastLabs != null ? String.valueOf(lastLabs.hashCode()) : "0");
-        String rxKey = !TextUtils.isEmpty(prescriptionsSummary) ? String.valueOf(prescriptionsSummary.hashCode()) : "0";
-        String specKey = !TextUtils.isEmpty(specialitiesSummary) ? String.valueOf(specialitiesSummary.hashCode()) : "0";
-        String riskKey = TextUtils.isEmpty(riskLevel) ? "LOW" : riskLevel;
-        String catKey = TextUtils.isEmpty(category) ? "General" : category;
-        return lang + "|" + riskKey + "|" + catKey + "|" + labsKey + "|" + rxKey + "|" + specKey + "|" + msg.trim();
+        String ctxHash = AssistantReplyCache.contextHash(
+                system,
+                TextUtils.isEmpty(riskLevel) ? "LOW" : riskLevel,
+                TextUtils.isEmpty(category) ? "General" : category,
+                lastLabs != null ? lastLabs.toString() : "",
+                prescriptionsSummary,
+                specialitiesSummary,
+                hasUpcomingBooking ? "upcoming" : "",
+                patientSummary
+        );
+        return AssistantReplyCache.key(requireContext(), "chat", lang, msg, ctxHash);
     }
 
     private String currentLangForAi() {
@@ -1381,7 +1406,8 @@ public class PatientOfflineChatBottomSheet extends BottomSheetDialogFragment {
         String payload = "ASSISTANT_TEXT=" + source;
 
         LabClient lab = new LabClient(requireContext());
-        lab.sendText(system, payload, 120, new LabClient.Listener() {
+        String chipsKey = AssistantReplyCache.key(requireContext(), "chips", lang, source, AssistantReplyCache.contextHash(system));
+        lab.sendText(system, payload, 120, chipsKey, AssistantReplyCache.TTL_CHIPS_MS, new LabClient.Listener() {
             @Override public void onSuccess(String replyText) {
                 handler.post(() -> {
                     chipAiInFlight = false;
@@ -1864,11 +1890,40 @@ public class PatientOfflineChatBottomSheet extends BottomSheetDialogFragment {
     // Messages/store
     // -------------------------
 
+    private void loadOlderHistory() {
+        if (!historyHasMore || historyLoading) return;
+        historyLoading = true;
+        final String pagePatient = patientId;
+        final long before = historyOldestId;
+        final int gen = historyGen;
+        CHAT_IO.execute(() -> {
+            if (chatStore == null) return;
+            OfflineChatStore.Page page = chatStore.loadBefore(pagePatient, before);
+            handler.post(() -> {
+                if (!isAdded() || gen != historyGen) return;
+                historyLoading = false;
+                historyOldestId = page.oldestId;
+                historyHasMore = page.hasMore;
+                chatAdapter.prependMessages(page.messages);
+                fillScreenWithHistory();
+            });
+        });
+    }
+
+    // the scroll listener only fires on a drag, so keep paging while the list doesn't fill the screen yet
+    private void fillScreenWithHistory() {
+        if (rvChat == null || !historyHasMore) return;
+        rvChat.post(() -> {
+            if (isAdded() && !rvChat.canScrollVertically(-1)) loadOlderHistory();
+        });
+    }
+
     private void addMessage(PatientChatMessage message, RecyclerView rv) {
         chatAdapter.addMessage(message);
-        List<PatientChatMessage> msgs = chatStore.load(patientId);
-        msgs.add(message);
-        chatStore.save(patientId, msgs);
+        final String appendPatient = patientId;
+        CHAT_IO.execute(() -> {
+            if (chatStore != null) chatStore.append(appendPatient, message);
+        });
         scrollToBottom(rv);
 
         try {
@@ -2038,18 +2093,8 @@ public class PatientOfflineChatBottomSheet extends BottomSheetDialogFragment {
         String summary = "";
         try {
             String urlStr = ApiConfig.BASE_URL
-                    + "patient/prescriptions_list.php?limit=8&offset=0&_ts="
-                    + System.currentTimeMillis();
-            HttpURLConnection conn = (HttpURLConnection) new URL(urlStr).openConnection();
-            conn.setRequestMethod("GET");
-            conn.setConnectTimeout(20000);
-            conn.setReadTimeout(20000);
-            conn.setRequestProperty("Accept", "application/json");
-            conn.setRequestProperty("Authorization", "Bearer " + token);
-
-            int code = conn.getResponseCode();
-            InputStream stream = (code >= 200 && code < 300) ? conn.getInputStream() : conn.getErrorStream();
-            String raw = stream != null ? readAll(stream) : "";
+                    + "patient/prescriptions_list.php?limit=8&offset=0";
+            String raw = HttpTransport.getText(urlStr, token, 20000).getBody();
             JSONObject json = new JSONObject(raw);
 
             JSONArray arr = null;
@@ -2072,8 +2117,6 @@ public class PatientOfflineChatBottomSheet extends BottomSheetDialogFragment {
             if (TextUtils.isEmpty(summary) && arr != null && arr.length() > 0) {
                 summary = buildRxSummary(arr);
             }
-
-            conn.disconnect();
         } catch (Throwable ignored) {
         }
 
@@ -2127,21 +2170,10 @@ public class PatientOfflineChatBottomSheet extends BottomSheetDialogFragment {
     private String fetchPrescriptionDetailSummary(String token, long prescriptionId) {
         try {
             String urlStr = ApiConfig.BASE_URL
-                    + "patient/prescription_detail.php?prescription_id=" + prescriptionId
-                    + "&_ts=" + System.currentTimeMillis();
-            HttpURLConnection conn = (HttpURLConnection) new URL(urlStr).openConnection();
-            conn.setRequestMethod("GET");
-            conn.setConnectTimeout(20000);
-            conn.setReadTimeout(20000);
-            conn.setRequestProperty("Accept", "application/json");
-            conn.setRequestProperty("Authorization", "Bearer " + token);
-
-            int code = conn.getResponseCode();
-            InputStream stream = (code >= 200 && code < 300) ? conn.getInputStream() : conn.getErrorStream();
-            String raw = stream != null ? readAll(stream) : "";
+                    + "patient/prescription_detail.php?prescription_id=" + prescriptionId;
+            String raw = HttpTransport.getText(urlStr, token, 20000).getBody();
             JSONObject json = new JSONObject(raw);
             if (!json.optBoolean("ok", false)) {
-                conn.disconnect();
                 return "";
             }
 
@@ -2180,7 +2212,6 @@ public class PatientOfflineChatBottomSheet extends BottomSheetDialogFragment {
                 }
             }
 
-            conn.disconnect();
             return sb.toString().trim();
         } catch (Throwable ignored) {
             return "";
@@ -2214,18 +2245,6 @@ public class PatientOfflineChatBottomSheet extends BottomSheetDialogFragment {
         return sb.toString().trim();
     }
 
-    private String readAll(InputStream stream) {
-        try {
-            java.io.BufferedReader br = new java.io.BufferedReader(new java.io.InputStreamReader(stream));
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = br.readLine()) != null) sb.append(line);
-            return sb.toString();
-        } catch (Exception e) {
-            return "";
-        }
-    }
-
     // -------------------------
     // Booking agent helpers
     // -------------------------
@@ -3584,9 +3603,6 @@ public class PatientOfflineChatBottomSheet extends BottomSheetDialogFragment {
     @Override
     public void onStop() {
         super.onStop();
-        if (prefs != null && langListener != null) {
-            prefs.unregisterOnSharedPreferenceChangeListener(langListener);
-        }
         if (tmLangListener != null) {
             TranslationManager.removeLangListener(tmLangListener);
         }
@@ -3596,18 +3612,7 @@ public class PatientOfflineChatBottomSheet extends BottomSheetDialogFragment {
     @Override
     public void onStart() {
         super.onStart();
-        if (prefs == null) {
-            prefs = requireContext().getSharedPreferences("UserPrefs", android.content.Context.MODE_PRIVATE);
-        }
-        if (langListener == null) {
-            langListener = (sp, key) -> {
-                if ("patient_lang".equals(key)) {
-                    if (getView() != null) TranslationManager.apply(getView(), requireContext());
-                }
-            };
-        }
-        prefs.registerOnSharedPreferenceChangeListener(langListener);
-
+        // patient_lang lives in PrefStore now; TranslationManager's listener covers every change
         if (tmLangListener == null) {
             tmLangListener = lang -> {
                 if (!isAdded()) return;
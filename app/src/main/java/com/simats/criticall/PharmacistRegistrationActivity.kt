@@ -223,6 +223,7 @@ class PharmacistRegistrationActivity : BaseActivity() {
         }
 
         runCatching { AppPrefs.setToken(this, "") }
+        runCatching { SessionReset.onLogout(this) }
         runCatching { AppPrefs.setProfileCompleted(this, false) }
         runCatching { AppPrefs.setAdminVerificationStatus(this, "") }
         runCatching { AppPrefs.setAdminVerificationReason(this, null) }
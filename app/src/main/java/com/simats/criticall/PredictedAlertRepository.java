@@ -5,19 +5,19 @@ import android.text.TextUtils;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
 
-import java.lang.reflect.Method;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 
 public final class PredictedAlertRepository {
     public static final String NODE = "predictedAlerts";
@@ -137,7 +137,7 @@ public final class PredictedAlertRepository {
      * NOTE:
      * Previously depended on LabTestEntryFragment.TestParameter.
      * That class may not exist anymore, so we accept Object and read criticalHigh/criticalLow
-     * via reflection safely (compile-safe).
+     * through {@link ThresholdProvider#fromObjects} (accessors resolved once per class).
      */
     public static PredictedAlert buildPredictedAlert(String patientId,
                                                      String patientName,
@@ -145,6 +145,30 @@ public final class PredictedAlertRepository {
                                                      String category,
                                                      Map<String, TrendPredictor.Prediction> predictions,
                                                      Map<String, Object> parameterMap) {
+        return buildPredictedAlert(patientId, patientName, doctorId, category, predictions, parameterMap,
+                TrendPredictor.MODEL_VERSION);
+    }
+
+    /** Same as above, tagged with the model that produced {@code predictions} (e.g. {@link TrendEngine#MODEL_VERSION}). */
+    public static PredictedAlert buildPredictedAlert(String patientId,
+                                                     String patientName,
+                                                     String doctorId,
+                                                     String category,
+                                                     Map<String, TrendPredictor.Prediction> predictions,
+                                                     Map<String, Object> parameterMap,
+                                                     String modelVersion) {
+        return buildPredictedAlert(patientId, patientName, doctorId, category, predictions,
+                ThresholdProvider.fromObjects(parameterMap), modelVersion);
+    }
+
+    /** Thresholds come from {@code thresholds} (e.g. a {@link ThresholdProvider.Catalog}): one lookup per parameter. */
+    public static PredictedAlert buildPredictedAlert(String patientId,
+                                                     String patientName,
+                                                     String doctorId,
+                                                     String category,
+                                                     Map<String, TrendPredictor.Prediction> predictions,
+                                                     @NonNull ThresholdProvider thresholds,
+                                                     String modelVersion) {
 
         List<PredictedItem> items = new ArrayList<>();
         float minWindowHours = Float.MAX_VALUE;
@@ -154,34 +178,30 @@ public final class PredictedAlertRepository {
             TrendPredictor.Prediction prediction = entry.getValue();
             if (prediction == null || !prediction.hasNumeric || Float.isNaN(prediction.predictedValue)) continue;
 
-            // ✅ No hard dependency; read thresholds reflectively if present
-            Object paramObj = parameterMap != null ? parameterMap.get(name) : null;
-
-            String criticalHigh = reflectThreshold(paramObj, "getCriticalHigh", "criticalHigh", "getHighCritical", "highCritical");
-            String criticalLow  = reflectThreshold(paramObj, "getCriticalLow",  "criticalLow",  "getLowCritical",  "lowCritical");
+            String criticalHigh = thresholds.criticalHigh(name);
+            String criticalLow  = thresholds.criticalLow(name);
 
             String thresholdRule = "";
             float thresholdValue = Float.NaN;
 
             if (!TextUtils.isEmpty(criticalHigh) || !TextUtils.isEmpty(criticalLow)) {
-                ThresholdUtils.Threshold high = ThresholdUtils.parseThreshold(criticalHigh);
-                ThresholdUtils.Threshold low  = ThresholdUtils.parseThreshold(criticalLow);
+                // every clause of both strings (ranges, "> a; < b"), not just the first one
+                ThresholdRule rule = ThresholdRule.compile(TextUtils.isEmpty(criticalLow) ? criticalHigh
+                        : TextUtils.isEmpty(criticalHigh) ? criticalLow : criticalHigh + ";" + criticalLow);
+                float up = rule.nextBound(prediction.lastValue, true);
+                float down = rule.nextBound(prediction.lastValue, false);
 
                 boolean trendingUp = prediction.slopePerHour > 0;
                 boolean trendingDown = prediction.slopePerHour < 0;
 
-                if (trendingUp && !Float.isNaN(high.value)) {
-                    thresholdValue = high.value;
-                    thresholdRule = ThresholdUtils.formatThreshold(high);
-                } else if (trendingDown && !Float.isNaN(low.value)) {
-                    thresholdValue = low.value;
-                    thresholdRule = ThresholdUtils.formatThreshold(low);
-                } else if (!Float.isNaN(high.value)) {
-                    thresholdValue = high.value;
-                    thresholdRule = ThresholdUtils.formatThreshold(high);
-                } else if (!Float.isNaN(low.value)) {
-                    thresholdValue = low.value;
-                    thresholdRule = ThresholdUtils.formatThreshold(low);
+                boolean useUp;
+                if (trendingUp && !Float.isNaN(up)) useUp = true;
+                else if (trendingDown && !Float.isNaN(down)) useUp = false;
+                else useUp = !Float.isNaN(up);
+
+                thresholdValue = useUp ? up : down;
+                if (!Float.isNaN(thresholdValue)) {
+                    thresholdRule = formatBound(thresholdValue, useUp, criticalHigh, criticalLow);
                 }
             }
 
@@ -246,41 +266,10 @@ public final class PredictedAlertRepository {
                 riskLevel,
                 windowHours,
                 items,
-                TrendPredictor.MODEL_VERSION
+                modelVersion
         );
     }
 
-    /**
-     * Tries to read a threshold string from an arbitrary object without hard dependency.
-     * We try:
-     * 1) method names like getCriticalHigh()/getCriticalLow()
-     * 2) public field names like criticalHigh/criticalLow
-     */
-    @Nullable
-    private static String reflectThreshold(@Nullable Object obj, @NonNull String... candidates) {
-        if (obj == null) return null;
-
-        // 1) try getters / methods
-        for (String c : candidates) {
-            try {
-                Method m = obj.getClass().getMethod(c);
-                Object v = m.invoke(obj);
-                if (v instanceof String && !TextUtils.isEmpty((String) v)) return (String) v;
-            } catch (Exception ignored) {}
-        }
-
-        // 2) try public fields
-        for (String c : candidates) {
-            try {
-                java.lang.reflect.Field f = obj.getClass().getField(c);
-                Object v = f.get(obj);
-                if (v instanceof String && !TextUtils.isEmpty((String) v)) return (String) v;
-            } catch (Exception ignored) {}
-        }
-
-        return null;
-    }
-
     public static Map<String, Object> toMap(PredictedAlert alert) {
         Map<String, Object> map = new HashMap<>();
         map.put("patientId", alert.patientId);
@@ -342,31 +331,138 @@ public final class PredictedAlertRepository {
         );
     }
 
+    // the configured clause text (e.g. "≥ 7.0") when the bound is a first clause, else "> b" / "< b"
+    private static String formatBound(float bound, boolean high, String criticalHigh, String criticalLow) {
+        for (String s : new String[]{criticalHigh, criticalLow}) {
+            ThresholdUtils.Threshold first = ThresholdUtils.parseThreshold(s);
+            if (first.value == bound && (high ? !first.op.startsWith("<") : !first.op.startsWith(">"))) {
+                return ThresholdUtils.formatThreshold(first);
+            }
+        }
+        return (high ? "> " : "< ") + bound;
+    }
+
+    // ---- writes
+    // Last alert written per "doctorId/patientId", flattened to leaf paths. Saves send only leaves that
+    // changed, as one multi-path updateChildren; a miss (first write, or after a failed write) sends the
+    // whole alert node. Process-local and cleared on logout (resetSession), so the first save per patient
+    // in a session is always a full write.
+    // Another client (or an archive from another device) can remove the node, and a diff would then
+    // recreate it with only the changed leaves. We don't listen for removals: a child listener on the
+    // doctor's subtree downloads and keeps syncing every alert under it, which costs more than the diffs
+    // save. Instead a node gets a full write again once FULL_REFRESH_MS has passed since its last one,
+    // so a node half-recreated that way is made whole again within that window.
+    private static final long FULL_REFRESH_MS = 10 * 60_000L;
+    private static final Map<String, Written> LAST_WRITTEN = new ConcurrentHashMap<>();
+
+    private static final class Written {
+        final Map<String, Object> leaves;
+        final long fullAtMs;
+
+        Written(Map<String, Object> leaves, long fullAtMs) {
+            this.leaves = leaves;
+            this.fullAtMs = fullAtMs;
+        }
+    }
+
+    /** Forgets what this session wrote (logout / doctor switch); the next save per patient is full. */
+    public static void resetSession() {
+        LAST_WRITTEN.clear();
+    }
+
     public static void savePredictedAlert(String doctorId, String patientId, PredictedAlert alert) {
         if (doctorId == null || patientId == null || alert == null) return;
-        DatabaseReference ref = FirebaseDatabase.getInstance().getReference(NODE)
-                .child(doctorId)
-                .child(patientId);
-        ref.setValue(toMap(alert));
+        Map<String, Object> updates = new HashMap<>();
+        List<String> written = new ArrayList<>();
+        addSaveUpdates(doctorId, patientId, alert, updates, written);
+        commit(updates, written);
+    }
+
+    /** Recomputed alerts for many patients of one doctor as one atomic fan-out write (diffs only). */
+    public static void savePredictedAlerts(String doctorId, @Nullable List<PredictedAlert> alerts) {
+        if (doctorId == null || alerts == null || alerts.isEmpty()) return;
+        // one entry per patient: overlapping paths would make the whole multi-path update fail
+        Map<String, PredictedAlert> latest = new LinkedHashMap<>();
+        for (PredictedAlert alert : alerts) {
+            if (alert != null && alert.patientId != null) latest.put(alert.patientId, alert);
+        }
+        Map<String, Object> updates = new HashMap<>();
+        List<String> written = new ArrayList<>();
+        for (Map.Entry<String, PredictedAlert> e : latest.entrySet()) {
+            addSaveUpdates(doctorId, e.getKey(), e.getValue(), updates, written);
+        }
+        commit(updates, written);
     }
 
+    /** Copy to the archive and remove the live alert in one atomic write (was set + remove). */
     public static void archivePredictedAlert(String doctorId, PredictedAlert alert) {
         if (doctorId == null || alert == null || alert.patientId == null) return;
+        archivePredictedAlerts(doctorId, Collections.singletonList(alert));
+    }
 
-        DatabaseReference ref = FirebaseDatabase.getInstance().getReference(NODE)
-                .child(doctorId)
-                .child(alert.patientId);
+    public static void archivePredictedAlerts(String doctorId, @Nullable List<PredictedAlert> alerts) {
+        if (doctorId == null || alerts == null || alerts.isEmpty()) return;
+        String archivedAt = String.valueOf(System.currentTimeMillis());
+        Map<String, Object> updates = new HashMap<>();
+        for (PredictedAlert alert : alerts) {
+            if (alert == null || alert.patientId == null) continue;
+            updates.put(ARCHIVE_NODE + "/" + doctorId + "/" + alert.patientId + "/" + archivedAt, toMap(alert));
+            updates.put(NODE + "/" + doctorId + "/" + alert.patientId, null);
+            LAST_WRITTEN.remove(doctorId + "/" + alert.patientId);
+        }
+        if (updates.isEmpty()) return;
+        FirebaseDatabase.getInstance().getReference().updateChildren(updates);
+    }
 
-        DatabaseReference archiveRef = FirebaseDatabase.getInstance().getReference(ARCHIVE_NODE)
-                .child(doctorId)
-                .child(alert.patientId)
-                .child(String.valueOf(System.currentTimeMillis()));
+    private static void addSaveUpdates(String doctorId, String patientId, PredictedAlert alert,
+                                       Map<String, Object> updates, List<String> written) {
+        String key = doctorId + "/" + patientId;
+        String base = NODE + "/" + key;
+        Map<String, Object> full = toMap(alert);
+        Map<String, Object> flat = new HashMap<>();
+        flatten("", full, flat);
+
+        long now = System.currentTimeMillis();
+        Written prev = LAST_WRITTEN.get(key);
+        long fullAt;
+        if (prev == null || now - prev.fullAtMs >= FULL_REFRESH_MS || now < prev.fullAtMs) {
+            updates.put(base, full);
+            fullAt = now;
+        } else {
+            Map<String, Object> last = prev.leaves;
+            for (Map.Entry<String, Object> e : flat.entrySet()) {
+                if (!e.getValue().equals(last.get(e.getKey()))) updates.put(base + "/" + e.getKey(), e.getValue());
+            }
+            for (String old : last.keySet()) {
+                if (!flat.containsKey(old)) updates.put(base + "/" + old, null);
+            }
+            fullAt = prev.fullAtMs;
+        }
+        // optimistic: the client applies queued writes in order; commit() forgets it again on failure
+        LAST_WRITTEN.put(key, new Written(flat, fullAt));
+        written.add(key);
+    }
 
-        Map<String, Object> snapshotMap = toMap(alert);
-        archiveRef.setValue(snapshotMap, (error, ignored) -> {
-            if (error == null) {
-                ref.removeValue();
+    private static void commit(Map<String, Object> updates, List<String> written) {
+        if (updates.isEmpty()) return;
+        FirebaseDatabase.getInstance().getReference().updateChildren(updates, (error, ref) -> {
+            if (error != null) {
+                for (String key : written) LAST_WRITTEN.remove(key);
             }
         });
     }
+
+    // nested maps/lists -> "a/b/0/c" leaf paths (lists are stored by index in the Realtime Database)
+    private static void flatten(String prefix, Object value, Map<String, Object> out) {
+        if (value instanceof Map) {
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                flatten(prefix + e.getKey() + "/", e.getValue(), out);
+            }
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            for (int i = 0; i < list.size(); i++) flatten(prefix + i + "/", list.get(i), out);
+        } else if (value != null && !prefix.isEmpty()) {
+            out.put(prefix.substring(0, prefix.length() - 1), value);
+        }
+    }
 }
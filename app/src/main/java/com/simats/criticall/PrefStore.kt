@@ -0,0 +1,223 @@
+package com.simats.criticall
+
+import android.content.Context
+import android.util.Log
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import org.json.JSONObject
+import java.io.File
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * One key-value file for the small settings read during startup, which used to be four
+ * SharedPreferences files (app_prefs, criticall_user_cache, criticall_ai_gate, UserPrefs), each
+ * loaded from disk on the main thread on first touch.
+ *
+ * [preload] (CriticallApp.onCreate) reads the file on a background thread; reads are served from memory
+ * afterwards and only wait if they arrive before the load finished ([await] is the suspending way).
+ * An [Namespace.Editor] applies all its changes at once, and the whole file is rewritten via tmp + rename
+ * on a background thread; [flush] waits for that (CriticallApp calls it when the app goes to the background).
+ * AppPrefs, UserCachePrefs, SubscriptionGate and TranslationManager are thin facades over it.
+ */
+object PrefStore {
+
+    private const val TAG = "PrefStore"
+    private const val FILE = "prefstore_v1.json"
+
+    const val NS_APP = "app"
+    const val NS_USER_CACHE = "user_cache"
+    const val NS_AI_GATE = "ai_gate"
+    const val NS_UI = "ui"
+
+    // namespace -> SharedPreferences file it replaces (imported once, then deleted)
+    private val LEGACY = linkedMapOf(
+        NS_APP to "app_prefs",
+        NS_USER_CACHE to "criticall_user_cache",
+        NS_AI_GATE to "criticall_ai_gate",
+        NS_UI to "UserPrefs"
+    )
+
+    private val lock = Any()
+    private val data = HashMap<String, HashMap<String, Any>>() // guarded by lock
+    private val loaded = CountDownLatch(1)
+    private val writeQueued = AtomicBoolean(false)
+    private val io = Executors.newSingleThreadExecutor { r -> Thread(r, "prefstore-io").apply { isDaemon = true } }
+
+    @Volatile private var started = false
+    @Volatile private var file: File? = null
+
+    /** Start loading off the main thread. Safe to call repeatedly. */
+    @JvmStatic
+    fun preload(c: Context) {
+        if (started) return
+        synchronized(this) {
+            if (started) return
+            started = true
+        }
+        val app = c.applicationContext
+        io.execute { load(app) }
+    }
+
+    /** Suspend until the store is in memory (never blocks the calling thread). */
+    suspend fun await(c: Context) {
+        preload(c)
+        if (loaded.count > 0L) withContext(Dispatchers.IO) { loaded.await() }
+    }
+
+    /** Block until every change applied so far is on disk (bounded wait, like SharedPreferences on onStop). */
+    @JvmStatic
+    fun flush() {
+        if (!started) return
+        runCatching { io.submit {}.get(2, TimeUnit.SECONDS) }
+    }
+
+    @JvmStatic
+    fun ns(c: Context, name: String): Namespace = Namespace(c.applicationContext, name)
+
+    // only blocks if a read races the preload (or nobody called preload)
+    private fun ready(c: Context) {
+        preload(c)
+        if (loaded.count > 0L) loaded.await()
+    }
+
+    class Namespace internal constructor(private val app: Context, private val name: String) {
+
+        private fun value(key: String): Any? {
+            ready(app)
+            synchronized(lock) { return data[name]?.get(key) }
+        }
+
+        fun getString(key: String, def: String?): String? = value(key) as? String ?: def
+        fun getInt(key: String, def: Int): Int = (value(key) as? Number)?.toInt() ?: def
+        fun getLong(key: String, def: Long): Long = (value(key) as? Number)?.toLong() ?: def
+        fun getBoolean(key: String, def: Boolean): Boolean = value(key) as? Boolean ?: def
+        fun contains(key: String): Boolean = value(key) != null
+
+        /** Copy of this namespace as it is right now. */
+        fun snapshot(): Map<String, Any> {
+            ready(app)
+            synchronized(lock) { return HashMap(data[name] ?: emptyMap<String, Any>()) }
+        }
+
+        /** Suspending read: waits for the preload without blocking, then reads from memory. */
+        suspend fun <T> read(block: Namespace.() -> T): T {
+            await(app)
+            return block()
+        }
+
+        fun edit(): Editor = Editor()
+
+        /** Same shape as SharedPreferences.Editor; [apply] publishes every change together. */
+        inner class Editor internal constructor() {
+            private val ops = ArrayList<(HashMap<String, Any>) -> Unit>()
+            private var clear = false
+
+            fun putString(key: String, v: String?) = put(key, v)
+            fun putInt(key: String, v: Int) = put(key, v)
+            fun putLong(key: String, v: Long) = put(key, v)
+            fun putBoolean(key: String, v: Boolean) = put(key, v)
+
+            fun remove(key: String): Editor {
+                ops.add { it.remove(key) }
+                return this
+            }
+
+            fun clear(): Editor {
+                clear = true
+                return this
+            }
+
+            private fun put(key: String, v: Any?): Editor {
+                ops.add { m -> if (v == null) m.remove(key) else m[key] = v }
+                return this
+            }
+
+            fun apply() {
+                ready(app)
+                synchronized(lock) {
+                    val m = data.getOrPut(name) { HashMap() }
+                    if (clear) m.clear()
+                    for (op in ops) op(m)
+                }
+                persist()
+            }
+        }
+    }
+
+    // ---- disk (io thread only)
+
+    private fun load(app: Context) {
+        try {
+            val f = File(app.filesDir, FILE)
+            file = f
+            if (f.exists()) {
+                val root = JSONObject(f.readText(Charsets.UTF_8))
+                synchronized(lock) {
+                    for (ns in root.keys()) {
+                        val o = root.optJSONObject(ns) ?: continue
+                        val m = HashMap<String, Any>()
+                        for (k in o.keys()) o.opt(k)?.takeIf { it != JSONObject.NULL }?.let { m[k] = it }
+                        data[ns] = m
+                    }
+                }
+            } else {
+                importLegacy(app)
+            }
+        } catch (t: Throwable) {
+            Log.w(TAG, "load failed; starting empty", t)
+        } finally {
+            loaded.countDown()
+        }
+    }
+
+    private fun importLegacy(app: Context) {
+        synchronized(lock) {
+            for ((ns, pref) in LEGACY) {
+                val m = HashMap<String, Any>()
+                for ((k, v) in app.getSharedPreferences(pref, Context.MODE_PRIVATE).all) {
+                    when (v) {
+                        is String, is Int, is Long, is Boolean -> m[k] = v
+                        is Float -> m[k] = v.toDouble()
+                    }
+                }
+                data[ns] = m
+            }
+        }
+        if (writeNow()) {
+            for (pref in LEGACY.values) app.deleteSharedPreferences(pref)
+        }
+    }
+
+    private fun persist() {
+        if (writeQueued.compareAndSet(false, true)) {
+            io.execute {
+                writeQueued.set(false)
+                writeNow()
+            }
+        }
+    }
+
+    private fun writeNow(): Boolean {
+        val f = file ?: return false
+        val root = JSONObject()
+        synchronized(lock) {
+            for ((ns, m) in data) {
+                val o = JSONObject()
+                for ((k, v) in m) o.put(k, v)
+                root.put(ns, o)
+            }
+        }
+        val tmp = File(f.parentFile, "$FILE.tmp")
+        return try {
+            tmp.writeText(root.toString(), Charsets.UTF_8)
+            tmp.renameTo(f) || run { tmp.delete(); false }
+        } catch (t: Throwable) {
+            Log.w(TAG, "write failed", t)
+            tmp.delete()
+            false
+        }
+    }
+}
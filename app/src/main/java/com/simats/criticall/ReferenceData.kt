@@ -0,0 +1,92 @@
+package com.simats.criticall
+
+import android.content.Context
+import com.simats.criticall.TieredCache.Codecs
+import org.json.JSONArray
+import org.json.JSONObject
+import java.security.MessageDigest
+
+/**
+ * Cache for rarely-changing lists (specialities, doctors per speciality), memory + disk via [TieredCache].
+ *
+ * - an entry younger than its max age is served with no request at all
+ * - older entries are refetched; if that fails (offline) the old copy is still returned
+ * - every entry carries a version stamp (server "version"/"data_version" when sent, else a hash of the items);
+ *   a caller can [invalidate] a whole group when an upstream version changes
+ */
+object ReferenceData {
+
+    private const val NAMESPACE = "reference_data"
+    private const val DISK_BYTES = 1L * 1024 * 1024
+
+    const val REFRESH_MS = 10 * 60 * 1000L
+
+    /** What a fetch returns: the list plus the server's version stamp if it sent one. */
+    class Fetched(val items: JSONArray, val serverVersion: String? = null)
+
+    class Entry(val items: JSONArray, val version: String, val fetchedAtMs: Long, val generation: Int)
+
+    /**
+     * Cached list for [group]/[key], refetched through [fetch] when missing, older than [maxAgeMs],
+     * or from before the last [invalidate] of [group]. [onVersionChange] runs when a refetch brings a new version.
+     */
+    fun get(
+        c: Context,
+        group: String,
+        key: String,
+        maxAgeMs: Long = REFRESH_MS,
+        onVersionChange: (() -> Unit)? = null,
+        fetch: () -> Fetched?
+    ): JSONArray? {
+        val cached = peek(c, group, key)
+        val gen = generation(c, group)
+        if (cached != null && cached.generation == gen &&
+            System.currentTimeMillis() - cached.fetchedAtMs in 0 until maxAgeMs
+        ) {
+            return copy(cached.items)
+        }
+
+        val fresh = runCatching { fetch() }.getOrNull() ?: return cached?.items?.let { copy(it) }
+        val version = fresh.serverVersion?.takeIf { it.isNotBlank() } ?: hash(fresh.items)
+        store(c).put(
+            entryKey(group, key),
+            JSONObject()
+                .put("version", version)
+                .put("fetched_at_ms", System.currentTimeMillis())
+                .put("generation", gen)
+                .put("items", fresh.items),
+            Codecs.JSON_OBJECT
+        )
+        if (cached != null && cached.version != version) onVersionChange?.invoke()
+        return copy(fresh.items)
+    }
+
+    fun peek(c: Context, group: String, key: String): Entry? {
+        val o = store(c).get(entryKey(group, key), Codecs.JSON_OBJECT) ?: return null
+        val items = o.optJSONArray("items") ?: return null
+        return Entry(items, o.optString("version"), o.optLong("fetched_at_ms", 0L), o.optInt("generation", 0))
+    }
+
+    /** Everything in [group] is refetched on next use (still served as an offline fallback until then). */
+    fun invalidate(c: Context, group: String) {
+        store(c).put(genKey(group), generation(c, group) + 1, Codecs.INT)
+    }
+
+    private fun generation(c: Context, group: String): Int = store(c).get(genKey(group), Codecs.INT) ?: 0
+
+    private fun entryKey(group: String, key: String) = "e:$group:$key"
+
+    private fun genKey(group: String) = "g:$group"
+
+    // callers may sort/mutate what they get; the cached copy stays intact
+    private fun copy(a: JSONArray): JSONArray = JSONArray(a.toString())
+
+    private fun hash(items: JSONArray): String {
+        val d = MessageDigest.getInstance("SHA-1").digest(items.toString().toByteArray(Charsets.UTF_8))
+        val sb = StringBuilder(16)
+        for (i in 0 until 8) sb.append(String.format("%02x", d[i]))
+        return sb.toString()
+    }
+
+    private fun store(c: Context) = TieredCache.namespace(c, NAMESPACE, DISK_BYTES)
+}
@@ -323,6 +323,8 @@ class ReviewApplicationActivity : BaseActivity() {
 
         //  success: update local + return RESULT_OK so fragment refreshes
         status = newStatus
+        AdminDashboardStore.invalidate()
+        AdminUsersStore.invalidate()
         if (newStatus.uppercase(Locale.US) == "VERIFIED") bottomActions.visibility = View.GONE
 
         setResult(RESULT_OK, Intent().apply {
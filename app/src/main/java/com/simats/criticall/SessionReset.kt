@@ -0,0 +1,18 @@
+package com.simats.criticall
+
+import android.content.Context
+
+/**
+ * Per-user state that must not survive a logout (another account may sign in on this device next).
+ * Every path that clears the token calls [onLogout] right after.
+ */
+object SessionReset {
+
+    @JvmStatic
+    fun onLogout(c: Context) {
+        val app = c.applicationContext
+        AssistantReplyCache.clear(app)
+        HttpTransport.evictCache()
+        PredictedAlertRepository.resetSession()
+    }
+}
@@ -0,0 +1,71 @@
+package com.simats.criticall
+
+import okhttp3.Request
+import okio.Buffer
+import java.io.IOException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+/**
+ * Request coalescing: concurrent identical reads share one in-flight response.
+ * Key = method + path + normalized query (sorted, cache-busters dropped) + auth subject (+ body for POST reads).
+ */
+object SingleFlight {
+
+    private val IGNORED_PARAMS = setOf("_ts")
+
+    private val inFlight = ConcurrentHashMap<String, CompletableFuture<HttpTransport.Text>>()
+
+    fun keyOf(request: Request): String {
+        val url = request.url
+        val query = url.queryParameterNames
+            .filter { it !in IGNORED_PARAMS }
+            .sorted()
+            .joinToString("&") { name -> url.queryParameterValues(name).joinToString(",") { "$name=$it" } }
+        val body = request.body?.let { b -> Buffer().also { b.writeTo(it) }.readUtf8() }.orEmpty()
+        return request.method + " " + url.host + url.encodedPath + "?" + query + " @" + authSubject(request) + " " + body
+    }
+
+    @Throws(IOException::class)
+    fun run(request: Request, timeoutMs: Int, block: () -> HttpTransport.Text): HttpTransport.Text {
+        val key = keyOf(request)
+        val mine = CompletableFuture<HttpTransport.Text>()
+        val existing = inFlight.putIfAbsent(key, mine)
+
+        if (existing != null) {
+            NetStats.onCoalesced(HttpTransport.endpointOf(request))
+            // a waiter inside FanOut must not outlive its own deadline just because the leader has none
+            val waitMs = HttpTransport.remainingMs()?.coerceIn(0L, timeoutMs.toLong()) ?: timeoutMs.toLong()
+            return try {
+                existing.get(waitMs, TimeUnit.MILLISECONDS)
+            } catch (e: ExecutionException) {
+                throw (e.cause as? IOException) ?: IOException(e.cause)
+            } catch (e: TimeoutException) {
+                throw IOException("Timed out waiting for shared request", e)
+            }
+        }
+
+        return try {
+            block().also { mine.complete(it) }
+        } catch (e: Throwable) {
+            mine.completeExceptionally(e)
+            throw e
+        } finally {
+            inFlight.remove(key, mine)
+        }
+    }
+
+    private fun authSubject(request: Request): String {
+        val auth = request.header("Authorization").orEmpty()
+        if (auth.isBlank()) return "anon"
+        val token = auth.removePrefix("Bearer ").trim()
+        val p = JwtUtils.decodePayload(token)
+        val sub = p?.optString("sub").orEmpty()
+            .ifBlank { p?.optString("uid").orEmpty() }
+            .ifBlank { p?.optString("user_id").orEmpty() }
+        return sub.ifBlank { token.hashCode().toString() }
+    }
+}
@@ -1,12 +1,12 @@
 package com.simats.criticall.ui.subscription
 
 import android.content.Context
+import com.simats.criticall.PrefStore
 import java.util.Calendar
 import java.util.TimeZone
 
 object SubscriptionGate {
 
-    private const val PREF = "criticall_ai_gate"
     private const val KEY_WEEK_START = "week_start_ms"
     private const val KEY_USED = "used_count"
     private const val KEY_SUBSCRIBED = "is_subscribed"
@@ -14,12 +14,11 @@ object SubscriptionGate {
     private const val FREE_USES_PER_WEEK = 5
 
     fun isSubscribed(ctx: Context): Boolean {
-        return ctx.getSharedPreferences(PREF, Context.MODE_PRIVATE)
-            .getBoolean(KEY_SUBSCRIBED, false)
+        return prefs(ctx).getBoolean(KEY_SUBSCRIBED, false)
     }
 
     fun setSubscribed(ctx: Context, subscribed: Boolean) {
-        ctx.getSharedPreferences(PREF, Context.MODE_PRIVATE)
+        prefs(ctx)
             .edit()
             .putBoolean(KEY_SUBSCRIBED, subscribed)
             .apply()
@@ -47,8 +46,8 @@ object SubscriptionGate {
         p.edit().putInt(KEY_USED, used + 1).apply()
     }
 
-    private fun prefs(ctx: Context) =
-        ctx.getSharedPreferences(PREF, Context.MODE_PRIVATE)
+    // facade over PrefStore (was SharedPreferences "criticall_ai_gate")
+    private fun prefs(ctx: Context) = PrefStore.ns(ctx, PrefStore.NS_AI_GATE)
 
     private fun resetIfNewWeek(ctx: Context) {
         val p = prefs(ctx)
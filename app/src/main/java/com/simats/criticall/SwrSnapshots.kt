@@ -0,0 +1,85 @@
+package com.simats.criticall
+
+import android.content.Context
+import org.json.JSONArray
+import org.json.JSONObject
+import java.security.MessageDigest
+
+/**
+ * Stale-while-revalidate snapshots for home screens.
+ *
+ * The last good payload of a screen is kept per user in [LocalCache]; the screen binds it straight
+ * away, revalidates in the background, and only re-binds when [fingerprint] says the content changed.
+ * Fingerprints are SHA-1 hex, so the stored "_fp" next to a snapshot is 40 chars, not a second copy.
+ */
+object SwrSnapshots {
+
+    class Snapshot(val payload: String, val savedAtMs: Long) {
+        fun ageMs(): Long = System.currentTimeMillis() - savedAtMs
+        fun json(): JSONObject? = runCatching { JSONObject(payload) }.getOrNull()
+        fun array(): JSONArray? = runCatching { JSONArray(payload) }.getOrNull()
+    }
+
+    /** Whose snapshots are current; in-memory copies of a snapshot should be keyed by this too. */
+    fun userKey(c: Context): String = AppPrefs.getLastUid(c).toString()
+
+    // per user, so a different login on the same device never sees someone else's home screen
+    private fun key(c: Context, name: String) = "swr_${name}_${userKey(c)}"
+
+    fun load(c: Context, name: String): Snapshot? {
+        val k = key(c, name)
+        val payload = LocalCache.getString(c, k) ?: return null
+        if (payload.isBlank()) return null
+        return Snapshot(payload, LocalCache.getLong(c, "${k}_ts", 0L))
+    }
+
+    /** Store [payload] under [name]; skips the write when [fp] matches what is already stored. */
+    fun save(c: Context, name: String, payload: String, fp: String = sha1(payload)) {
+        val k = key(c, name)
+        LocalCache.putLong(c, "${k}_ts", System.currentTimeMillis())
+        if (LocalCache.getString(c, "${k}_fp") == fp) return
+        LocalCache.putString(c, k, payload)
+        LocalCache.putString(c, "${k}_fp", fp)
+    }
+
+    /**
+     * Content fingerprint of [o] with [volatileKeys] (e.g. server clocks) dropped at the top level
+     * and inside "data", so a response that only differs in those does not count as a change.
+     */
+    fun fingerprint(o: JSONObject, volatileKeys: Set<String> = emptySet()): String {
+        if (volatileKeys.isEmpty()) return sha1(o.toString())
+        val copy = JSONObject(o.toString())
+        for (k in volatileKeys) copy.remove(k)
+        copy.optJSONObject("data")?.let { d -> for (k in volatileKeys) d.remove(k) }
+        return sha1(copy.toString())
+    }
+
+    fun fingerprint(a: JSONArray): String = sha1(a.toString())
+
+    /**
+     * One-time move of a value cached before snapshots existed ([legacyKey] + [legacyTsKey] in
+     * [LocalCache]) into snapshot [name]; [toPayload] turns it into the snapshot's payload.
+     * An existing snapshot wins. The legacy keys are removed either way.
+     */
+    fun adoptLegacy(c: Context, name: String, legacyKey: String, legacyTsKey: String, toPayload: (String) -> String?) {
+        val legacy = LocalCache.getString(c, legacyKey) ?: return
+        val k = key(c, name)
+        if (LocalCache.getString(c, k).isNullOrBlank()) {
+            val payload = legacy.takeIf { it.isNotBlank() }?.let(toPayload)
+            if (!payload.isNullOrBlank()) {
+                LocalCache.putString(c, k, payload)
+                LocalCache.putString(c, "${k}_fp", sha1(payload))
+                LocalCache.putLong(c, "${k}_ts", LocalCache.getLong(c, legacyTsKey, 0L))
+            }
+        }
+        LocalCache.remove(c, legacyKey)
+        LocalCache.remove(c, legacyTsKey)
+    }
+
+    private fun sha1(s: String): String {
+        val d = MessageDigest.getInstance("SHA-1").digest(s.toByteArray(Charsets.UTF_8))
+        val sb = StringBuilder(d.size * 2)
+        for (b in d) sb.append(String.format("%02x", b))
+        return sb.toString()
+    }
+}
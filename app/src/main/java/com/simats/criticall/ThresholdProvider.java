@@ -0,0 +1,155 @@
+package com.simats.criticall;
+
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Critical-high / critical-low threshold strings per lab parameter, as used by
+ * {@link PredictedAlertRepository#buildPredictedAlert}. Values are raw rule text for {@link ThresholdRule}.
+ */
+public interface ThresholdProvider {
+
+    @Nullable
+    String criticalHigh(@NonNull String parameter);
+
+    @Nullable
+    String criticalLow(@NonNull String parameter);
+
+    /** Wraps a parameter map holding arbitrary objects (see {@link Catalog#fromObjects}). */
+    static ThresholdProvider fromObjects(@Nullable Map<String, ?> parameterMap) {
+        return Catalog.fromObjects(parameterMap);
+    }
+
+    /** Lab-parameter catalog: parameter name -> (critical high, critical low); lookups are one map get. */
+    final class Catalog implements ThresholdProvider {
+        private final Map<String, String[]> byName = new HashMap<>();
+
+        public Catalog put(@NonNull String parameter, @Nullable String criticalHigh, @Nullable String criticalLow) {
+            byName.put(parameter, new String[]{criticalHigh, criticalLow});
+            return this;
+        }
+
+        @Nullable
+        @Override
+        public String criticalHigh(@NonNull String parameter) {
+            String[] e = byName.get(parameter);
+            return e != null ? e[0] : null;
+        }
+
+        @Nullable
+        @Override
+        public String criticalLow(@NonNull String parameter) {
+            String[] e = byName.get(parameter);
+            return e != null ? e[1] : null;
+        }
+
+        public int size() {
+            return byName.size();
+        }
+
+        /**
+         * Builds a catalog from objects that expose criticalHigh/criticalLow as getters or public fields
+         * (old lab-entry parameter classes). Each class is inspected once ({@link Accessors}); after that
+         * reading an object is two direct calls.
+         */
+        public static Catalog fromObjects(@Nullable Map<String, ?> parameterMap) {
+            Catalog c = new Catalog();
+            if (parameterMap == null) return c;
+            for (Map.Entry<String, ?> e : parameterMap.entrySet()) {
+                Object o = e.getValue();
+                if (e.getKey() == null || o == null) continue;
+                if (o instanceof ThresholdProvider) {
+                    ThresholdProvider p = (ThresholdProvider) o;
+                    c.put(e.getKey(), p.criticalHigh(e.getKey()), p.criticalLow(e.getKey()));
+                    continue;
+                }
+                Accessors a = Accessors.of(o.getClass());
+                c.put(e.getKey(), a.high.read(o), a.low.read(o));
+            }
+            return c;
+        }
+    }
+
+    /** Getter/field lookups resolved once per class (was up to eight reflective probes per read). */
+    final class Accessors {
+        private static final String[] HIGH = {"getCriticalHigh", "criticalHigh", "getHighCritical", "highCritical"};
+        private static final String[] LOW = {"getCriticalLow", "criticalLow", "getLowCritical", "lowCritical"};
+
+        private static final Map<Class<?>, Accessors> CACHE = new ConcurrentHashMap<>();
+
+        final Reader high;
+        final Reader low;
+
+        private Accessors(Class<?> cls) {
+            this.high = Reader.resolve(cls, HIGH);
+            this.low = Reader.resolve(cls, LOW);
+        }
+
+        static Accessors of(Class<?> cls) {
+            Accessors a = CACHE.get(cls);
+            if (a == null) {
+                a = new Accessors(cls);
+                Accessors raced = CACHE.putIfAbsent(cls, a);
+                if (raced != null) a = raced;
+            }
+            return a;
+        }
+
+        /** Every matching no-arg String getter, then public String field, in candidate order. */
+        static final class Reader {
+            private final Method[] methods;
+            private final Field[] fields;
+
+            private Reader(Method[] methods, Field[] fields) {
+                this.methods = methods;
+                this.fields = fields;
+            }
+
+            static Reader resolve(Class<?> cls, String[] candidates) {
+                List<Method> ms = new ArrayList<>();
+                List<Field> fs = new ArrayList<>();
+                for (String c : candidates) {
+                    try {
+                        Method m = cls.getMethod(c);
+                        if (m.getReturnType() == String.class) ms.add(m);
+                    } catch (Exception ignored) {}
+                }
+                for (String c : candidates) {
+                    try {
+                        Field f = cls.getField(c);
+                        if (f.getType() == String.class) fs.add(f);
+                    } catch (Exception ignored) {}
+                }
+                return new Reader(ms.toArray(new Method[0]), fs.toArray(new Field[0]));
+            }
+
+            // first non-empty value, same order as the old reflectThreshold
+            @Nullable
+            String read(Object obj) {
+                for (Method m : methods) {
+                    try {
+                        Object v = m.invoke(obj);
+                        if (v instanceof String && !TextUtils.isEmpty((String) v)) return (String) v;
+                    } catch (Exception ignored) {}
+                }
+                for (Field f : fields) {
+                    try {
+                        Object v = f.get(obj);
+                        if (v instanceof String && !TextUtils.isEmpty((String) v)) return (String) v;
+                    } catch (Exception ignored) {}
+                }
+                return null;
+            }
+        }
+    }
+}
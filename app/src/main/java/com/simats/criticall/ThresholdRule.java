@@ -0,0 +1,294 @@
+package com.simats.criticall;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A critical-threshold string ("&gt; 180", "≤ 3.5 mmol/L", "70-110 mg/dL", "&gt; 250; &lt; 40") parsed once.
+ *
+ * Rules are interned through {@link #compile}: one instance per distinct string, kept in a bounded LRU,
+ * so checking a whole panel re-uses the same few rules. Clauses are stored in primitive arrays and
+ * {@link #isCriticalHigh}/{@link #isCriticalLow} allocate nothing.
+ *
+ * Clause meaning (same as the old {@link ThresholdUtils} checks for single clauses):
+ * ">", "≥" are upper bounds (critical when value &gt;= bound), "<", "≤" lower bounds (value &lt;= bound),
+ * a bare number is high above / low below it, and a range "a-b" is high above b / low below a.
+ * With several ";" clauses, any matching clause counts.
+ */
+public final class ThresholdRule {
+
+    static final byte KIND_GE = 1;     // ">" or ">="
+    static final byte KIND_LE = 2;     // "<" or "<="
+    static final byte KIND_SINGLE = 3; // bare number
+    static final byte KIND_RANGE = 4;  // "a-b", "a – b", "a to b"
+
+    private static final int CACHE_SIZE = 256;
+
+    private static final ThresholdRule EMPTY = new ThresholdRule("", new byte[0], new float[0], new float[0], "",
+            new ThresholdUtils.Threshold(Float.NaN, ""));
+
+    private static final Map<String, ThresholdRule> CACHE = new LinkedHashMap<String, ThresholdRule>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ThresholdRule> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    public final String source;
+    /** Unit text after the first clause's number(s), e.g. "mg/dL" (empty when none). */
+    public final String unit;
+
+    private final byte[] kinds;
+    private final float[] lo;
+    private final float[] hi;
+    // first clause as the old (value, op) pair, for formatting and callers of parseThreshold
+    private final ThresholdUtils.Threshold legacy;
+
+    private ThresholdRule(String source, byte[] kinds, float[] lo, float[] hi, String unit,
+                          ThresholdUtils.Threshold legacy) {
+        this.source = source;
+        this.kinds = kinds;
+        this.lo = lo;
+        this.hi = hi;
+        this.unit = unit;
+        this.legacy = legacy;
+    }
+
+    /** Interned rule for {@code threshold}; never null (blank/unparseable strings give an empty rule). */
+    @NonNull
+    public static ThresholdRule compile(@Nullable String threshold) {
+        if (threshold == null) return EMPTY;
+        synchronized (CACHE) {
+            ThresholdRule r = CACHE.get(threshold);
+            if (r != null) return r;
+        }
+        ThresholdRule r = parse(threshold);
+        synchronized (CACHE) {
+            ThresholdRule raced = CACHE.get(threshold);
+            if (raced != null) return raced;
+            CACHE.put(threshold, r);
+        }
+        return r;
+    }
+
+    public boolean isEmpty() {
+        return kinds.length == 0;
+    }
+
+    public int clauseCount() {
+        return kinds.length;
+    }
+
+    public ThresholdUtils.Threshold firstBound() {
+        return legacy;
+    }
+
+    public boolean isCriticalHigh(float value) {
+        if (Float.isNaN(value)) return false;
+        for (int i = 0; i < kinds.length; i++) {
+            switch (kinds[i]) {
+                case KIND_GE:
+                    if (value >= lo[i]) return true;
+                    break;
+                case KIND_SINGLE:
+                    if (value > lo[i]) return true;
+                    break;
+                case KIND_RANGE:
+                    if (value > hi[i]) return true;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return false;
+    }
+
+    public boolean isCriticalLow(float value) {
+        if (Float.isNaN(value)) return false;
+        for (int i = 0; i < kinds.length; i++) {
+            switch (kinds[i]) {
+                case KIND_LE:
+                    if (value <= lo[i]) return true;
+                    break;
+                case KIND_SINGLE:
+                case KIND_RANGE:
+                    if (value < lo[i]) return true;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return false;
+    }
+
+    public boolean isCritical(float value) {
+        return isCriticalHigh(value) || isCriticalLow(value);
+    }
+
+    /**
+     * The bound a value moving from {@code from} meets first, over every clause: the lowest high bound
+     * above it when {@code up}, else the highest low bound below it. When {@code from} is already past
+     * all of them, the last one it crossed; NaN when no clause bounds that side.
+     */
+    public float nextBound(float from, boolean up) {
+        float ahead = Float.NaN;
+        float passed = Float.NaN;
+        for (int i = 0; i < kinds.length; i++) {
+            if (up) {
+                if (kinds[i] == KIND_LE) continue;
+                float b = kinds[i] == KIND_RANGE ? hi[i] : lo[i];
+                if (b > from) {
+                    if (Float.isNaN(ahead) || b < ahead) ahead = b;
+                } else if (Float.isNaN(passed) || b > passed) {
+                    passed = b;
+                }
+            } else {
+                if (kinds[i] == KIND_GE) continue;
+                float b = lo[i];
+                if (b < from) {
+                    if (Float.isNaN(ahead) || b > ahead) ahead = b;
+                } else if (Float.isNaN(passed) || b < passed) {
+                    passed = b;
+                }
+            }
+        }
+        return Float.isNaN(ahead) ? passed : ahead;
+    }
+
+    // ---- parsing (once per distinct string; plain char scanning, no regex)
+
+    private static ThresholdRule parse(String source) {
+        String t = source.trim();
+        if (t.isEmpty()) return EMPTY;
+
+        String[] parts = t.split(";");
+        byte[] kinds = new byte[parts.length];
+        float[] lo = new float[parts.length];
+        float[] hi = new float[parts.length];
+        int n = 0;
+        String unit = "";
+        ThresholdUtils.Threshold legacy = null;
+
+        for (int p = 0; p < parts.length; p++) {
+            String clause = parts[p].trim();
+            String op = operatorOf(clause);
+            Scan s = scan(clause);
+            if (p == 0) {
+                legacy = new ThresholdUtils.Threshold(s.first, op);
+                unit = s.unit;
+            }
+            if (Float.isNaN(s.first)) continue;
+
+            if (op.startsWith(">")) kinds[n] = KIND_GE;
+            else if (op.startsWith("<")) kinds[n] = KIND_LE;
+            else if (!Float.isNaN(s.second)) kinds[n] = KIND_RANGE;
+            else kinds[n] = KIND_SINGLE;
+            lo[n] = kinds[n] == KIND_RANGE ? Math.min(s.first, s.second) : s.first;
+            hi[n] = kinds[n] == KIND_RANGE ? Math.max(s.first, s.second) : s.first;
+            n++;
+        }
+
+        if (n < kinds.length) {
+            byte[] k2 = new byte[n];
+            float[] l2 = new float[n];
+            float[] h2 = new float[n];
+            System.arraycopy(kinds, 0, k2, 0, n);
+            System.arraycopy(lo, 0, l2, 0, n);
+            System.arraycopy(hi, 0, h2, 0, n);
+            kinds = k2;
+            lo = l2;
+            hi = h2;
+        }
+        return new ThresholdRule(source, kinds, lo, hi, unit,
+                legacy != null ? legacy : new ThresholdUtils.Threshold(Float.NaN, ""));
+    }
+
+    // same precedence as the original parser
+    private static String operatorOf(String clause) {
+        if (clause.indexOf('≤') >= 0 || clause.contains("<=")) return "<=";
+        if (clause.indexOf('≥') >= 0 || clause.contains(">=")) return ">=";
+        if (clause.indexOf('<') >= 0) return "<";
+        if (clause.indexOf('>') >= 0) return ">";
+        return "";
+    }
+
+    private static final class Scan {
+        float first = Float.NaN;
+        float second = Float.NaN;
+        String unit = "";
+    }
+
+    private static Scan scan(String s) {
+        Scan out = new Scan();
+        int len = s.length();
+        int i = 0;
+
+        // first number: "-" counts as a sign only when a digit follows
+        while (i < len && !startsNumber(s, i)) i++;
+        if (i >= len) return out;
+        int end = numberEnd(s, i);
+        out.first = parse(s, i, end);
+        i = end;
+
+        // optional range: "-", "–", "—" or "to", then the second number
+        int j = skipSpaces(s, i);
+        boolean sep = false;
+        if (j < len && (s.charAt(j) == '-' || s.charAt(j) == '–' || s.charAt(j) == '—')) {
+            sep = true;
+            j++;
+        } else if (j + 1 < len && (s.charAt(j) == 't' || s.charAt(j) == 'T')
+                && (s.charAt(j + 1) == 'o' || s.charAt(j + 1) == 'O')) {
+            sep = true;
+            j += 2;
+        }
+        if (sep) {
+            j = skipSpaces(s, j);
+            if (j < len && startsNumber(s, j)) {
+                int e2 = numberEnd(s, j);
+                out.second = parse(s, j, e2);
+                i = e2;
+            }
+        }
+
+        out.unit = s.substring(i).trim();
+        return out;
+    }
+
+    private static boolean startsNumber(String s, int i) {
+        char c = s.charAt(i);
+        if (isDigit(c)) return true;
+        return c == '-' && i + 1 < s.length() && isDigit(s.charAt(i + 1));
+    }
+
+    private static int numberEnd(String s, int i) {
+        int len = s.length();
+        if (s.charAt(i) == '-') i++;
+        while (i < len && isDigit(s.charAt(i))) i++;
+        if (i + 1 < len && s.charAt(i) == '.' && isDigit(s.charAt(i + 1))) {
+            i++;
+            while (i < len && isDigit(s.charAt(i))) i++;
+        }
+        return i;
+    }
+
+    // ASCII only, like the old "\\d" pattern
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int skipSpaces(String s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+        return i;
+    }
+
+    private static float parse(String s, int from, int to) {
+        try {
+            return Float.parseFloat(s.substring(from, to));
+        } catch (Exception e) {
+            return Float.NaN;
+        }
+    }
+}
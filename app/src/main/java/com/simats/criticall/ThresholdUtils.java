@@ -13,29 +13,9 @@ public final class ThresholdUtils {
         }
     }
 
+    /** First clause of {@code threshold} as (value, op); parsed once per distinct string via {@link ThresholdRule}. */
     public static Threshold parseThreshold(String threshold) {
-        if (threshold == null) return new Threshold(Float.NaN, "");
-        String t = threshold.trim();
-        if (t.isEmpty()) return new Threshold(Float.NaN, "");
-
-        String first = t.split(";")[0].trim();
-
-        String op = "";
-        if (first.contains("≤") || first.contains("<=")) op = "<=";
-        else if (first.contains("≥") || first.contains(">=")) op = ">=";
-        else if (first.contains("<")) op = "<";
-        else if (first.contains(">")) op = ">";
-
-        float value = Float.NaN;
-        java.util.regex.Pattern numberPattern = java.util.regex.Pattern.compile("(-?\\d+(?:\\.\\d+)?)");
-        java.util.regex.Matcher matcher = numberPattern.matcher(first);
-        if (matcher.find()) {
-            try {
-                value = Float.parseFloat(matcher.group(1));
-            } catch (Exception ignored) {}
-        }
-
-        return new Threshold(value, op);
+        return ThresholdRule.compile(threshold).firstBound();
     }
 
     public static String formatThreshold(Threshold threshold) {
@@ -49,34 +29,12 @@ public final class ThresholdUtils {
         return value == null ? "" : value.trim();
     }
 
-    // Convenience helpers for value comparisons
+    // Convenience helpers for value comparisons (compiled + cached rule, no parsing per value)
     public static boolean isCriticalHigh(String threshold, float value) {
-        Threshold t = parseThreshold(threshold);
-        if (Float.isNaN(value) || Float.isNaN(t.value)) return false;
-        switch (t.op) {
-            case ">":
-            case ">=":
-                return value >= t.value;
-            case "<":
-            case "<=":
-                return false;
-            default:
-                return value > t.value; // default treat as high if above single value
-        }
+        return ThresholdRule.compile(threshold).isCriticalHigh(value);
     }
 
     public static boolean isCriticalLow(String threshold, float value) {
-        Threshold t = parseThreshold(threshold);
-        if (Float.isNaN(value) || Float.isNaN(t.value)) return false;
-        switch (t.op) {
-            case "<":
-            case "<=":
-                return value <= t.value;
-            case ">":
-            case ">=":
-                return false;
-            default:
-                return value < t.value; // default treat as low if below single value
-        }
+        return ThresholdRule.compile(threshold).isCriticalLow(value);
     }
 }
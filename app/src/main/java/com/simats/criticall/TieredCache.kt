@@ -0,0 +1,376 @@
+package com.simats.criticall
+
+import android.content.Context
+import android.util.Log
+import android.util.LruCache
+import org.json.JSONArray
+import org.json.JSONObject
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Two-tier key/value cache: a byte-bounded in-memory LRU over one file per entry on disk.
+ *
+ * - keys are namespaced ([namespace]); each namespace is its own directory with its own disk budget
+ * - values go through a [Codec], so callers get typed values back (and JSON is parsed once, not per read);
+ *   mutable values (JSON) are copied in and out, so a caller editing what it got can't change the cache
+ * - optional per-entry TTL; expired entries read as null and are deleted
+ * - writes land in memory immediately and are persisted in order on one background thread,
+ *   so a put never rewrites anything but its own file
+ * - opening a namespace warms the memory tier from its newest files on that thread, so early reads
+ *   (often from the main thread) don't go to disk; a read that still does can't overwrite a newer put
+ */
+object TieredCache {
+
+    private const val TAG = "TieredCache"
+    private const val DIR = "tiered_cache"
+    private const val MAGIC_V1 = 0x54434831 // "TCH1": expiry + bytes
+    private const val MAGIC = 0x54434832 // "TCH2": key + expiry + bytes (key lets warm-up fill memory)
+    private const val MEMORY_BYTES = 2 * 1024 * 1024
+    private const val DEFAULT_DISK_BYTES = 8L * 1024 * 1024
+    private const val WARM_BYTES = MEMORY_BYTES / 4 // per namespace
+
+    interface Codec<T> {
+        fun encode(value: T): ByteArray
+        fun decode(bytes: ByteArray): T?
+
+        /** A copy callers may change freely; immutable values return themselves. */
+        fun copy(value: T): T = value
+    }
+
+    object Codecs {
+        val STRING: Codec<String> = object : Codec<String> {
+            override fun encode(value: String) = value.toByteArray(Charsets.UTF_8)
+            override fun decode(bytes: ByteArray) = String(bytes, Charsets.UTF_8)
+        }
+
+        // numbers are stored as text so an Int written earlier can still be read as a Long
+        val INT: Codec<Int> = object : Codec<Int> {
+            override fun encode(value: Int) = value.toString().toByteArray(Charsets.UTF_8)
+            override fun decode(bytes: ByteArray) = String(bytes, Charsets.UTF_8).trim().toIntOrNull()
+        }
+
+        val LONG: Codec<Long> = object : Codec<Long> {
+            override fun encode(value: Long) = value.toString().toByteArray(Charsets.UTF_8)
+            override fun decode(bytes: ByteArray) = String(bytes, Charsets.UTF_8).trim().toLongOrNull()
+        }
+
+        val JSON_OBJECT: Codec<JSONObject> = object : Codec<JSONObject> {
+            override fun encode(value: JSONObject) = value.toString().toByteArray(Charsets.UTF_8)
+            override fun decode(bytes: ByteArray) = runCatching { JSONObject(String(bytes, Charsets.UTF_8)) }.getOrNull()
+            override fun copy(value: JSONObject) = deepCopy(value) as JSONObject
+        }
+
+        val JSON_ARRAY: Codec<JSONArray> = object : Codec<JSONArray> {
+            override fun encode(value: JSONArray) = value.toString().toByteArray(Charsets.UTF_8)
+            override fun decode(bytes: ByteArray) = runCatching { JSONArray(String(bytes, Charsets.UTF_8)) }.getOrNull()
+            override fun copy(value: JSONArray) = deepCopy(value) as JSONArray
+        }
+
+        // cheaper than re-parsing the encoded bytes
+        private fun deepCopy(v: Any?): Any? = when (v) {
+            is JSONObject -> JSONObject().also { o -> for (k in v.keys()) o.put(k, deepCopy(v.opt(k))) }
+            is JSONArray -> JSONArray().also { a -> for (i in 0 until v.length()) a.put(deepCopy(v.opt(i))) }
+            else -> v
+        }
+    }
+
+    /**
+     * [value] is the decoded form produced by [codec] (null when only the bytes are known).
+     * A [tombstone] sits in `pending` while a removed key's file is still on disk.
+     */
+    private class Entry(
+        val bytes: ByteArray,
+        val expiresAt: Long,
+        val codec: Codec<*>?,
+        val value: Any?,
+        val tombstone: Boolean = false
+    ) {
+        fun expired(now: Long) = expiresAt in 1..now
+    }
+
+    // sized by encoded bytes (+ key chars); decoded copies are not counted separately
+    private val memory = object : LruCache<String, Entry>(MEMORY_BYTES) {
+        override fun sizeOf(key: String, value: Entry): Int = value.bytes.size + key.length * 2
+    }
+
+    // written to memory but not yet to disk; keeps reads correct if the LRU drops them early.
+    // memory + pending are changed together under the memory lock (see Namespace.loadDisk)
+    private val pending = ConcurrentHashMap<String, Entry>()
+
+    private val io = Executors.newSingleThreadExecutor { r -> Thread(r, "tiered-cache-io").apply { isDaemon = true } }
+
+    private val namespaces = ConcurrentHashMap<String, Namespace>()
+
+    init {
+        // disk tier is untouched; only the decoded copies in memory are given back
+        MemoryGovernor.register("tiered_cache.memory", MemoryGovernor.Priority.NORMAL, object : MemoryGovernor.Trimmable {
+            override fun memoryBytes(): Long = memory.size().toLong()
+            override fun trimTo(keepFraction: Float) = trimMemory(keepFraction)
+        })
+    }
+
+    // computeIfAbsent: exactly one Namespace (and one warm-up) per name
+    fun namespace(c: Context, name: String, maxDiskBytes: Long = DEFAULT_DISK_BYTES): Namespace =
+        namespaces.computeIfAbsent(name) {
+            Namespace(name, File(c.applicationContext.filesDir, "$DIR/$name"), maxDiskBytes)
+        }
+
+    /** Bytes currently held by the memory tier (all namespaces). */
+    fun memoryBytes(): Int = memory.size()
+
+    /** Shrink the memory tier to [keepFraction] of its current size (0 = empty); disk entries stay. */
+    fun trimMemory(keepFraction: Float) {
+        if (keepFraction <= 0f) memory.evictAll()
+        else memory.trimToSize((memory.size() * keepFraction).toInt())
+    }
+
+    class Namespace internal constructor(
+        private val name: String,
+        private val dir: File,
+        private val maxDiskBytes: Long
+    ) {
+        private val diskBytes = AtomicLong(-1L) // -1 = not scanned yet (first io task does it)
+        // bumped by every put/remove; a disk read is only installed if this didn't move meanwhile
+        private val writes = AtomicLong()
+        // clear() calls whose file deletion hasn't run yet; disk reads are skipped meanwhile
+        private val clearing = AtomicLong()
+
+        init {
+            io.execute { warm() }
+        }
+
+        fun <T> get(key: String, codec: Codec<T>): T? {
+            val mk = memKey(key)
+            val e = memory.get(mk) ?: pending[mk] ?: loadDisk(key, mk) ?: return null
+            if (e.tombstone) return null
+            if (e.expired(System.currentTimeMillis())) {
+                remove(key)
+                return null
+            }
+            @Suppress("UNCHECKED_CAST")
+            if (e.codec === codec) return (e.value as T?)?.let { codec.copy(it) }
+            val v = runCatching { codec.decode(e.bytes) }.getOrNull() ?: return null
+            // only upgrade the entry we decoded, never one a concurrent put just installed
+            synchronized(memory) {
+                if (memory.get(mk) === e) memory.put(mk, Entry(e.bytes, e.expiresAt, codec, v))
+            }
+            return codec.copy(v)
+        }
+
+        /** [ttlMs] <= 0 means no expiry. A null [value] removes the entry. */
+        fun <T> put(key: String, value: T?, codec: Codec<T>, ttlMs: Long = 0L) {
+            if (value == null) {
+                remove(key)
+                return
+            }
+            val expiresAt = if (ttlMs > 0L) System.currentTimeMillis() + ttlMs else 0L
+            install(key, Entry(codec.encode(value), expiresAt, codec, codec.copy(value)), -1L)
+        }
+
+        /**
+         * Like [put] (no expiry), but leaves an existing entry alone, also one written while this
+         * checks. For one-off imports (LocalCache's legacy migration) that run after the app is up.
+         */
+        fun <T> putIfAbsent(key: String, value: T, codec: Codec<T>): Boolean {
+            val mk = memKey(key)
+            val e = Entry(codec.encode(value), 0L, codec, codec.copy(value))
+            // writes counts the whole namespace, so another key's put just means: look again
+            while (true) {
+                val seen = writes.get()
+                val cur = memory.get(mk) ?: pending[mk] ?: loadDisk(key, mk)
+                if (cur != null) return false // a pending remove is newer too
+                if (install(key, e, seen)) return true
+            }
+        }
+
+        // expectWrites >= 0: only if no put/remove happened since that count was read
+        private fun install(key: String, e: Entry, expectWrites: Long): Boolean {
+            val mk = memKey(key)
+            synchronized(memory) {
+                if (expectWrites >= 0L && writes.get() != expectWrites) return false
+                writes.incrementAndGet()
+                memory.put(mk, e)
+                pending[mk] = e
+            }
+            io.execute {
+                writeDisk(key, e)
+                pending.remove(mk, e)
+            }
+            return true
+        }
+
+        fun remove(key: String) {
+            val mk = memKey(key)
+            val t = Entry(EMPTY, 0L, null, null, tombstone = true) // own instance: a later remove keeps its own
+            synchronized(memory) {
+                writes.incrementAndGet()
+                memory.remove(mk)
+                pending[mk] = t
+            }
+            io.execute {
+                deleteFile(fileFor(key))
+                pending.remove(mk, t)
+            }
+        }
+
+        /** Drop every entry of this namespace, in memory and on disk (e.g. per-user data on logout). */
+        fun clear() {
+            val prefix = "$name/"
+            synchronized(memory) {
+                writes.incrementAndGet()
+                clearing.incrementAndGet()
+                for (k in memory.snapshot().keys) if (k.startsWith(prefix)) memory.remove(k)
+                pending.keys.removeAll { it.startsWith(prefix) }
+            }
+            io.execute {
+                dir.listFiles()?.forEach { it.delete() }
+                diskBytes.set(0L)
+                clearing.decrementAndGet()
+            }
+        }
+
+        /** Bytes this namespace holds on disk (-1 until the first write/scan). */
+        fun diskBytes(): Long = diskBytes.get()
+
+        /** Block until queued writes are on disk (migration uses this before dropping its source). */
+        fun flush() {
+            runCatching { io.submit {}.get(10, TimeUnit.SECONDS) }
+        }
+
+        private fun memKey(key: String) = "$name/$key"
+
+        private fun fileFor(key: String) = File(dir, sha1(key))
+
+        /**
+         * Disk read for a memory miss. The file is read outside the lock; if a put/remove for this
+         * namespace landed meanwhile the read may be stale, so it is retried instead of installed.
+         */
+        private fun loadDisk(key: String, mk: String): Entry? {
+            if (clearing.get() > 0L) return null
+            repeat(2) {
+                val seen = writes.get()
+                val d = readFile(fileFor(key))?.second
+                synchronized(memory) {
+                    (memory.get(mk) ?: pending[mk])?.let { return it }
+                    if (writes.get() == seen && clearing.get() == 0L) {
+                        if (d != null) memory.put(mk, d)
+                        return d
+                    }
+                }
+            }
+            return null // still churning: a miss is safe
+        }
+
+        // io thread only: newest files first, until this namespace's share of memory is used
+        private fun warm() {
+            ensureScanned()
+            val files = dir.listFiles { f -> !f.name.endsWith(".tmp") }
+                ?.sortedByDescending { it.lastModified() } ?: return
+            val now = System.currentTimeMillis()
+            var budget = WARM_BYTES
+            for (f in files) {
+                if (budget <= 0 || memory.size() >= MEMORY_BYTES / 2) break
+                val seen = writes.get()
+                val (key, e) = readFile(f) ?: continue
+                if (key == null || e.expired(now)) continue // TCH1 files have no key; read on demand
+                val mk = memKey(key)
+                synchronized(memory) {
+                    if (writes.get() == seen && memory.get(mk) == null && pending[mk] == null) {
+                        memory.put(mk, e)
+                        budget -= e.bytes.size
+                    }
+                }
+            }
+        }
+
+        /** (key or null for TCH1, entry) or null when missing / unreadable. */
+        private fun readFile(f: File): Pair<String?, Entry>? {
+            if (!f.exists()) return null
+            return try {
+                DataInputStream(FileInputStream(f).buffered()).use { inp ->
+                    val key = when (inp.readInt()) {
+                        MAGIC -> inp.readUTF()
+                        MAGIC_V1 -> null
+                        else -> return null
+                    }
+                    val expiresAt = inp.readLong()
+                    val bytes = ByteArray(inp.readInt())
+                    inp.readFully(bytes)
+                    key to Entry(bytes, expiresAt, null, null)
+                }
+            } catch (t: Throwable) {
+                Log.w(TAG, "unreadable entry in $name", t)
+                null
+            }
+        }
+
+        // io thread only
+        private fun writeDisk(key: String, e: Entry) {
+            ensureScanned()
+            val f = fileFor(key)
+            val tmp = File(dir, f.name + ".tmp")
+            try {
+                DataOutputStream(FileOutputStream(tmp).buffered()).use { out ->
+                    out.writeInt(MAGIC)
+                    out.writeUTF(key)
+                    out.writeLong(e.expiresAt)
+                    out.writeInt(e.bytes.size)
+                    out.write(e.bytes)
+                }
+                val old = if (f.exists()) f.length() else 0L
+                if (!tmp.renameTo(f)) {
+                    tmp.delete()
+                    return
+                }
+                diskBytes.addAndGet(f.length() - old)
+                if (diskBytes.get() > maxDiskBytes) trimDisk()
+            } catch (t: Throwable) {
+                Log.w(TAG, "write failed in $name", t)
+                tmp.delete()
+            }
+        }
+
+        // io thread only
+        private fun deleteFile(f: File) {
+            ensureScanned()
+            if (!f.exists()) return
+            val len = f.length()
+            if (f.delete()) diskBytes.addAndGet(-len)
+        }
+
+        private fun ensureScanned() {
+            if (diskBytes.get() >= 0L) return
+            dir.mkdirs()
+            diskBytes.set(dir.listFiles()?.sumOf { it.length() } ?: 0L)
+        }
+
+        // oldest-written first, down to 90% of the budget
+        private fun trimDisk() {
+            val files = dir.listFiles()?.sortedBy { it.lastModified() } ?: return
+            val target = maxDiskBytes * 9 / 10
+            for (f in files) {
+                if (diskBytes.get() <= target) break
+                val len = f.length()
+                if (f.delete()) diskBytes.addAndGet(-len)
+            }
+        }
+    }
+
+    private val EMPTY = ByteArray(0)
+
+    private fun sha1(s: String): String {
+        val d = MessageDigest.getInstance("SHA-1").digest(s.toByteArray(Charsets.UTF_8))
+        val sb = StringBuilder(d.size * 2)
+        for (b in d) sb.append(String.format("%02x", b))
+        return sb.toString()
+    }
+}
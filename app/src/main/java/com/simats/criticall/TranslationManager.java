@@ -1,7 +1,6 @@
 package com.simats.criticall;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.text.TextUtils;
 import android.view.View;
 
@@ -11,7 +10,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
 /**
  * Minimal language preference manager.
  *
- * ✅ Stores patient language in SharedPreferences (UserPrefs/patient_lang)
+ * ✅ Stores patient language in PrefStore (ui/patient_lang, preloaded at startup)
  * ✅ Notifies listeners when language changes
  * ✅ Keeps old TranslationManager APIs so older code compiles
  *
@@ -33,7 +32,8 @@ public final class TranslationManager {
             LANG_EN, LANG_HI, LANG_TA, LANG_TE, LANG_KN, LANG_ML
     };
 
-    private static final String PREFS = "UserPrefs";
+    // PrefStore namespace (was SharedPreferences "UserPrefs")
+    private static final String PREFS = PrefStore.NS_UI;
     private static final String PREF_KEY_LANG = "patient_lang";
 
     // -------------------------
@@ -49,8 +49,7 @@ public final class TranslationManager {
         if (!TextUtils.isEmpty(appLang)) return sanitizeLang(appLang);
 
         // Fallback to legacy patient_lang in UserPrefs
-        SharedPreferences prefs = ctx.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
-        String lang = prefs.getString(PREF_KEY_LANG, LANG_EN);
+        String lang = PrefStore.ns(ctx, PREFS).getString(PREF_KEY_LANG, LANG_EN);
         return sanitizeLang(lang);
     }
 
@@ -63,8 +62,7 @@ public final class TranslationManager {
     public static void setLang(Context ctx, String lang) {
         if (ctx == null) return;
         String safe = sanitizeLang(lang);
-        SharedPreferences prefs = ctx.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
-        prefs.edit().putString(PREF_KEY_LANG, safe).apply();
+        PrefStore.ns(ctx, PREFS).edit().putString(PREF_KEY_LANG, safe).apply();
         try { AppPrefs.INSTANCE.setLang(ctx, safe); } catch (Throwable ignored) {}
         notifyLangChanged(safe);
     }
@@ -0,0 +1,188 @@
+package com.simats.criticall;
+
+import androidx.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * trend-v2 ({@link TrendEngine}) over a whole panel at once: thousands of patient × parameter series
+ * in flat primitive arrays, fitted in parallel on a fork-join pool.
+ *
+ * Layout: series {@code s} owns rows {@code [seriesOffsets[s], seriesOffsets[s + 1])} of
+ * {@code timestampsMs} / {@code values}; rows inside a series need not be sorted.
+ * Results come back as parallel arrays indexed by series; {@link Result#prediction} builds the
+ * usual {@link TrendPredictor.Prediction} for one series when a caller needs it.
+ */
+public final class TrendBatch {
+    public static final String MODEL_VERSION = TrendEngine.MODEL_VERSION;
+
+    private static final double MS_PER_HOUR = 3600000d;
+    // series per leaf task; a series is usually a handful of rows, so leaves must be wide
+    private static final int LEAF_SERIES = 256;
+
+    private TrendBatch() {}
+
+    /** Columnar input. {@code patientIds}/{@code parameters} are labels per series (may be null). */
+    public static final class Columns {
+        public final long[] timestampsMs;
+        public final float[] values;
+        public final int[] seriesOffsets;
+        @Nullable public final String[] patientIds;
+        @Nullable public final String[] parameters;
+
+        public Columns(long[] timestampsMs, float[] values, int[] seriesOffsets,
+                       @Nullable String[] patientIds, @Nullable String[] parameters) {
+            if (timestampsMs.length != values.length) {
+                throw new IllegalArgumentException("timestamps and values differ in length");
+            }
+            if (seriesOffsets.length == 0 || seriesOffsets[seriesOffsets.length - 1] > values.length) {
+                throw new IllegalArgumentException("seriesOffsets must end within the rows");
+            }
+            for (int i = 0; i < seriesOffsets.length; i++) {
+                if (seriesOffsets[i] < 0 || (i > 0 && seriesOffsets[i] < seriesOffsets[i - 1])) {
+                    throw new IllegalArgumentException("seriesOffsets must be non-negative and non-decreasing");
+                }
+            }
+            this.timestampsMs = timestampsMs;
+            this.values = values;
+            this.seriesOffsets = seriesOffsets;
+            this.patientIds = patientIds;
+            this.parameters = parameters;
+        }
+
+        public int seriesCount() {
+            return seriesOffsets.length - 1;
+        }
+    }
+
+    /** One slot per series; {@code count[s] == 0} means the series had no numeric rows. */
+    public static final class Result {
+        public final Columns input;
+        public final float[] predictedValue;
+        public final float[] lastValue;
+        public final float[] confidence;
+        public final float[] slopePerHour;
+        public final int[] count;
+
+        Result(Columns input) {
+            int n = input.seriesCount();
+            this.input = input;
+            this.predictedValue = new float[n];
+            this.lastValue = new float[n];
+            this.confidence = new float[n];
+            this.slopePerHour = new float[n];
+            this.count = new int[n];
+        }
+
+        @Nullable
+        public TrendPredictor.Prediction prediction(int s) {
+            if (count[s] == 0) return null;
+            String param = input.parameters != null ? input.parameters[s] : String.valueOf(s);
+            String suggestion = String.format(Locale.getDefault(), "%.2f", predictedValue[s]);
+            return new TrendPredictor.Prediction(param, suggestion, predictedValue[s], lastValue[s],
+                    confidence[s], slopePerHour[s], true);
+        }
+
+        /** parameter -> prediction for every series of {@code patientId} (needs labels). */
+        public Map<String, TrendPredictor.Prediction> predictionsFor(String patientId) {
+            Map<String, TrendPredictor.Prediction> out = new LinkedHashMap<>();
+            if (input.patientIds == null || input.parameters == null) return out;
+            for (int s = 0; s < count.length; s++) {
+                if (!patientId.equals(input.patientIds[s])) continue;
+                TrendPredictor.Prediction p = prediction(s);
+                if (p != null) out.put(input.parameters[s], p);
+            }
+            return out;
+        }
+    }
+
+    public static Result predict(Columns columns) {
+        return predict(columns, ForkJoinPool.commonPool());
+    }
+
+    public static Result predict(Columns columns, ForkJoinPool pool) {
+        Result r = new Result(columns);
+        int n = columns.seriesCount();
+        if (n <= 0) return r;
+        if (n <= LEAF_SERIES) {
+            fitRange(columns, r, 0, n);
+        } else {
+            pool.invoke(new FitTask(columns, r, 0, n));
+        }
+        return r;
+    }
+
+    private static final class FitTask extends RecursiveAction {
+        private final Columns in;
+        private final Result out;
+        private final int from, to;
+
+        FitTask(Columns in, Result out, int from, int to) {
+            this.in = in;
+            this.out = out;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= LEAF_SERIES) {
+                fitRange(in, out, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new FitTask(in, out, from, mid), new FitTask(in, out, mid, to));
+        }
+    }
+
+    // each series writes only its own slots, so leaves never contend
+    private static void fitRange(Columns in, Result r, int from, int to) {
+        final long[] ts = in.timestampsMs;
+        final float[] vs = in.values;
+        final float[] fit = new float[3];
+        for (int s = from; s < to; s++) {
+            int a = in.seriesOffsets[s];
+            int b = in.seriesOffsets[s + 1];
+            long n = 0;
+            long origin = a < b ? ts[a] : 0L;
+            long lastMs = Long.MIN_VALUE;
+            float last = Float.NaN;
+            double sumT = 0, sumV = 0, sumTT = 0, sumTV = 0, mean = 0, m2 = 0;
+
+            for (int i = a; i < b; i++) {
+                float v = vs[i];
+                if (Float.isNaN(v)) continue;
+                long t0 = ts[i];
+                if (t0 >= lastMs) {
+                    lastMs = t0;
+                    last = v;
+                }
+                double t = (t0 - origin) / MS_PER_HOUR;
+                n++;
+                sumT += t;
+                sumV += v;
+                sumTT += t * t;
+                sumTV += t * v;
+                double delta = v - mean;
+                mean += delta / n;
+                m2 += delta * (v - mean);
+            }
+
+            r.count[s] = (int) n;
+            if (n == 0) {
+                r.predictedValue[s] = Float.NaN;
+                r.lastValue[s] = Float.NaN;
+                continue;
+            }
+            TrendEngine.fit(n, sumT, sumV, sumTT, sumTV, mean, m2, (lastMs - origin) / MS_PER_HOUR, last, fit);
+            r.predictedValue[s] = fit[0];
+            r.lastValue[s] = last;
+            r.confidence[s] = fit[1];
+            r.slopePerHour[s] = fit[2];
+        }
+    }
+}
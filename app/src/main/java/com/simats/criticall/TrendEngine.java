@@ -0,0 +1,185 @@
+package com.simats.criticall;
+
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * trend-v2: least-squares trend per parameter, updated incrementally.
+ *
+ * Each parameter keeps running sums (n, Σt, Σv, Σt², Σtv) plus a Welford mean/variance of the values,
+ * so adding one lab result is O(1) per parameter and a prediction never re-sorts or re-parses history.
+ * Slope/intercept come from the regression line (not just first vs last point) and confidence is
+ * penalised by the residual spread around that line.
+ *
+ * Output is the same {@link TrendPredictor.Prediction} as trend-v1; {@link TrendPredictor} stays as is.
+ */
+public final class TrendEngine {
+    public static final String MODEL_VERSION = "trend-v2";
+
+    private static final double MS_PER_HOUR = 3600000d;
+
+    @Nullable private final Set<String> parameterNames;
+    private final Map<String, Series> series = new LinkedHashMap<>();
+
+    /** @param parameterNames parameters to track; null tracks everything that is added. */
+    public TrendEngine(@Nullable Set<String> parameterNames) {
+        this.parameterNames = parameterNames;
+    }
+
+    /** Same inputs/outputs as {@link TrendPredictor#buildPredictions}, computed with trend-v2. */
+    public static Map<String, TrendPredictor.Prediction> buildPredictions(List<TrendPredictor.HistoryEntry> history,
+                                                                         Set<String> parameterNames) {
+        if (history == null || history.isEmpty() || parameterNames == null || parameterNames.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        TrendEngine engine = new TrendEngine(parameterNames);
+        for (TrendPredictor.HistoryEntry entry : history) {
+            if (entry != null) engine.add(entry.timestampMs, entry.results);
+        }
+        Map<String, TrendPredictor.Prediction> out = new LinkedHashMap<>();
+        for (String param : parameterNames) {
+            TrendPredictor.Prediction p = engine.predict(param);
+            if (p != null) out.put(param, p);
+        }
+        return out;
+    }
+
+    /** One lab result (parameter -> raw value). Order of calls does not matter. */
+    public void add(long timestampMs, @Nullable Map<String, String> results) {
+        if (results == null) return;
+        for (Map.Entry<String, String> r : results.entrySet()) add(r.getKey(), timestampMs, r.getValue());
+    }
+
+    public void add(@Nullable String parameter, long timestampMs, @Nullable String rawValue) {
+        if (parameter == null || rawValue == null) return;
+        if (parameterNames != null && !parameterNames.contains(parameter)) return;
+        String trimmed = rawValue.trim();
+        if (trimmed.isEmpty()) return;
+
+        Series s = series.get(parameter);
+        if (s == null) {
+            s = new Series(timestampMs);
+            series.put(parameter, s);
+        }
+        s.add(timestampMs, trimmed);
+    }
+
+    /** Null when nothing was ever recorded for {@code parameter}. */
+    @Nullable
+    public TrendPredictor.Prediction predict(String parameter) {
+        Series s = series.get(parameter);
+        return s != null ? s.predict(parameter) : null;
+    }
+
+    /** Predictions for every tracked parameter seen so far. */
+    public Map<String, TrendPredictor.Prediction> predictions() {
+        Map<String, TrendPredictor.Prediction> out = new LinkedHashMap<>();
+        for (Map.Entry<String, Series> e : series.entrySet()) {
+            TrendPredictor.Prediction p = e.getValue().predict(e.getKey());
+            if (p != null) out.put(e.getKey(), p);
+        }
+        return out;
+    }
+
+    public void clear() {
+        series.clear();
+    }
+
+    private static final class Series {
+        // times are hours since the first point seen, which keeps Σt² well inside double precision
+        final long originMs;
+
+        long n;
+        double sumT, sumV, sumTT, sumTV;
+        // Welford over values
+        double mean, m2;
+
+        // latest by timestamp (ties: last added)
+        long lastRawMs = Long.MIN_VALUE;
+        String lastRaw;
+        long lastNumericMs = Long.MIN_VALUE;
+        float lastValue = Float.NaN;
+
+        Series(long originMs) {
+            this.originMs = originMs;
+        }
+
+        void add(long timestampMs, String raw) {
+            if (timestampMs >= lastRawMs) {
+                lastRawMs = timestampMs;
+                lastRaw = raw;
+            }
+            float v = parseFloatSafe(raw);
+            if (Float.isNaN(v)) return;
+
+            if (timestampMs >= lastNumericMs) {
+                lastNumericMs = timestampMs;
+                lastValue = v;
+            }
+
+            double t = (timestampMs - originMs) / MS_PER_HOUR;
+            n++;
+            sumT += t;
+            sumV += v;
+            sumTT += t * t;
+            sumTV += t * v;
+
+            double delta = v - mean;
+            mean += delta / n;
+            m2 += delta * (v - mean);
+        }
+
+        TrendPredictor.Prediction predict(String parameter) {
+            if (n == 0) {
+                // only non-numeric results (same fallback as trend-v1)
+                if (lastRaw == null) return null;
+                return new TrendPredictor.Prediction(parameter, lastRaw, Float.NaN, Float.NaN, 0.25f, 0f, false);
+            }
+
+            float[] out = new float[3];
+            fit(n, sumT, sumV, sumTT, sumTV, mean, m2, (lastNumericMs - originMs) / MS_PER_HOUR, lastValue, out);
+            String suggestion = String.format(Locale.getDefault(), "%.2f", out[0]);
+            return new TrendPredictor.Prediction(parameter, suggestion, out[0], lastValue, out[1], out[2], true);
+        }
+    }
+
+    /**
+     * Least-squares fit from running sums (times in hours); shared with {@link TrendBatch}.
+     * Writes predicted value, confidence and slope per hour to {@code out[0..2]}.
+     */
+    static void fit(long n, double sumT, double sumV, double sumTT, double sumTV,
+                    double mean, double m2, double tLast, float lastValue, float[] out) {
+        double sxx = sumTT - sumT * sumT / n;
+        double sxy = sumTV - sumT * sumV / n;
+        double slope = sxx > 1e-9 ? sxy / sxx : 0d;
+        double intercept = (sumV - slope * sumT) / n;
+
+        // one hour past the latest reading, on the fitted line
+        out[0] = (float) (n >= 2 ? intercept + slope * (tLast + 1d) : lastValue);
+
+        // residual variance = (Syy - slope * Sxy) / n, Syy from Welford
+        double residualVar = n >= 2 ? Math.max(0d, (m2 - slope * sxy) / n) : 0d;
+        float normalized = (float) (residualVar / (Math.abs(mean) + 1d));
+        float base = 0.35f + Math.min(0.45f, (n - 1) * 0.05f);
+        out[1] = clamp(base - normalized * 0.5f, 0.1f, 0.95f);
+        out[2] = (float) slope;
+    }
+
+    private static float parseFloatSafe(String value) {
+        try {
+            return Float.parseFloat(value);
+        } catch (Exception e) {
+            return Float.NaN;
+        }
+    }
+
+    private static float clamp(float val, float min, float max) {
+        return Math.max(min, Math.min(max, val));
+    }
+}
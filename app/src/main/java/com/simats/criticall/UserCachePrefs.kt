@@ -2,8 +2,8 @@ package com.simats.criticall
 
 import android.content.Context
 
+// facade over PrefStore (was SharedPreferences "criticall_user_cache")
 object UserCachePrefs {
-    private const val PREF = "criticall_user_cache"
 
     private const val K_ID = "id"
     private const val K_FULL_NAME = "full_name"
@@ -12,7 +12,7 @@ object UserCachePrefs {
     private const val K_PHONE = "phone"
 
     fun save(context: Context, profile: UserProfile) {
-        val sp = context.getSharedPreferences(PREF, Context.MODE_PRIVATE)
+        val sp = PrefStore.ns(context, PrefStore.NS_USER_CACHE)
         sp.edit().apply {
             putLong(K_ID, profile.id ?: -1L)
             putString(K_FULL_NAME, profile.fullName ?: "")
@@ -23,7 +23,7 @@ object UserCachePrefs {
     }
 
     fun get(context: Context): UserProfile {
-        val sp = context.getSharedPreferences(PREF, Context.MODE_PRIVATE)
+        val sp = PrefStore.ns(context, PrefStore.NS_USER_CACHE)
         val idRaw = sp.getLong(K_ID, -1L)
         return UserProfile(
             id = if (idRaw > 0) idRaw else null,
@@ -35,6 +35,6 @@ object UserCachePrefs {
     }
 
     fun clear(context: Context) {
-        context.getSharedPreferences(PREF, Context.MODE_PRIVATE).edit().clear().apply()
+        PrefStore.ns(context, PrefStore.NS_USER_CACHE).edit().clear().apply()
     }
 }
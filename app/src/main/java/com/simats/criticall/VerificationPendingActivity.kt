@@ -48,6 +48,7 @@ class VerificationPendingActivity : BaseActivity() {
 
     private fun logoutAndExit() {
         runCatching { AppPrefs.setToken(this, "") }
+        runCatching { SessionReset.onLogout(this) }
         runCatching { AppPrefs.setProfileCompleted(this, false) }
         runCatching { AppPrefs.setAdminVerificationStatus(this, "") }
         runCatching { AppPrefs.setAdminVerificationReason(this, null) }
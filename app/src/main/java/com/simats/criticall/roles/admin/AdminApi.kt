@@ -3,9 +3,10 @@ package com.simats.criticall.roles.admin
 import android.content.Context
 import com.simats.criticall.ApiConfig.BASE_URL
 import com.simats.criticall.AppPrefs
+import com.simats.criticall.HttpTransport
+import okhttp3.Request
+import okhttp3.RequestBody.Companion.toRequestBody
 import org.json.JSONObject
-import java.net.HttpURLConnection
-import java.net.URL
 
 data class ApiRes(
     val ok: Boolean,
@@ -17,14 +18,16 @@ data class ApiRes(
 
 object AdminApi {
 
+    private const val TIMEOUT_MS = 12000
+
     private fun buildUrl(path: String): String {
         return if (BASE_URL.endsWith("/")) BASE_URL + path else "$BASE_URL/$path"
     }
 
-    private fun attachAuth(ctx: Context, conn: HttpURLConnection) {
+    private fun attachAuth(ctx: Context, rb: Request.Builder) {
         val token = AppPrefs.getToken(ctx).orEmpty()
         if (token.isNotBlank()) {
-            conn.setRequestProperty("Authorization", "Bearer $token")
+            rb.header("Authorization", "Bearer $token")
         }
     }
 
@@ -32,19 +35,10 @@ object AdminApi {
         val fullUrl = buildUrl(path)
 
         return try {
-            val conn = (URL(fullUrl).openConnection() as HttpURLConnection).apply {
-                requestMethod = "GET"
-                connectTimeout = 12000
-                readTimeout = 12000
-                setRequestProperty("Accept", "application/json")
-                attachAuth(ctx, this)
-            }
-
-            val code = conn.responseCode
-            val body = runCatching {
-                val stream = if (code in 200..299) conn.inputStream else conn.errorStream
-                stream?.bufferedReader()?.readText().orEmpty()
-            }.getOrDefault("")
+            val rb = HttpTransport.jsonRequest(fullUrl).get()
+            attachAuth(ctx, rb)
+
+            val (code, body) = HttpTransport.fetchText(rb.build(), TIMEOUT_MS)
 
             val j = runCatching { if (body.isNotBlank()) JSONObject(body) else null }.getOrNull()
             val ok = (code in 200..299) && (j?.optBoolean("ok", false) == true)
@@ -63,30 +57,11 @@ object AdminApi {
         val fullUrl = buildUrl(path)
 
         return try {
-            val conn = (URL(fullUrl).openConnection() as HttpURLConnection).apply {
-                requestMethod = "POST"
-                connectTimeout = 12000
-                readTimeout = 12000
-                doOutput = true
-
-                setRequestProperty("Accept", "application/json")
-                setRequestProperty("Content-Type", "application/json; charset=utf-8")
-                attachAuth(ctx, this)
-            }
-
-            runCatching {
-                conn.outputStream.use { os ->
-                    val bytes = bodyJson.toString().toByteArray(Charsets.UTF_8)
-                    os.write(bytes)
-                    os.flush()
-                }
-            }
-
-            val code = conn.responseCode
-            val body = runCatching {
-                val stream = if (code in 200..299) conn.inputStream else conn.errorStream
-                stream?.bufferedReader()?.readText().orEmpty()
-            }.getOrDefault("")
+            val rb = HttpTransport.jsonRequest(fullUrl)
+                .post(bodyJson.toString().toRequestBody(HttpTransport.JSON_MEDIA))
+            attachAuth(ctx, rb)
+
+            val (code, body) = HttpTransport.fetchText(rb.build(), TIMEOUT_MS)
 
             val j = runCatching { if (body.isNotBlank()) JSONObject(body) else null }.getOrNull()
             val ok = (code in 200..299) && (j?.optBoolean("ok", false) == true)
@@ -3,9 +3,13 @@ package com.simats.criticall.roles.admin
 import android.content.Context
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.MutableLiveData
+import com.simats.criticall.AppPrefs
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.withContext
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
 import org.json.JSONObject
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
 
 data class AdminStats(
     val pending: Int,
@@ -14,9 +18,24 @@ data class AdminStats(
     val total: Int
 )
 
+/**
+ * A toast-style message carried in sticky LiveData state: [consume] hands it out once, so a re-observe
+ * (rotation, coming back to the screen) gets the same state without showing it again.
+ */
+class OneShotMessage(private val text: String) {
+    private val taken = AtomicBoolean(false)
+
+    fun consume(): String? = if (taken.compareAndSet(false, true)) text else null
+}
+
 sealed class AdminDashboardState {
     object Loading : AdminDashboardState()
-    data class Ready(val stats: AdminStats, val recent: List<AdminUserRow>) : AdminDashboardState()
+    /** [staleMessage] is set when this is a kept snapshot and the refresh behind it failed. */
+    data class Ready(
+        val stats: AdminStats,
+        val recent: List<AdminUserRow>,
+        val staleMessage: OneShotMessage? = null
+    ) : AdminDashboardState()
     data class Error(val message: String) : AdminDashboardState()
 }
 
@@ -25,15 +44,38 @@ object AdminDashboardStore {
     private val _state = MutableLiveData<AdminDashboardState>()
     val state: LiveData<AdminDashboardState> = _state
 
-    suspend fun refresh(ctx: Context, roleParam: String) {
-        _state.postValue(AdminDashboardState.Loading)
+    // last good result per role chip; re-entering admin home renders it instantly
+    private const val SNAPSHOT_TTL_MS = 30_000L
+
+    private class Snapshot(val owner: String, val ready: AdminDashboardState.Ready, val at: Long)
+
+    private val snapshots = ConcurrentHashMap<String, Snapshot>()
+
+    /** Drop cached snapshots (after approve/reject). */
+    fun invalidate() = snapshots.clear()
 
-        val statsRes = withContext(Dispatchers.IO) {
-            AdminApi.get(ctx, "admin/stats.php?role=$roleParam")
+    /**
+     * Shows the cached snapshot right away if there is one. Within [SNAPSHOT_TTL_MS] that's all
+     * (unless [force]); otherwise stats + under-review list are fetched concurrently.
+     */
+    suspend fun refresh(ctx: Context, roleParam: String, force: Boolean = false) {
+        val owner = AppPrefs.getToken(ctx).orEmpty().hashCode().toString()
+        val snap = snapshots[roleParam]?.takeIf { it.owner == owner }
+        if (snap != null) {
+            _state.postValue(snap.ready)
+            if (!force && System.currentTimeMillis() - snap.at < SNAPSHOT_TTL_MS) return
+        } else {
+            _state.postValue(AdminDashboardState.Loading)
         }
 
-        val usersRes = withContext(Dispatchers.IO) {
-            AdminApi.get(ctx, "admin/users.php?filter=under_review&role=$roleParam&limit=10")
+        val (statsRes, usersRes) = coroutineScope {
+            val stats = async(Dispatchers.IO) {
+                AdminApi.get(ctx, "admin/stats.php?role=$roleParam")
+            }
+            val users = async(Dispatchers.IO) {
+                AdminApi.get(ctx, "admin/users.php?filter=under_review&role=$roleParam&limit=10")
+            }
+            stats.await() to users.await()
         }
 
         val statsJson = statsRes.json
@@ -47,14 +89,17 @@ object AdminDashboardStore {
                 statsJson?.optString("error")
                     ?: usersJson?.optString("error")
                     ?: "Couldn’t load data"
-            _state.postValue(AdminDashboardState.Error(msg))
+            // a snapshot is already on screen: keep it, just say the refresh failed
+            _state.postValue(if (snap != null) snap.ready.copy(staleMessage = OneShotMessage(msg)) else AdminDashboardState.Error(msg))
             return
         }
 
         val stats = parseStats(statsJson)
         val recent = parseUsers(usersJson)
 
-        _state.postValue(AdminDashboardState.Ready(stats, recent))
+        val ready = AdminDashboardState.Ready(stats, recent)
+        snapshots[roleParam] = Snapshot(owner, ready, System.currentTimeMillis())
+        _state.postValue(ready)
     }
 
     private fun parseStats(j: JSONObject?): AdminStats {
@@ -8,6 +8,7 @@ import android.view.View
 import android.view.ViewGroup
 import android.widget.ProgressBar
 import android.widget.TextView
+import android.widget.Toast
 import androidx.activity.result.contract.ActivityResultContracts
 import androidx.fragment.app.Fragment
 import androidx.lifecycle.lifecycleScope
@@ -105,7 +106,7 @@ class AdminHomeFragment : Fragment() {
                 if (!fromPull) pb.visibility = View.VISIBLE
                 hideEmpty()
                 try {
-                    AdminDashboardStore.refresh(requireContext(), roleParam())
+                    AdminDashboardStore.refresh(requireContext(), roleParam(), force = fromPull)
                 } finally {
                     pb.visibility = View.GONE
                     swipe.isRefreshing = false
@@ -160,6 +161,7 @@ class AdminHomeFragment : Fragment() {
                     }
 
                     adapter.submit(underReview)
+                    st.staleMessage?.consume()?.let { Toast.makeText(requireContext(), it, Toast.LENGTH_SHORT).show() }
 
                     if (underReview.isEmpty()) {
                         showEmpty(
@@ -18,6 +18,7 @@ import com.simats.criticall.HelpSupportActivity
 import com.simats.criticall.LanguageChangeActivity
 import com.simats.criticall.R
 import com.simats.criticall.RoleSelectActivity
+import com.simats.criticall.SessionReset
 import org.json.JSONObject
 
 class AdminProfileFragment : Fragment() {
@@ -179,6 +180,7 @@ class AdminProfileFragment : Fragment() {
             .setNegativeButton(getString(R.string.cancel), null)
             .setPositiveButton(getString(R.string.logout)) { _, _ ->
                 AppPrefs.setToken(requireContext(), "")
+                SessionReset.onLogout(requireContext())
                 startActivity(Intent(requireContext(), RoleSelectActivity::class.java).apply {
                     flags = Intent.FLAG_ACTIVITY_NEW_TASK or Intent.FLAG_ACTIVITY_CLEAR_TASK
                 })
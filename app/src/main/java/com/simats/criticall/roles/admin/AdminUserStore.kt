@@ -27,8 +27,9 @@ object AdminUserStore {
     private val _state = MutableLiveData<AdminMeState>()
     val state: LiveData<AdminMeState> = _state
 
-    // cache
+    // cache (+ which token it was decoded from)
     private var cached: AdminMe? = null
+    private var cachedToken: String? = null
     fun getCached(): AdminMe? = cached
 
     /**
@@ -37,9 +38,16 @@ object AdminUserStore {
      * This avoids EOF/timeout problems and avoids touching PHP.
      */
     suspend fun refresh(ctx: Context) {
-        _state.postValue(AdminMeState.Loading)
-
         val token = AppPrefs.getToken(ctx).orEmpty()
+
+        // same token -> same claims; render the cached profile without a Loading flash
+        val hit = cached
+        if (hit != null && token.isNotBlank() && token == cachedToken) {
+            _state.postValue(AdminMeState.Ready(hit))
+            return
+        }
+
+        _state.postValue(AdminMeState.Loading)
         if (token.isBlank()) {
             cached = null
             _state.postValue(AdminMeState.Empty("You are signed out. Please login again."))
@@ -90,11 +98,13 @@ object AdminUserStore {
         )
 
         cached = me
+        cachedToken = token
         _state.postValue(AdminMeState.Ready(me))
     }
 
     fun clear() {
         cached = null
+        cachedToken = null
         _state.postValue(AdminMeState.Empty("Profile cleared."))
     }
 
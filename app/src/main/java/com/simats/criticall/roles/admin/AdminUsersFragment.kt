@@ -7,6 +7,7 @@ import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
 import android.widget.TextView
+import android.widget.Toast
 import androidx.activity.result.contract.ActivityResultContracts
 import androidx.fragment.app.Fragment
 import androidx.fragment.app.FragmentManager
@@ -123,6 +124,7 @@ class AdminUsersFragment : Fragment() {
                         getString(R.string.users_count, size)
 
                     adapter.submit(st.users)
+                    st.staleMessage?.consume()?.let { Toast.makeText(requireContext(), it, Toast.LENGTH_SHORT).show() }
 
                     if (size == 0) {
                         showEmpty(
@@ -176,7 +178,7 @@ class AdminUsersFragment : Fragment() {
         viewLifecycleOwner.lifecycleScope.launch {
             if (!fromPull) tvSubtitle.text = getString(R.string.loading)
             try {
-                AdminUsersStore.load(requireContext(), current)
+                AdminUsersStore.load(requireContext(), current, force = fromPull)
             } finally {
                 swipe?.isRefreshing = false
             }
@@ -3,8 +3,10 @@ package com.simats.criticall.roles.admin
 import android.content.Context
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.MutableLiveData
+import com.simats.criticall.AppPrefs
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
+import java.util.concurrent.ConcurrentHashMap
 
 //  Row model used by AdminUsersFragment + Adapter
 data class AdminUserRow(
@@ -19,7 +21,8 @@ data class AdminUserRow(
 
 sealed class AdminUsersState {
     object Loading : AdminUsersState()
-    data class Ready(val users: List<AdminUserRow>) : AdminUsersState()
+    /** [staleMessage] is set when this is a kept snapshot and the refresh behind it failed. */
+    data class Ready(val users: List<AdminUserRow>, val staleMessage: OneShotMessage? = null) : AdminUsersState()
     data class Error(val message: String) : AdminUsersState()
 }
 
@@ -28,8 +31,25 @@ object AdminUsersStore {
     private val _state = MutableLiveData<AdminUsersState>()
     val state: LiveData<AdminUsersState> = _state
 
-    suspend fun load(ctx: Context, filter: String) {
-        _state.postValue(AdminUsersState.Loading)
+    // last good list per filter chip (same idea as AdminDashboardStore)
+    private const val SNAPSHOT_TTL_MS = 30_000L
+
+    private class Snapshot(val owner: String, val ready: AdminUsersState.Ready, val at: Long)
+
+    private val snapshots = ConcurrentHashMap<String, Snapshot>()
+
+    /** Drop cached snapshots (after approve/reject). */
+    fun invalidate() = snapshots.clear()
+
+    suspend fun load(ctx: Context, filter: String, force: Boolean = false) {
+        val owner = AppPrefs.getToken(ctx).orEmpty().hashCode().toString()
+        val snap = snapshots[filter]?.takeIf { it.owner == owner }
+        if (snap != null) {
+            _state.postValue(snap.ready)
+            if (!force && System.currentTimeMillis() - snap.at < SNAPSHOT_TTL_MS) return
+        } else {
+            _state.postValue(AdminUsersState.Loading)
+        }
 
         val res = withContext(Dispatchers.IO) {
             AdminApi.get(ctx, "admin/users.php?filter=$filter&role=all&limit=500")
@@ -53,12 +73,13 @@ object AdminUsersStore {
                 else -> "Couldn’t load data (${res.code}). $snippet\n${res.url}"
             }
 
-            _state.postValue(AdminUsersState.Error(msg))
+            // a snapshot is already on screen: keep it, just say the refresh failed
+            _state.postValue(if (snap != null) snap.ready.copy(staleMessage = OneShotMessage(msg)) else AdminUsersState.Error(msg))
             return
         }
 
         val arr = j?.optJSONArray("users") ?: run {
-            _state.postValue(AdminUsersState.Ready(emptyList()))
+            publish(owner, filter, AdminUsersState.Ready(emptyList()))
             return
         }
 
@@ -79,6 +100,11 @@ object AdminUsersStore {
             )
         }
 
-        _state.postValue(AdminUsersState.Ready(out))
+        publish(owner, filter, AdminUsersState.Ready(out))
+    }
+
+    private fun publish(owner: String, filter: String, ready: AdminUsersState.Ready) {
+        snapshots[filter] = Snapshot(owner, ready, System.currentTimeMillis())
+        _state.postValue(ready)
     }
 }
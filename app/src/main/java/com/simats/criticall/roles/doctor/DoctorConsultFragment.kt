@@ -19,13 +19,14 @@ import androidx.recyclerview.widget.RecyclerView
 import com.simats.criticall.ApiConfig.BASE_URL
 import com.simats.criticall.AppPrefs
 import com.simats.criticall.ExternalCallLauncher
+import com.simats.criticall.HttpTransport
+import com.simats.criticall.JsonRowStream
 import com.simats.criticall.R
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
-import org.json.JSONArray
 import org.json.JSONObject
 import java.net.HttpURLConnection
 import java.net.URL
@@ -156,37 +157,54 @@ class DoctorConsultFragment : Fragment() {
 
             val url = BASE_URL +
                     "doctor/appointments_list.php?view=$viewParam&limit=300&offset=0&q=" +
-                    java.net.URLEncoder.encode(q, "UTF-8") +
-                    "&_ts=" + System.currentTimeMillis()
+                    java.net.URLEncoder.encode(q, "UTF-8")
+
+            val req = HttpTransport.jsonRequest(url)
+                .header("Authorization", "Bearer $token")
+                .get()
+                .build()
+
+            // rows arrive in chunks; first screenful is shown before the whole list is read
+            val shownBefore = ArrayList(rows)
+            var fresh = true
+            var ok = false
+            var total = 0
+            JsonRowStream.rows(req, 20_000).collect { chunk ->
+                if (!isAdded) return@collect
+
+                val serverNowMs = chunk.header.optLong("server_now_ms", 0L)
+                if (serverNowMs > 0L && serverNowMs != lastServerNowMs) {
+                    lastServerNowMs = serverNowMs
+                    lastServerNowClientMs = System.currentTimeMillis()
+                }
 
-            val res = withContext(Dispatchers.IO) { getJsonAuth(url, token) }
+                if (fresh) {
+                    rows.clear()
+                    fresh = false
+                }
+                for (o in chunk.rows) rows.add(parseRow(o))
+                if (chunk.last) {
+                    ok = chunk.ok
+                    total = chunk.header.optInt("total", 0)
+                } else {
+                    adapter.notifyDataSetChanged()
+                    showEmpty(rows.isEmpty())
+                }
+            }
             if (!isAdded) return@launch
 
-            if (!res.optBoolean("ok", false)) {
+            if (!ok) {
+                // stream broke midway: drop the partial list, put back what was shown before
+                val partial = !fresh
                 rows.clear()
+                rows.addAll(shownBefore)
                 adapter.notifyDataSetChanged()
-                updateCount(0)
-                showEmpty(true)
+                if (rows.isEmpty()) updateCount(0)
+                if (partial && rows.isNotEmpty()) toast(getString(R.string.failed_to_load))
+                showEmpty(rows.isEmpty())
                 return@launch
             }
 
-            val data = res.optJSONObject("data") ?: JSONObject()
-
-            val serverNowMs = data.optLong("server_now_ms", 0L)
-            if (serverNowMs > 0L) {
-                lastServerNowMs = serverNowMs
-                lastServerNowClientMs = System.currentTimeMillis()
-            }
-
-            val total = data.optInt("total", 0)
-            val items = data.optJSONArray("items") ?: JSONArray()
-
-            rows.clear()
-            for (i in 0 until items.length()) {
-                val o = items.optJSONObject(i) ?: continue
-                rows.add(parseRow(o))
-            }
-
             adapter.notifyDataSetChanged()
             updateCount(total)
             showEmpty(rows.isEmpty())
@@ -326,7 +344,7 @@ class DoctorConsultFragment : Fragment() {
         }
 
         viewLifecycleOwner.lifecycleScope.launch {
-            val url = BASE_URL + "doctor/appointment_patient.php?appointment_id=$apptId&_ts=" + System.currentTimeMillis()
+            val url = BASE_URL + "doctor/appointment_patient.php?appointment_id=$apptId"
             val res = withContext(Dispatchers.IO) { getJsonAuth(url, token) }
             if (!isAdded) return@launch
 
@@ -378,23 +396,11 @@ class DoctorConsultFragment : Fragment() {
     }
 
     private fun getJsonAuth(urlStr: String, token: String): JSONObject {
-        var conn: HttpURLConnection? = null
         return try {
-            conn = (URL(urlStr).openConnection() as HttpURLConnection).apply {
-                requestMethod = "GET"
-                connectTimeout = 20000
-                readTimeout = 20000
-                setRequestProperty("Accept", "application/json")
-                setRequestProperty("Authorization", "Bearer $token")
-            }
-            val code = conn.responseCode
-            val stream = if (code in 200..299) conn.inputStream else conn.errorStream
-            val text = stream?.bufferedReader()?.use { it.readText() }.orEmpty()
+            val text = HttpTransport.getText(urlStr, token, 20000).body
             runCatching { JSONObject(text) }.getOrElse { JSONObject().put("ok", false) }
         } catch (_: Throwable) {
             JSONObject().put("ok", false)
-        } finally {
-            try { conn?.disconnect() } catch (_: Throwable) {}
         }
     }
 
@@ -15,7 +15,9 @@ import androidx.lifecycle.lifecycleScope
 import com.simats.criticall.ApiConfig.BASE_URL
 import com.simats.criticall.AppPrefs
 import com.simats.criticall.ExternalCallLauncher
+import com.simats.criticall.HttpTransport
 import com.simats.criticall.R
+import com.simats.criticall.SwrSnapshots
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
@@ -68,6 +70,9 @@ class DoctorHomeFragment : Fragment(R.layout.fragment_doctor_home) {
 
     private var emptyApptView: TextView? = null
 
+    // fingerprint of the dashboard currently on screen (snapshot or live)
+    private var boundFp: String? = null
+
     override fun onViewCreated(view: View, savedInstanceState: Bundle?) {
         super.onViewCreated(view, savedInstanceState)
 
@@ -86,6 +91,10 @@ class DoctorHomeFragment : Fragment(R.layout.fragment_doctor_home) {
         setStartVisible(view, false)
         hideEmptyApptMessage()
 
+        // ✅ last good dashboard first, network revalidates below
+        boundFp = null
+        showSnapshot(view)
+
         view.findViewById<View>(R.id.notificationWrap).setOnClickListener {
             runCatching {
                 startActivity(Intent(requireContext(), DoctorNotificationsActivity::class.java))
@@ -128,6 +137,15 @@ class DoctorHomeFragment : Fragment(R.layout.fragment_doctor_home) {
             .commit()
     }
 
+    private fun showSnapshot(root: View) {
+        val snap = SwrSnapshots.load(requireContext(), SNAPSHOT) ?: return
+        // "today" counts from another day would be wrong, not just stale
+        if (dfDate.format(Date(snap.savedAtMs)) != dfDate.format(Date())) return
+        val data = snap.json() ?: return
+        bindDashboard(root, data)
+        boundFp = SwrSnapshots.fingerprint(data, VOLATILE_KEYS)
+    }
+
     private fun refresh(root: View) {
         if (isLoading) return
         isLoading = true
@@ -140,17 +158,8 @@ class DoctorHomeFragment : Fragment(R.layout.fragment_doctor_home) {
                     return@launch
                 }
 
-                val res = withContext(Dispatchers.IO) {
-                    getJsonAuth(
-                        BASE_URL + "doctor/home_dashboard.php?_ts=" + System.currentTimeMillis(),
-                        token
-                    )
-                }
-
+                val data = withContext(Dispatchers.IO) { fetchDashboard(token) } ?: return@launch
                 if (!isAdded) return@launch
-                if (!res.optBoolean("ok", false)) return@launch
-
-                val data = res.optJSONObject("data") ?: JSONObject()
 
                 val serverNowMs = data.optLong("server_now_ms", 0L)
                 if (serverNowMs > 0L) {
@@ -158,40 +167,14 @@ class DoctorHomeFragment : Fragment(R.layout.fragment_doctor_home) {
                     lastServerNowClientMs = System.currentTimeMillis()
                 }
 
-                val doctorName = data.optString("doctor_name", "").trim()
-                if (doctorName.isNotBlank()) setText(root, R.id.tvDoctorName, doctorName)
-
-                val spec = data.optString("doctor_specialization", "").trim()
-                if (spec.isNotBlank()) setText(root, R.id.tvDoctorRole, spec)
-
-                val notif = data.optInt("notifications_count", 0).coerceAtLeast(0)
-                setBadge(root, notif)
-
-                val todayPatients = data.optInt("today_patients", 0).coerceAtLeast(0)
-                val todayCompleted = data.optInt("today_completed", 0).coerceAtLeast(0)
-                val todayAmount = data.optInt("today_amount", 0).coerceAtLeast(0)
-
-                setText(root, R.id.tvPatients, getString(R.string.doctor_patients_fmt, todayPatients))
-                setText(root, R.id.tvCompleted, getString(R.string.doctor_completed_fmt, todayCompleted))
-                setText(root, R.id.tvTotal, getString(R.string.doctor_amount_fmt, todayAmount))
-
-                val rating = data.optDouble("rating", 0.0)
-                setText(root, R.id.tvRating, getString(R.string.doctor_rating_fmt, format1dp(rating)))
-
-                var arr = buildTodayAppointments(data)
-                // Fallback: if backend does not provide in-progress list, pull from appointments_list
-                if (!data.has("today_in_progress") && !data.has("today_appointments")) {
-                    try {
-                        val fallback = withContext(Dispatchers.IO) {
-                            fetchTodayFromAppointmentsList(token)
-                        }
-                        if (fallback.length() > 0) {
-                            arr = mergeUnique(arr, fallback)
-                        }
-                    } catch (_: Throwable) {
-                    }
+                val fp = SwrSnapshots.fingerprint(data, VOLATILE_KEYS)
+                SwrSnapshots.save(requireContext(), SNAPSHOT, data.toString(), fp)
+                if (fp != boundFp) {
+                    bindDashboard(root, data)
+                    boundFp = fp
+                } else {
+                    refreshClock(root)
                 }
-                bindAppointments(root, arr)
 
             } catch (_: Throwable) {
             } finally {
@@ -200,6 +183,57 @@ class DoctorHomeFragment : Fragment(R.layout.fragment_doctor_home) {
         }
     }
 
+    // "data" of home_dashboard.php, with the appointments_list fallback already merged in
+    private fun fetchDashboard(token: String): JSONObject? {
+        val res = getJsonAuth(BASE_URL + "doctor/home_dashboard.php", token)
+        if (!res.optBoolean("ok", false)) return null
+        val data = res.optJSONObject("data") ?: JSONObject()
+
+        // Fallback: if backend does not provide in-progress list, pull from appointments_list
+        if (!data.has("today_in_progress") && !data.has("today_appointments")) {
+            try {
+                val fallback = fetchTodayFromAppointmentsList(token)
+                if (fallback.length() > 0) {
+                    data.put("today_appointments", mergeUnique(buildTodayAppointments(data), fallback))
+                }
+            } catch (_: Throwable) {
+            }
+        }
+        return data
+    }
+
+    private fun bindDashboard(root: View, data: JSONObject) {
+        val doctorName = data.optString("doctor_name", "").trim()
+        if (doctorName.isNotBlank()) setText(root, R.id.tvDoctorName, doctorName)
+
+        val spec = data.optString("doctor_specialization", "").trim()
+        if (spec.isNotBlank()) setText(root, R.id.tvDoctorRole, spec)
+
+        val notif = data.optInt("notifications_count", 0).coerceAtLeast(0)
+        setBadge(root, notif)
+
+        val todayPatients = data.optInt("today_patients", 0).coerceAtLeast(0)
+        val todayCompleted = data.optInt("today_completed", 0).coerceAtLeast(0)
+        val todayAmount = data.optInt("today_amount", 0).coerceAtLeast(0)
+
+        setText(root, R.id.tvPatients, getString(R.string.doctor_patients_fmt, todayPatients))
+        setText(root, R.id.tvCompleted, getString(R.string.doctor_completed_fmt, todayCompleted))
+        setText(root, R.id.tvTotal, getString(R.string.doctor_amount_fmt, todayAmount))
+
+        val rating = data.optDouble("rating", 0.0)
+        setText(root, R.id.tvRating, getString(R.string.doctor_rating_fmt, format1dp(rating)))
+
+        bindAppointments(root, buildTodayAppointments(data))
+    }
+
+    // unchanged data: only the time-dependent bits can be out of date
+    private fun refreshClock(root: View) {
+        if (nextScheduledAt.isNotBlank()) {
+            setText(root, R.id.tvStartingIn, friendlyStartLabel(nextScheduledAt))
+        }
+        setStartVisible(root, shouldShowStartButton())
+    }
+
     private fun startNextIfAllowed() {
         if (!isAdded) return
         val root = view ?: return
@@ -545,8 +579,7 @@ class DoctorHomeFragment : Fragment(R.layout.fragment_doctor_home) {
 
     private fun fetchTodayFromAppointmentsList(token: String): JSONArray {
         val url = BASE_URL +
-                "doctor/appointments_list.php?view=ALL&limit=200&offset=0&_ts=" +
-                System.currentTimeMillis()
+                "doctor/appointments_list.php?view=ALL&limit=200&offset=0"
         val res = getJsonAuth(url, token)
         if (!res.optBoolean("ok", false)) return JSONArray()
 
@@ -657,22 +690,11 @@ class DoctorHomeFragment : Fragment(R.layout.fragment_doctor_home) {
     }
 
     private fun getJsonAuth(urlStr: String, token: String): JSONObject {
-        val conn = (URL(urlStr).openConnection() as HttpURLConnection)
         return try {
-            conn.requestMethod = "GET"
-            conn.connectTimeout = 20000
-            conn.readTimeout = 20000
-            conn.setRequestProperty("Accept", "application/json")
-            conn.setRequestProperty("Authorization", "Bearer $token")
-
-            val code = conn.responseCode
-            val stream = if (code in 200..299) conn.inputStream else conn.errorStream
-            val text = stream?.bufferedReader()?.use { it.readText() }.orEmpty()
+            val text = HttpTransport.getText(urlStr, token, 20000).body
             runCatching { JSONObject(text) }.getOrElse { JSONObject().put("ok", false) }
         } catch (_: Throwable) {
             JSONObject().put("ok", false)
-        } finally {
-            try { conn.disconnect() } catch (_: Throwable) {}
         }
     }
 
@@ -770,4 +792,9 @@ class DoctorHomeFragment : Fragment(R.layout.fragment_doctor_home) {
         val d = resources.displayMetrics.density
         return (v * d).toInt()
     }
+
+    companion object {
+        const val SNAPSHOT = "doctor_home"
+        val VOLATILE_KEYS = setOf("server_now_ms")
+    }
 }
@@ -2,9 +2,8 @@ package com.simats.criticall.roles.doctor
 
 import android.content.Context
 import com.simats.criticall.ApiConfig.BASE_URL
+import com.simats.criticall.HttpTransport
 import org.json.JSONObject
-import java.net.HttpURLConnection
-import java.net.URL
 
 object DoctorHomeRepo {
 
@@ -53,25 +52,11 @@ object DoctorHomeRepo {
     }
 
     private fun httpGet(urlStr: String): String {
-        var conn: HttpURLConnection? = null
         return try {
-            val url = URL(urlStr)
-            conn = (url.openConnection() as HttpURLConnection).apply {
-                requestMethod = "GET"
-                connectTimeout = 12_000
-                readTimeout = 12_000
-                setRequestProperty("Accept", "application/json")
-            }
-
-            val code = conn.responseCode
-            val stream = if (code in 200..299) conn.inputStream else conn.errorStream
-            if (stream == null) return ""
-
-            stream.bufferedReader().use { it.readText() }
+            val req = HttpTransport.jsonRequest(urlStr).get().build()
+            HttpTransport.fetchText(req, 12_000).body
         } catch (_: Exception) {
             ""
-        } finally {
-            conn?.disconnect()
         }
     }
 
@@ -12,6 +12,7 @@ import androidx.recyclerview.widget.RecyclerView
 import com.simats.criticall.ApiConfig.BASE_URL
 import com.simats.criticall.AppPrefs
 import com.simats.criticall.BaseActivity
+import com.simats.criticall.HttpTransport
 import com.simats.criticall.R
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
@@ -350,7 +351,7 @@ class DoctorNotificationsActivity : BaseActivity() {
         fun list(token: String, unreadOnly: Boolean): JSONObject {
             val url = BASE_URL +
                     "doctor/notifications_list.php?unread=" + (if (unreadOnly) "1" else "0") +
-                    "&limit=200&_ts=" + System.currentTimeMillis()
+                    "&limit=200"
             return httpGetJson(url, token)
         }
 
@@ -369,24 +370,12 @@ class DoctorNotificationsActivity : BaseActivity() {
         }
 
         private fun httpGetJson(urlStr: String, token: String): JSONObject {
-            var conn: HttpURLConnection? = null
             return try {
-                conn = (URL(urlStr).openConnection() as HttpURLConnection).apply {
-                    requestMethod = "GET"
-                    connectTimeout = 20000
-                    readTimeout = 20000
-                    setRequestProperty("Accept", "application/json")
-                    setRequestProperty("Authorization", "Bearer $token")
-                }
-                val code = conn.responseCode
-                val stream = if (code in 200..299) conn.inputStream else conn.errorStream
-                val text = stream?.bufferedReader()?.use { it.readText() }.orEmpty()
+                val text = HttpTransport.getText(urlStr, token, 20000).body
                 runCatching { JSONObject(text) }
                     .getOrElse { JSONObject().put("ok", false).put("error", "Non-JSON response") }
             } catch (_: Throwable) {
                 JSONObject().put("ok", false).put("error", "Network error")
-            } finally {
-                try { conn?.disconnect() } catch (_: Throwable) {}
             }
         }
 
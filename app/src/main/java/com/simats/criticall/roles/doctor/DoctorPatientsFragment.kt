@@ -18,16 +18,14 @@ import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import com.simats.criticall.ApiConfig.BASE_URL
 import com.simats.criticall.AppPrefs
+import com.simats.criticall.HttpTransport
+import com.simats.criticall.JsonRowStream
+import com.simats.criticall.MemoryGovernor
 import com.simats.criticall.R
-import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.withContext
-import org.json.JSONArray
 import org.json.JSONObject
-import java.net.HttpURLConnection
-import java.net.URL
 import java.net.URLEncoder
 import java.text.SimpleDateFormat
 import java.util.Calendar
@@ -57,6 +55,26 @@ class DoctorPatientsFragment : Fragment() {
     private var lastRequestKey: String = ""
     private var watcher: TextWatcher? = null
 
+    // set when memory pressure cut the list; the next onStart refetches it
+    private var trimmed = false
+
+    // the unfiltered list (up to 500 rows). `rows` holds the same Row objects, so only shrinking both
+    // frees anything: master keeps its first keepFraction, rows is re-filtered from what is left.
+    private val masterTrim = object : MemoryGovernor.Trimmable {
+        override fun memoryBytes(): Long = master.size * ROW_BYTES_ESTIMATE
+        override fun trimTo(keepFraction: Float) {
+            if (keepFraction >= 1f || master.isEmpty()) return
+            if (keepFraction > 0f && isResumed) return // on screen: a half list would look like missing patients
+            val keep = (master.size * keepFraction).toInt().coerceAtLeast(0)
+            master.subList(keep, master.size).clear()
+            master.trimToSize()
+            applyLocalFilter(etSearch.text?.toString().orEmpty())
+            rows.trimToSize()
+            lastRequestKey = ""
+            trimmed = true
+        }
+    }
+
     private val tz by lazy { TimeZone.getTimeZone("Asia/Kolkata") }
     private val dfServer by lazy {
         SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault()).apply { timeZone = tz }
@@ -104,10 +122,20 @@ class DoctorPatientsFragment : Fragment() {
             } else false
         }
 
+        MemoryGovernor.register(CACHE_NAME, MemoryGovernor.Priority.NORMAL, masterTrim)
         setMode(ViewMode.ALL)
     }
 
+    override fun onStart() {
+        super.onStart()
+        if (trimmed) {
+            trimmed = false
+            loadFromServer()
+        }
+    }
+
     override fun onDestroyView() {
+        MemoryGovernor.unregister(CACHE_NAME, masterTrim)
         watcher?.let { etSearch.removeTextChangedListener(it) }
         watcher = null
         loadJob?.cancel()
@@ -169,31 +197,45 @@ class DoctorPatientsFragment : Fragment() {
 
             val url = BASE_URL +
                     "doctor/patients_list.php?view=$viewParam&limit=500&offset=0&q=" +
-                    URLEncoder.encode(q, "UTF-8") +
-                    "&_ts=" + System.currentTimeMillis()
-
-            val res = withContext(Dispatchers.IO) { getJsonAuth(url, token) }
+                    URLEncoder.encode(q, "UTF-8")
+
+            val req = HttpTransport.jsonRequest(url)
+                .header("Authorization", "Bearer $token")
+                .get()
+                .build()
+
+            // rows arrive in chunks; first screenful is shown before the whole list is read
+            val shownBefore = ArrayList(master)
+            var fresh = true
+            var ok = false
+            var total = 0
+            JsonRowStream.rows(req, 20_000).collect { chunk ->
+                if (!isAdded) return@collect
+                if (fresh) {
+                    master.clear()
+                    fresh = false
+                }
+                for (o in chunk.rows) master.add(parseRow(o))
+                if (chunk.last) {
+                    ok = chunk.ok
+                    total = chunk.header.optInt("total", 0)
+                } else {
+                    applyLocalFilter(q, fromServer = true)
+                }
+            }
             if (!isAdded) return@launch
 
-            if (!res.optBoolean("ok", false)) {
+            if (!ok) {
+                // stream broke midway: drop the partial list, put back what was shown before (refetch next time)
+                lastRequestKey = ""
                 master.clear()
-                rows.clear()
-                adapter.notifyDataSetChanged()
-                setSubtitleCount(0)
-                showEmpty(true)
+                master.addAll(shownBefore)
+                if (master.isEmpty()) setSubtitleCount(0)
+                else if (!fresh) toast(getString(R.string.failed_to_load))
+                applyLocalFilter(q)
                 return@launch
             }
 
-            val data = res.optJSONObject("data") ?: JSONObject()
-            val total = data.optInt("total", 0)
-            val arr = data.optJSONArray("items") ?: JSONArray()
-
-            master.clear()
-            for (i in 0 until arr.length()) {
-                val o = arr.optJSONObject(i) ?: continue
-                master.add(parseRow(o))
-            }
-
             setSubtitleCount(total)
             applyLocalFilter(q, fromServer = true)
         }
@@ -296,27 +338,6 @@ class DoctorPatientsFragment : Fragment() {
         Toast.makeText(requireContext(), s, Toast.LENGTH_SHORT).show()
     }
 
-    private fun getJsonAuth(urlStr: String, token: String): JSONObject {
-        var conn: HttpURLConnection? = null
-        return try {
-            conn = (URL(urlStr).openConnection() as HttpURLConnection).apply {
-                requestMethod = "GET"
-                connectTimeout = 20000
-                readTimeout = 20000
-                setRequestProperty("Accept", "application/json")
-                setRequestProperty("Authorization", "Bearer $token")
-            }
-            val code = conn.responseCode
-            val stream = if (code in 200..299) conn.inputStream else conn.errorStream
-            val text = stream?.bufferedReader()?.use { it.readText() }.orEmpty()
-            runCatching { JSONObject(text) }.getOrElse { JSONObject().put("ok", false) }
-        } catch (_: Throwable) {
-            JSONObject().put("ok", false)
-        } finally {
-            try { conn?.disconnect() } catch (_: Throwable) {}
-        }
-    }
-
     private fun optLongAny(o: JSONObject, vararg keys: String): Long {
         for (k in keys) {
             val any = o.opt(k)
@@ -406,4 +427,10 @@ class DoctorPatientsFragment : Fragment() {
         val tvVisit: TextView = v.findViewById(R.id.tvVisit)
         val tvStatus: TextView = v.findViewById(R.id.tvStatus)
     }
+
+    private companion object {
+        const val CACHE_NAME = "doctor_patients.master"
+        // parsed Row: a handful of short strings + longs
+        const val ROW_BYTES_ESTIMATE = 512L
+    }
 }
@@ -19,6 +19,7 @@ import com.simats.criticall.AppPrefs
 import com.simats.criticall.LanguageChangeActivity
 import com.simats.criticall.R
 import com.simats.criticall.RoleSelectActivity
+import com.simats.criticall.SessionReset
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
@@ -283,6 +284,7 @@ class DoctorProfileFragment : Fragment() {
         dialogView.findViewById<View>(R.id.btnLogout).setOnClickListener {
             dlg.dismiss()
             AppPrefs.setToken(requireContext(), "")
+            SessionReset.onLogout(requireContext())
             startActivity(Intent(requireContext(), RoleSelectActivity::class.java).apply {
                 flags = Intent.FLAG_ACTIVITY_NEW_TASK or Intent.FLAG_ACTIVITY_CLEAR_TASK
             })
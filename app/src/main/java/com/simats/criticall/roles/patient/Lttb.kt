@@ -0,0 +1,57 @@
+package com.simats.criticall.roles.patient
+
+import kotlin.math.abs
+
+/**
+ * Largest-Triangle-Three-Buckets downsampling: keeps the first and last point and, per bucket,
+ * the point that spans the largest triangle with its neighbours, so peaks and dips survive
+ * when thousands of readings are drawn as a few hundred.
+ */
+object Lttb {
+
+    data class Point(val tMs: Long, val value: Double)
+
+    /** [points] must be sorted by time. Returns them unchanged when there are no more than [threshold]. */
+    fun downsample(points: List<Point>, threshold: Int): List<Point> {
+        if (threshold >= points.size || threshold < 3) return points
+
+        val out = ArrayList<Point>(threshold)
+        val every = (points.size - 2).toDouble() / (threshold - 2)
+        var a = 0
+        out.add(points[0])
+
+        for (i in 0 until threshold - 2) {
+            // average of the next bucket is the third triangle corner
+            val nextStart = ((i + 1) * every).toInt() + 1
+            val nextEnd = minOf(((i + 2) * every).toInt() + 1, points.size)
+            var avgT = 0.0
+            var avgV = 0.0
+            for (j in nextStart until nextEnd) {
+                avgT += points[j].tMs
+                avgV += points[j].value
+            }
+            val n = (nextEnd - nextStart).coerceAtLeast(1)
+            avgT /= n
+            avgV /= n
+
+            val start = (i * every).toInt() + 1
+            val end = ((i + 1) * every).toInt() + 1
+            val pa = points[a]
+            var best = start
+            var bestArea = -1.0
+            for (j in start until end) {
+                val p = points[j]
+                val area = abs((pa.tMs - avgT) * (p.value - pa.value) - (pa.tMs - p.tMs) * (avgV - pa.value))
+                if (area > bestArea) {
+                    bestArea = area
+                    best = j
+                }
+            }
+            out.add(points[best])
+            a = best
+        }
+
+        out.add(points[points.size - 1])
+        return out
+    }
+}
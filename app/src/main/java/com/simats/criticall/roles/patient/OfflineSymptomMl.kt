@@ -1,6 +1,7 @@
 package com.simats.criticall.roles.patient
 
 import android.content.Context
+import com.simats.criticall.MemoryGovernor
 import org.json.JSONArray
 import org.json.JSONObject
 import java.util.Locale
@@ -14,35 +15,51 @@ object OfflineSymptomMl {
 
     data class Pred(val key: String, val prob: Float)
 
-    @Volatile private var loaded = false
-    private var labels: List<String> = emptyList()
-    private var vocab: List<String> = emptyList()
-    private var vid: HashMap<String, Int> = hashMapOf()
-    private var logPrior: FloatArray = floatArrayOf()
-    private var logProb: Array<FloatArray> = emptyArray()
-    private var unkLogProb: FloatArray = floatArrayOf()
+    // one immutable holder, so a trim can drop it while a prediction still uses its own reference
+    private class Model(
+        val labels: List<String>,
+        val vid: HashMap<String, Int>,
+        val logPrior: FloatArray,
+        val logProb: Array<FloatArray>,
+        val unkLogProb: FloatArray
+    ) {
+        fun approxBytes(): Long =
+            logProb.sumOf { it.size.toLong() * 4 } + (logPrior.size + unkLogProb.size) * 4L + vid.size * 96L
+    }
+
+    @Volatile private var model: Model? = null
+
+    init {
+        // a few MB of floats, but re-parsing the asset takes seconds on low-end phones: dropped last
+        MemoryGovernor.register("symptom_ml", MemoryGovernor.Priority.HIGH, object : MemoryGovernor.Trimmable {
+            override fun memoryBytes(): Long = model?.approxBytes() ?: 0L
+            override fun trimTo(keepFraction: Float) {
+                if (keepFraction < 1f) model = null
+            }
+        })
+    }
 
-    private fun ensureLoaded(ctx: Context) {
-        if (loaded) return
+    private fun ensureLoaded(ctx: Context): Model {
+        model?.let { return it }
         synchronized(this) {
-            if (loaded) return
+            model?.let { return it }
 
             val raw = ctx.assets.open(ASSET_FILE).bufferedReader().use { it.readText() }
             val j = JSONObject(raw)
 
             val labs = j.getJSONArray("labels")
-            labels = List(labs.length()) { labs.getString(it) }
+            val labels = List(labs.length()) { labs.getString(it) }
 
             val v = j.getJSONArray("vocab")
-            vocab = List(v.length()) { v.getString(it) }
-            vid = HashMap<String, Int>(vocab.size * 2)
+            val vocab = List(v.length()) { v.getString(it) }
+            val vid = HashMap<String, Int>(vocab.size * 2)
             for (i in vocab.indices) vid[vocab[i]] = i
 
             val lp = j.getJSONArray("log_prior")
-            logPrior = FloatArray(lp.length()) { lp.getDouble(it).toFloat() }
+            val logPrior = FloatArray(lp.length()) { lp.getDouble(it).toFloat() }
 
             val ulp = j.getJSONArray("unk_log_prob")
-            unkLogProb = FloatArray(ulp.length()) { ulp.getDouble(it).toFloat() }
+            val unkLogProb = FloatArray(ulp.length()) { ulp.getDouble(it).toFloat() }
 
             val lprob = j.getJSONArray("log_prob")
             val rows = Array(lprob.length()) { FloatArray(vocab.size) }
@@ -52,9 +69,8 @@ object OfflineSymptomMl {
                 for (c in 0 until vocab.size) out[c] = row.getDouble(c).toFloat()
                 rows[r] = out
             }
-            logProb = rows
 
-            loaded = true
+            return Model(labels, vid, logPrior, rows, unkLogProb).also { model = it }
         }
     }
 
@@ -63,7 +79,8 @@ object OfflineSymptomMl {
      * Works best with typos due to char 4-gram features.
      */
     fun predictTopK(ctx: Context, text: String, locale: Locale, topK: Int = 2): List<Pred> {
-        ensureLoaded(ctx)
+        val m = ensureLoaded(ctx)
+        val labels = m.labels
 
         val feats = extractFeatures(text, locale)
         if (feats.isEmpty() || labels.isEmpty()) return emptyList()
@@ -71,7 +88,7 @@ object OfflineSymptomMl {
         // Count features (term frequency)
         val counts = HashMap<Int, Int>()
         for (f in feats) {
-            val idx = vid[f] ?: continue
+            val idx = m.vid[f] ?: continue
             counts[idx] = (counts[idx] ?: 0) + 1
         }
         if (counts.isEmpty()) return emptyList()
@@ -79,9 +96,9 @@ object OfflineSymptomMl {
         // score per class
         val scores = FloatArray(labels.size)
         for (c in labels.indices) {
-            var s = logPrior[c]
-            val row = logProb[c]
-            val unk = unkLogProb[c]
+            var s = m.logPrior[c]
+            val row = m.logProb[c]
+            val unk = m.unkLogProb[c]
             for ((fid, cnt) in counts) {
                 s += cnt * (row.getOrNull(fid) ?: unk)
             }
@@ -1,6 +1,7 @@
 package com.simats.criticall.roles.patient
 
 import android.content.Context
+import com.simats.criticall.MemoryGovernor
 import org.vosk.Model
 import org.vosk.Recognizer
 import org.vosk.android.RecognitionListener
@@ -18,6 +19,14 @@ class OfflineVoiceHelper(
     private var service: SpeechService? = null
     private var recognizer: Recognizer? = null
 
+    // only registered while the model is loaded; released when the process is about to be killed anyway
+    private val trimmable = object : MemoryGovernor.Trimmable {
+        override fun memoryBytes(): Long = if (model != null) MODEL_BYTES_ESTIMATE else 0L
+        override fun trimTo(keepFraction: Float) {
+            if (keepFraction <= 0f) stop()
+        }
+    }
+
     fun start() {
         try {
             StorageService.unpack(
@@ -26,6 +35,7 @@ class OfflineVoiceHelper(
                 "voskModel",
                 { m ->
                     model = m
+                    MemoryGovernor.register(CACHE_NAME, MemoryGovernor.Priority.HIGH, trimmable)
                     recognizer = Recognizer(m, 16000.0f)
                     service = SpeechService(recognizer, 16000.0f)
                     service?.startListening(this)
@@ -45,6 +55,7 @@ class OfflineVoiceHelper(
         service = null
         recognizer = null
         model = null
+        MemoryGovernor.unregister(CACHE_NAME, trimmable)
     }
 
     // REQUIRED by RecognitionListener
@@ -74,4 +85,10 @@ class OfflineVoiceHelper(
     override fun onTimeout() {
         stop()
     }
+
+    private companion object {
+        const val CACHE_NAME = "vosk_model"
+        // small Vosk models map ~40-50 MB once loaded
+        const val MODEL_BYTES_ESTIMATE = 48L * 1024 * 1024
+    }
 }
@@ -48,6 +48,9 @@ class PatientActivity : BaseActivity(), PatientHomeFragment.HomeNav {
         setContentView(R.layout.activity_patient)
         supportActionBar?.hide()
 
+        // pick up vitals recorded offline in earlier sessions
+        VitalsSyncWorker.schedule(this)
+
         bindViews()
 
         if (savedInstanceState == null) {
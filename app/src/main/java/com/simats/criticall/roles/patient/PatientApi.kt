@@ -4,22 +4,92 @@ import android.content.Context
 import com.simats.criticall.ApiClient
 import com.simats.criticall.ApiConfig
 import com.simats.criticall.AppPrefs
+import com.simats.criticall.CallResult
+import com.simats.criticall.EndpointCapabilities
+import com.simats.criticall.HttpTransport
+import com.simats.criticall.MemoryGovernor
+import com.simats.criticall.ReferenceData
+import okhttp3.RequestBody.Companion.toRequestBody
 import org.json.JSONArray
 import org.json.JSONObject
-import java.net.HttpURLConnection
-import java.net.URL
 import java.text.SimpleDateFormat
 import java.util.Locale
+import java.util.concurrent.ConcurrentHashMap
 
 object PatientApi {
     private const val TIMEOUT = 60_000
+    private const val REF_SPECIALITIES = "specialities"
+    private const val REF_DOCTORS = "doctors"
+    private const val SLOTS_TTL_MS = 45_000L
 
     @Volatile var lastError: String? = null
-        private set
+        private set(v) {
+            field = v
+            callStatus.get()?.error = v
+        }
     @Volatile var lastHttpCode: Int? = null
-        private set
+        private set(v) {
+            field = v
+            callStatus.get()?.httpCode = v
+        }
     @Volatile var lastRaw: String? = null
-        private set
+        private set(v) {
+            field = v
+            callStatus.get()?.raw = v
+        }
+
+    // per-thread copy of last* for the typed calls below; the shared fields stay for existing callers
+    private class Status(var error: String? = null, var httpCode: Int? = null, var raw: String? = null)
+
+    private val callStatus = ThreadLocal<Status>()
+
+    private inline fun <T : Any> typed(block: () -> T?): CallResult<T> {
+        val st = Status()
+        callStatus.set(st)
+        try {
+            val v = block()
+            return if (v != null) CallResult.Ok(v)
+            else CallResult.Failed(st.error ?: "Failed", st.httpCode, st.raw)
+        } finally {
+            callStatus.remove()
+        }
+    }
+
+    // ------------------------------
+    // Typed results (safe to run concurrently, e.g. inside FanOut)
+    // ------------------------------
+    fun doctorDetail(ctx: Context, doctorId: Int): CallResult<JSONObject> =
+        typed { getDoctorDetail(ctx, doctorId) }
+
+    fun slots(ctx: Context, doctorId: Int, daysAhead: Int = 7): CallResult<JSONArray> =
+        typed { getSlots(ctx, doctorId, daysAhead) }
+
+    fun availableDays(ctx: Context, doctorId: Int): CallResult<JSONArray> =
+        typed { getAvailableDays(ctx, doctorId) }
+
+    fun bookingStatus(ctx: Context, doctorId: Int): CallResult<JSONObject> =
+        typed { getDoctorBookingStatus(ctx, doctorId) }
+
+    fun appointments(ctx: Context, view: String, limit: Int = 50, offset: Int = 0): CallResult<JSONArray> =
+        typed { listAppointments(ctx, view, limit, offset) }
+
+    /** Ok only when the server said ok (getDashboard returns the error envelope too). */
+    fun dashboard(ctx: Context): CallResult<JSONObject> =
+        typed {
+            getDashboard(ctx)?.takeIf { it.optBoolean("ok", false) || it.optBoolean("success", false) }
+        }
+
+    fun specialities(ctx: Context): CallResult<JSONArray> =
+        typed { getSpecialities(ctx) }
+
+    fun notifications(ctx: Context, unreadOnly: Boolean = false): CallResult<JSONArray> =
+        typed { listNotifications(ctx, unreadOnly) }
+
+    fun notificationRead(ctx: Context, notificationId: Long): CallResult<Boolean> =
+        typed { if (markNotificationRead(ctx, notificationId)) true else null }
+
+    fun notificationDismiss(ctx: Context, notificationId: Long): CallResult<Boolean> =
+        typed { if (dismissNotification(ctx, notificationId)) true else null }
 
     private fun token(ctx: Context): String {
         return try {
@@ -59,7 +129,7 @@ object PatientApi {
             put("doctor_id", doctorId)
         }
 
-        val res = ApiClient.postJsonWithAuth("patient/doctor_detail.php", body, t, TIMEOUT)
+        val res = ApiClient.postJsonWithAuth("patient/doctor_detail.php", body, t, TIMEOUT, idempotent = true)
         if (!res.ok) {
             lastError = res.errorMessage ?: res.json?.optString("error") ?: "Failed"
             lastHttpCode = res.httpCode
@@ -76,8 +146,60 @@ object PatientApi {
 
     // ------------------------------
     // Slots (date-wise)
+    // Slot cache: the assistant and SelectTimeSlotActivity ask for the same doctor within seconds.
+    // Short TTL; dropped right away when a booking succeeds or is refused (slot taken).
     // ------------------------------
+    private class SlotEntry(val atMs: Long, val days: JSONArray)
+
+    private val slotCache = ConcurrentHashMap<String, SlotEntry>()
+    private val slotLocks = ConcurrentHashMap<String, Any>()
+    // bumped by invalidateSlots; a fetch that started before an invalidation must not be cached
+    private val slotGeneration = ConcurrentHashMap<Int, Int>()
+
+    init {
+        // 45 s TTL anyway; anything dropped is refetched on next use
+        MemoryGovernor.register("patient_slots", MemoryGovernor.Priority.LOW, object : MemoryGovernor.Trimmable {
+            override fun memoryBytes(): Long = slotCache.values.sumOf { it.days.toString().length * 2L }
+            override fun trimTo(keepFraction: Float) = trimSlots(keepFraction)
+        })
+    }
+
+    // keeps the newest keepFraction of the entries
+    private fun trimSlots(keepFraction: Float) {
+        if (keepFraction >= 1f) return
+        if (keepFraction <= 0f) {
+            slotCache.clear()
+            return
+        }
+        val byAge = slotCache.entries.sortedBy { it.value.atMs }
+        val drop = byAge.size - (byAge.size * keepFraction).toInt()
+        for (i in 0 until drop) slotCache.remove(byAge[i].key, byAge[i].value)
+    }
+
     fun getSlots(ctx: Context, doctorId: Int, daysAhead: Int = 7): JSONArray? {
+        val key = "$doctorId:$daysAhead"
+        // one fetch per doctor at a time; concurrent askers wait and then hit the cache
+        synchronized(slotLocks.getOrPut(key) { Any() }) {
+            val hit = slotCache[key]
+            if (hit != null && System.currentTimeMillis() - hit.atMs in 0 until SLOTS_TTL_MS) {
+                return JSONArray(hit.days.toString())
+            }
+            val gen = slotGeneration[doctorId] ?: 0
+            val days = fetchSlots(ctx, doctorId, daysAhead) ?: return null
+            if ((slotGeneration[doctorId] ?: 0) == gen) {
+                slotCache[key] = SlotEntry(System.currentTimeMillis(), days)
+            }
+            return JSONArray(days.toString())
+        }
+    }
+
+    fun invalidateSlots(doctorId: Int) {
+        slotGeneration.merge(doctorId, 1) { a, b -> a + b }
+        val prefix = "$doctorId:"
+        slotCache.keys.removeAll { it.startsWith(prefix) }
+    }
+
+    private fun fetchSlots(ctx: Context, doctorId: Int, daysAhead: Int): JSONArray? {
         lastError = null
         lastHttpCode = null
         lastRaw = null
@@ -95,26 +217,25 @@ object PatientApi {
             put("days", daysAhead)
         }
 
-        val res = ApiClient.postJsonWithAuth("patient/doctor_slots.php", body, t, TIMEOUT)
-        if (res.ok) {
-            val root = res.json ?: return null
-            return root.optJSONObject("data")?.optJSONArray("days")
-                ?: root.optJSONArray("days")
-        }
-
-        val fallback = ApiClient.postJsonWithAuth("doctor/available_slots.php", body, t, TIMEOUT)
-        if (!fallback.ok) {
-            lastError = fallback.errorMessage ?: fallback.json?.optString("error") ?: "Failed"
-            lastHttpCode = fallback.httpCode
-            lastRaw = fallback.json?.toString()
-            return null
-        }
-
-        val root2 = fallback.json ?: return null
-        return root2.optJSONObject("data")?.optJSONArray("days")
-            ?: root2.optJSONArray("days")
+        // NEW path first, legacy fallback; the working one is remembered
+        return EndpointCapabilities.firstWorking(
+            ctx, "patient.slots",
+            listOf("patient/doctor_slots.php", "doctor/available_slots.php")
+        ) { path ->
+            val res = ApiClient.postJsonWithAuth(path, body, t, TIMEOUT, idempotent = true)
+            if (res.ok) {
+                val root = res.json
+                daysOf(root)?.let { CallResult.Ok(it) }
+                    ?: CallResult.Failed("Invalid response", res.httpCode, root?.toString())
+            } else {
+                failureOf(res)
+            }
+        }.settle()
     }
 
+    private fun daysOf(root: JSONObject?): JSONArray? =
+        root?.optJSONObject("data")?.optJSONArray("days") ?: root?.optJSONArray("days")
+
     fun getAvailableDays(ctx: Context, doctorId: Int): JSONArray? {
         lastError = null
         lastHttpCode = null
@@ -132,30 +253,37 @@ object PatientApi {
             put("daysAhead", 7)
             put("days", 7)
         }
-
-        val postRes = ApiClient.postJsonWithAuth("patient/doctor_slots.php", body, t, TIMEOUT)
-        if (postRes.ok) {
-            return postRes.json?.optJSONObject("data")?.optJSONArray("days")
-                ?: postRes.json?.optJSONArray("days")
-        }
-
-        lastError = postRes.errorMessage ?: postRes.json?.optString("error") ?: "Failed"
-        lastHttpCode = postRes.httpCode
-        lastRaw = postRes.json?.toString()
-
         val qs = "doctor_id=$doctorId&doctorId=$doctorId&daysAhead=7&days=7"
-        val getRoot = getJsonWithQuery(ctx, "patient/doctor_slots.php", qs) ?: return null
-        return getRoot.optJSONObject("data")?.optJSONArray("days")
-            ?: getRoot.optJSONArray("days")
+
+        // POST first, GET fallback; the working method is remembered.
+        // As before, a POST the server refuses (400 / ok:false) also moves on to GET.
+        return EndpointCapabilities.firstWorking(
+            ctx, "patient.available_days",
+            listOf("POST", "GET"),
+            tryNext = { EndpointCapabilities.isMissing(it.httpCode) || it.httpCode == 400 || it.httpCode in 200..299 }
+        ) { method ->
+            if (method == "POST") {
+                val postRes = ApiClient.postJsonWithAuth("patient/doctor_slots.php", body, t, TIMEOUT, idempotent = true)
+                if (postRes.ok) {
+                    daysOf(postRes.json)?.let { CallResult.Ok(it) }
+                        ?: CallResult.Failed("Invalid response", postRes.httpCode, postRes.json?.toString())
+                } else {
+                    failureOf(postRes)
+                }
+            } else {
+                val get = getWithQuery(ctx, "patient/doctor_slots.php", qs)
+                daysOf(get.json)?.let { CallResult.Ok(it) } ?: get.failed()
+            }
+        }.settle()
     }
 
-    private fun getJsonWithQuery(ctx: Context, path: String, query: String): JSONObject? {
+    private fun getWithQuery(ctx: Context, path: String, query: String): Http {
         val base = ApiConfig.BASE_URL.trim()
         val b = if (base.endsWith("/")) base else "$base/"
         val p = path.trimStart('/')
 
         val url = if (query.isBlank()) (b + p) else (b + p + "?" + query)
-        return http(ctx, "GET", url, null)
+        return httpCall(ctx, "GET", url, null)
     }
 
     // ------------------------------
@@ -178,7 +306,8 @@ object PatientApi {
                 "patient/doctor_booking_status.php",
                 body,
                 token,
-                TIMEOUT
+                TIMEOUT,
+                idempotent = true
             )
 
             if (res.ok && res.json != null) {
@@ -218,7 +347,7 @@ object PatientApi {
             put("offset", offset)
         }
 
-        val res = ApiClient.postJsonWithAuth("patient/appointments_list.php", body, t, TIMEOUT)
+        val res = ApiClient.postJsonWithAuth("patient/appointments_list.php", body, t, TIMEOUT, idempotent = true)
         if (!res.ok) {
             lastError = res.errorMessage ?: res.json?.optString("error") ?: "Failed"
             lastHttpCode = res.httpCode
@@ -240,14 +369,35 @@ object PatientApi {
         return getJson(ctx, "patient/dashboard.php")
     }
 
-    fun getSpecialities(ctx: Context): JSONArray? {
-        val r = getJson(ctx, "patient/specialities.php") ?: return null
-        return r.optJSONObject("data")?.optJSONArray("specialities")
-            ?: r.optJSONArray("specialities")
+    // reference data: served from ReferenceData (no request while fresh); a new specialities
+    // version also drops every cached doctor list
+    fun getSpecialities(ctx: Context): JSONArray? =
+        ReferenceData.get(ctx, REF_SPECIALITIES, "all", onVersionChange = {
+            ReferenceData.invalidate(ctx, REF_DOCTORS)
+        }) {
+            val r = getJson(ctx, "patient/specialities.php")
+            val arr = r?.optJSONObject("data")?.optJSONArray("specialities")
+                ?: r?.optJSONArray("specialities")
+            arr?.let { ReferenceData.Fetched(it, versionOf(r)) }
+        }
+
+    fun getDoctors(ctx: Context, speciality: String): JSONArray? =
+        ReferenceData.get(ctx, REF_DOCTORS, speciality.trim().uppercase(Locale.US)) {
+            fetchDoctors(ctx, speciality)
+        }
+
+    private fun versionOf(root: JSONObject?): String? {
+        if (root == null) return null
+        val data = root.optJSONObject("data")
+        for (k in listOf("version", "data_version", "etag")) {
+            data?.optString(k)?.takeIf { it.isNotBlank() }?.let { return it }
+            root.optString(k).takeIf { it.isNotBlank() }?.let { return it }
+        }
+        return null
     }
 
     //  FIXED: DOCTORS FETCH (auth + multiple shapes + multiple param names)
-    fun getDoctors(ctx: Context, speciality: String): JSONArray? {
+    private fun fetchDoctors(ctx: Context, speciality: String): ReferenceData.Fetched? {
         lastError = null
         lastHttpCode = null
         lastRaw = null
@@ -271,32 +421,17 @@ object PatientApi {
             "patient/doctors.php"
         )
 
-        var lastMsg = "Failed"
-        var lastCode: Int? = null
-        var lastRawLocal: String? = null
-
-        for (p in paths) {
-            val res = ApiClient.postJsonWithAuth(p, body, t, TIMEOUT)
+        return EndpointCapabilities.firstWorking(ctx, "patient.doctors", paths) { p ->
+            val res = ApiClient.postJsonWithAuth(p, body, t, TIMEOUT, idempotent = true)
             if (res.ok) {
                 val root = res.json
-                val arr = extractDoctorsArray(root)
-                if (arr != null) return arr
-
                 // ok=true but unexpected format
-                lastMsg = "Invalid response"
-                lastCode = res.httpCode
-                lastRawLocal = root?.toString()
+                extractDoctorsArray(root)?.let { CallResult.Ok(ReferenceData.Fetched(it, versionOf(root))) }
+                    ?: CallResult.Failed("Invalid response", res.httpCode, root?.toString())
             } else {
-                lastMsg = res.errorMessage ?: res.json?.optString("error") ?: "Failed"
-                lastCode = res.httpCode
-                lastRawLocal = res.json?.toString()
+                failureOf(res)
             }
-        }
-
-        lastError = lastMsg
-        lastHttpCode = lastCode
-        lastRaw = lastRawLocal
-        return null
+        }.settle()
     }
 
     private fun extractDoctorsArray(root: JSONObject?): JSONArray? {
@@ -387,6 +522,7 @@ object PatientApi {
         for (p in paths) {
             val res = ApiClient.postJsonWithAuth(p, body, t, TIMEOUT)
             if (res.ok) {
+                invalidateSlots(doctorId) // that slot is gone now
                 val root = res.json ?: return null
 
                 // keep raw for debugging (doesn't affect logic)
@@ -400,6 +536,8 @@ object PatientApi {
                 lastFailMsg = res.errorMessage ?: res.json?.optString("error") ?: "Booking failed"
                 lastFailCode = res.httpCode
                 lastFailRaw = res.json?.toString()
+                // refused (e.g. slot already taken): our copy of the slots is wrong
+                if (res.httpCode in 200..499) invalidateSlots(doctorId)
             }
         }
 
@@ -445,41 +583,37 @@ object PatientApi {
             return null
         }
 
-        //  1) NEW (recommended): GET patient/notifications_list.php?unread=0/1
-        runCatching {
-            val qs = "unread=${if (unreadOnly) 1 else 0}&limit=200"
-            val root = getJsonWithQuery(ctx, "patient/notifications_list.php", qs)
-            if (root != null) {
-                val ok = root.optBoolean("ok", false) || root.optBoolean("success", false)
-                if (ok) {
-                    val data = root.optJSONArray("data")
-                    if (data != null) return data
+        // a 200 with ok:false from the NEW endpoint still falls back to the old one, as it always did
+        return EndpointCapabilities.firstWorking(
+            ctx, "patient.notifications_list",
+            listOf("patient/notifications_list.php", "notifications/list.php"),
+            tryNext = { EndpointCapabilities.isMissing(it.httpCode) || it.httpCode in 200..299 }
+        ) { path ->
+            if (path == "patient/notifications_list.php") {
+                //  1) NEW (recommended): GET patient/notifications_list.php?unread=0/1
+                val qs = "unread=${if (unreadOnly) 1 else 0}&limit=200"
+                val get = getWithQuery(ctx, path, qs)
+                val root = get.json
+                val ok = root != null && (root.optBoolean("ok", false) || root.optBoolean("success", false))
+                root?.optJSONArray("data")?.takeIf { ok }?.let { CallResult.Ok(it) } ?: get.failed()
+            } else {
+                //  2) FALLBACK: your existing endpoint notifications/list.php (POST)
+                val body = JSONObject().apply {
+                    put("unread_only", if (unreadOnly) 1 else 0)
+                    put("limit", 100)
+                }
+                val res = ApiClient.postJsonWithAuth(path, body, t, TIMEOUT, idempotent = true)
+                if (!res.ok) {
+                    failureOf(res)
                 } else {
-                    // keep error but allow fallback
-                    lastError = root.optString("error").ifBlank { "Failed" }
-                    lastRaw = root.toString()
+                    val root = res.json
+                    val items = root?.optJSONObject("data")?.optJSONArray("items")
+                        ?: root?.optJSONArray("items")
+                        ?: root?.optJSONArray("data") // extra fallback if server returns array at data
+                    items?.let { CallResult.Ok(it) } ?: CallResult.Failed("Invalid response", res.httpCode, root?.toString())
                 }
             }
-        }
-
-        //  2) FALLBACK: your existing endpoint notifications/list.php (POST)
-        val body = JSONObject().apply {
-            put("unread_only", if (unreadOnly) 1 else 0)
-            put("limit", 100)
-        }
-
-        val res = ApiClient.postJsonWithAuth("notifications/list.php", body, t, TIMEOUT)
-        if (!res.ok) {
-            lastError = res.errorMessage ?: res.json?.optString("error") ?: "Failed"
-            lastHttpCode = res.httpCode
-            lastRaw = res.json?.toString()
-            return null
-        }
-
-        val root = res.json ?: return null
-        return root.optJSONObject("data")?.optJSONArray("items")
-            ?: root.optJSONArray("items")
-            ?: root.optJSONArray("data") // extra fallback if server returns array at data
+        }.settle()
     }
 
     /**  Mark ALL as read */
@@ -494,31 +628,15 @@ object PatientApi {
             return false
         }
 
-        //  1) NEW: patient/notifications_mark_all_read.php
-        runCatching {
-            val res = ApiClient.postJsonWithAuth("patient/notifications_mark_all_read.php", JSONObject(), t, TIMEOUT)
-            if (res.ok) {
-                val root = res.json
-                val ok = root?.optBoolean("ok", true) ?: true
-                if (ok) return true
-            } else {
-                // keep error but allow fallback
-                lastError = res.errorMessage ?: res.json?.optString("error") ?: "Failed"
-                lastHttpCode = res.httpCode
-                lastRaw = res.json?.toString()
-            }
-        }
-
-        //  2) FALLBACK: your old notifications/mark_read.php (mark_all=1)
-        val body = JSONObject().apply { put("mark_all", 1) }
-        val res2 = ApiClient.postJsonWithAuth("notifications/mark_read.php", body, t, TIMEOUT)
-        if (!res2.ok) {
-            lastError = res2.errorMessage ?: res2.json?.optString("error") ?: "Failed"
-            lastHttpCode = res2.httpCode
-            lastRaw = res2.json?.toString()
-            return false
-        }
-        return true
+        //  NEW: patient/notifications_mark_all_read.php, FALLBACK: notifications/mark_read.php (mark_all=1)
+        return EndpointCapabilities.firstWorking(
+            ctx, "patient.notifications_mark_all",
+            listOf("patient/notifications_mark_all_read.php", "notifications/mark_read.php"),
+            tryNext = { EndpointCapabilities.isMissing(it.httpCode) || it.httpCode in 200..299 }
+        ) { path ->
+            val body = if (path == "notifications/mark_read.php") JSONObject().put("mark_all", 1) else JSONObject()
+            postOk(path, body, t)
+        }.settle() ?: false
     }
 
     /**  Mark ONE notification read (used by PatientNotificationsActivity) */
@@ -537,36 +655,23 @@ object PatientApi {
             return false
         }
 
-        val body = JSONObject().apply { put("notification_id", notificationId) }
-
-        //  1) NEW: patient/notifications_mark_read.php
-        runCatching {
-            val res = ApiClient.postJsonWithAuth("patient/notifications_mark_read.php", body, t, TIMEOUT)
-            if (res.ok) {
-                val root = res.json
-                val ok = root?.optBoolean("ok", true) ?: true
-                if (ok) return true
+        //  NEW: patient/notifications_mark_read.php, FALLBACK: notifications/mark_read.php (id)
+        return EndpointCapabilities.firstWorking(
+            ctx, "patient.notifications_mark_read",
+            listOf("patient/notifications_mark_read.php", "notifications/mark_read.php"),
+            tryNext = { EndpointCapabilities.isMissing(it.httpCode) || it.httpCode in 200..299 }
+        ) { path ->
+            val body = if (path == "notifications/mark_read.php") {
+                JSONObject().apply {
+                    put("notification_id", notificationId)
+                    put("id", notificationId)
+                    put("mark_all", 0)
+                }
             } else {
-                lastError = res.errorMessage ?: res.json?.optString("error") ?: "Failed"
-                lastHttpCode = res.httpCode
-                lastRaw = res.json?.toString()
+                JSONObject().apply { put("notification_id", notificationId) }
             }
-        }
-
-        //  2) FALLBACK: notifications/mark_read.php (id)
-        val body2 = JSONObject().apply {
-            put("notification_id", notificationId)
-            put("id", notificationId)
-            put("mark_all", 0)
-        }
-        val res2 = ApiClient.postJsonWithAuth("notifications/mark_read.php", body2, t, TIMEOUT)
-        if (!res2.ok) {
-            lastError = res2.errorMessage ?: res2.json?.optString("error") ?: "Failed"
-            lastHttpCode = res2.httpCode
-            lastRaw = res2.json?.toString()
-            return false
-        }
-        return true
+            postOk(path, body, t)
+        }.settle() ?: false
     }
 
     /**  Dismiss ONE notification (used by PatientNotificationsActivity) */
@@ -587,29 +692,38 @@ object PatientApi {
 
         val body = JSONObject().apply { put("notification_id", notificationId) }
 
-        //  1) NEW: patient/notifications_dismiss.php
-        runCatching {
-            val res = ApiClient.postJsonWithAuth("patient/notifications_dismiss.php", body, t, TIMEOUT)
-            if (res.ok) {
-                val root = res.json
-                val ok = root?.optBoolean("ok", true) ?: true
-                if (ok) return true
-            } else {
-                lastError = res.errorMessage ?: res.json?.optString("error") ?: "Failed"
-                lastHttpCode = res.httpCode
-                lastRaw = res.json?.toString()
-            }
-        }
-
-        //  2) FALLBACK: notifications/dismiss.php (if you have it)
-        runCatching {
-            val res2 = ApiClient.postJsonWithAuth("notifications/dismiss.php", body, t, TIMEOUT)
-            if (res2.ok) return true
-        }
+        //  NEW: patient/notifications_dismiss.php, FALLBACK: notifications/dismiss.php (if you have it)
+        val ok = EndpointCapabilities.firstWorking(
+            ctx, "patient.notifications_dismiss",
+            listOf("patient/notifications_dismiss.php", "notifications/dismiss.php"),
+            tryNext = { EndpointCapabilities.isMissing(it.httpCode) || it.httpCode in 200..299 }
+        ) { path ->
+            postOk(path, body, t)
+        }.settle() ?: false
 
         // if fallback doesn't exist, return failure
-        if (lastError.isNullOrBlank()) lastError = "Dismiss failed"
-        return false
+        if (!ok && lastError.isNullOrBlank()) lastError = "Dismiss failed"
+        return ok
+    }
+
+    /** POST that only cares about ok. */
+    private fun postOk(path: String, body: JSONObject, token: String): CallResult<Boolean> {
+        val res = runCatching { ApiClient.postJsonWithAuth(path, body, token, TIMEOUT) }
+            .getOrElse { return CallResult.Failed(it.message ?: "Network error") }
+        return if (res.ok) CallResult.Ok(true) else failureOf(res)
+    }
+
+    private fun failureOf(res: ApiClient.ApiResult): CallResult.Failed =
+        CallResult.Failed(res.errorMessage ?: res.json?.optString("error") ?: "Failed", res.httpCode, res.json?.toString())
+
+    // publish the final outcome of a firstWorking() call to the last* fields (and the typed-call status)
+    private fun <T> CallResult<T>.settle(): T? {
+        if (this is CallResult.Failed) {
+            lastError = error
+            lastHttpCode = httpCode
+            lastRaw = raw
+        }
+        return valueOrNull()
     }
 
 
@@ -639,7 +753,7 @@ object PatientApi {
             put("publicCode", key)
         }
 
-        val res = ApiClient.postJsonWithAuth("patient/appointment_detail.php", body, t, TIMEOUT)
+        val res = ApiClient.postJsonWithAuth("patient/appointment_detail.php", body, t, TIMEOUT, idempotent = true)
         if (!res.ok) {
             lastError = res.errorMessage ?: res.json?.optString("error") ?: "Failed"
             lastHttpCode = res.httpCode
@@ -673,25 +787,13 @@ object PatientApi {
         }
 
         return try {
-            val conn = (URL(urlStr).openConnection() as HttpURLConnection).apply {
-                requestMethod = "POST"
-                connectTimeout = TIMEOUT
-                readTimeout = TIMEOUT
-                doInput = true
-                doOutput = true
-                setRequestProperty("Content-Type", "application/json; charset=utf-8")
-                val t = token(ctx)
-                if (t.isNotBlank()) setRequestProperty("Authorization", "Bearer $t")
-            }
-
-            conn.outputStream.use { os ->
-                os.write(body.toString().toByteArray(Charsets.UTF_8))
-                os.flush()
-            }
+            val rb = HttpTransport.jsonRequest(urlStr, idempotent = true)
+                .post(body.toString().toRequestBody(HttpTransport.JSON_MEDIA))
+            val t = token(ctx)
+            if (t.isNotBlank()) rb.header("Authorization", "Bearer $t")
 
-            lastHttpCode = conn.responseCode
-            val stream = if (conn.responseCode in 200..299) conn.inputStream else conn.errorStream
-            val raw = stream.bufferedReader().use { it.readText() }
+            val (code, raw) = HttpTransport.fetchText(rb.build(), TIMEOUT)
+            lastHttpCode = code
             lastRaw = raw
 
             val json = JSONObject(raw)
@@ -717,41 +819,33 @@ object PatientApi {
         return http(ctx, "POST", urlStr, body)
     }
 
+    // one call's own status, independent of the shared last* fields
+    private class Http(val code: Int?, val json: JSONObject?, val error: String?, val raw: String?) {
+        fun failed() = CallResult.Failed(error ?: "Failed", code, raw)
+    }
+
     private fun http(ctx: Context, method: String, urlStr: String, body: JSONObject?): JSONObject? {
-        lastError = null
-        lastHttpCode = null
-        lastRaw = null
+        val r = httpCall(ctx, method, urlStr, body)
+        lastError = r.error
+        lastHttpCode = r.code
+        lastRaw = r.raw
+        return r.json
+    }
 
-        var conn: HttpURLConnection? = null
+    private fun httpCall(ctx: Context, method: String, urlStr: String, body: JSONObject?): Http {
         return try {
-            conn = (URL(urlStr).openConnection() as HttpURLConnection).apply {
-                connectTimeout = 25_000
-                readTimeout = 25_000
-                requestMethod = method
-                useCaches = false
-                setRequestProperty("Accept", "application/json")
-                setRequestProperty("Content-Type", "application/json; charset=utf-8")
-
-                val t = token(ctx)
-                if (t.isNotBlank()) setRequestProperty("Authorization", "Bearer $t")
-                if (method == "POST") doOutput = true
-            }
-
-            if (method == "POST" && body != null) {
-                conn.outputStream.use { it.write(body.toString().toByteArray(Charsets.UTF_8)) }
+            val rb = HttpTransport.jsonRequest(urlStr)
+            val t = token(ctx)
+            if (t.isNotBlank()) rb.header("Authorization", "Bearer $t")
+            if (method == "POST") {
+                rb.post((body ?: JSONObject()).toString().toRequestBody(HttpTransport.JSON_MEDIA))
+            } else {
+                rb.method(method, null)
             }
 
-            val code = conn.responseCode
-            lastHttpCode = code
+            val (code, raw) = HttpTransport.fetchText(rb.build(), 25_000)
 
-            val stream = if (code in 200..299) conn.inputStream else conn.errorStream
-            val raw = stream?.bufferedReader(Charsets.UTF_8)?.use { it.readText() }.orEmpty()
-            lastRaw = raw
-
-            if (raw.isBlank()) {
-                lastError = "Empty response"
-                return null
-            }
+            if (raw.isBlank()) return Http(code, null, "Empty response", raw)
 
             var txt = raw.trimStart().removePrefix("\uFEFF")
             if (txt.startsWith("<!--")) {
@@ -760,20 +854,12 @@ object PatientApi {
             }
 
             val json = runCatching { JSONObject(txt) }.getOrNull()
-            if (json == null) {
-                lastError = "Non-JSON response (HTTP $code): " + txt.take(120)
-                return null
-            }
+                ?: return Http(code, null, "Non-JSON response (HTTP $code): " + txt.take(120), raw)
 
             val ok = json.optBoolean("ok", false) || json.optBoolean("success", false)
-            if (!ok) lastError = json.optString("error").ifBlank { "Request failed" }
-
-            json
+            Http(code, json, if (ok) null else json.optString("error").ifBlank { "Request failed" }, raw)
         } catch (e: Exception) {
-            lastError = e.message ?: "Network error"
-            null
-        } finally {
-            try { conn?.disconnect() } catch (_: Exception) {}
+            Http(null, null, e.message ?: "Network error", null)
         }
     }
 }
@@ -9,10 +9,10 @@ import androidx.lifecycle.lifecycleScope
 import androidx.recyclerview.widget.GridLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import com.simats.criticall.BaseActivity
+import com.simats.criticall.CallResult
+import com.simats.criticall.FanOut
 import com.simats.criticall.R
-import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.withContext
 import org.json.JSONArray
 import org.json.JSONObject
 import java.text.SimpleDateFormat
@@ -58,6 +58,7 @@ class PatientDoctorDetailsActivity : BaseActivity() {
     private var gateLoaded = false
 
     private val dfIso = SimpleDateFormat("yyyy-MM-dd", Locale.US)
+    private val LOAD_DEADLINE_MS = 20_000L
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
@@ -143,13 +144,12 @@ class PatientDoctorDetailsActivity : BaseActivity() {
             return
         }
 
-        loadDoctorFromDb()
-        refreshGateAndSlots()
+        refreshAll(withDoctor = true)
     }
 
     override fun onResume() {
         super.onResume()
-        if (doctorId > 0) refreshGateAndSlots()
+        if (doctorId > 0) refreshAll(withDoctor = false)
     }
     private fun parseFeeTextToLong(s: String?): Long {
         val raw = s?.trim().orEmpty()
@@ -170,44 +170,53 @@ class PatientDoctorDetailsActivity : BaseActivity() {
         return num.toLong().coerceAtLeast(0L)
     }
 
-    private fun refreshGateAndSlots() {
+    // doctor detail + booking gate + slot preview in parallel, one shared deadline
+    private fun refreshAll(withDoctor: Boolean) {
+        val ctx = applicationContext
         lifecycleScope.launch {
-            val st = withContext(Dispatchers.IO) {
-                PatientApi.getDoctorBookingStatus(this@PatientDoctorDetailsActivity, doctorId)
+            FanOut.within(LOAD_DEADLINE_MS) {
+                val doc = if (withDoctor) call { PatientApi.doctorDetail(ctx, doctorId) } else null
+                val gate = call { PatientApi.bookingStatus(ctx, doctorId) }
+                val days = call { PatientApi.availableDays(ctx, doctorId) }
+
+                doc?.let { bindDoctorResult(it.await()) }
+                applyGate(gate.await().valueOrNull())
+                renderSlotPreview(days.await().valueOrNull())
+                gateLoaded = true
+                maybeAutoOpenSlots()
             }
+        }
+    }
 
-            val obj = (st?.optJSONObject("data") ?: st) ?: JSONObject()
-
-            var gate = obj.optBoolean("hasActiveBooking", false)
-
-            val status = obj.optString("status", "").trim().uppercase(Locale.US)
-            val scheduledAt = obj.optString("scheduled_at", "").trim()
-
-            //  If backend forgot to update status, don't block after time passed
-            if (gate) {
-                if (isTerminalStatus(status)) {
-                    gate = false
-                } else {
-                    val scheduledMs = parseScheduledAtMillis(scheduledAt)
-                    if (scheduledMs != null) {
-                        val graceMs = 15L * 60L * 1000L
-                        val nowMs = System.currentTimeMillis()
-                        if (scheduledMs < (nowMs - graceMs) && status != "IN_PROGRESS") {
-                            gate = false
-                        }
+    private fun applyGate(st: JSONObject?) {
+        val obj = (st?.optJSONObject("data") ?: st) ?: JSONObject()
+
+        var gate = obj.optBoolean("hasActiveBooking", false)
+
+        val status = obj.optString("status", "").trim().uppercase(Locale.US)
+        val scheduledAt = obj.optString("scheduled_at", "").trim()
+
+        //  If backend forgot to update status, don't block after time passed
+        if (gate) {
+            if (isTerminalStatus(status)) {
+                gate = false
+            } else {
+                val scheduledMs = parseScheduledAtMillis(scheduledAt)
+                if (scheduledMs != null) {
+                    val graceMs = 15L * 60L * 1000L
+                    val nowMs = System.currentTimeMillis()
+                    if (scheduledMs < (nowMs - graceMs) && status != "IN_PROGRESS") {
+                        gate = false
                     }
                 }
             }
+        }
 
-            hasActiveBooking = gate
-            activeBookingId = obj.optString("appointmentId", "").orEmpty()
-            activeBookingPublicCode = obj.optString("public_code", "").orEmpty()
+        hasActiveBooking = gate
+        activeBookingId = obj.optString("appointmentId", "").orEmpty()
+        activeBookingPublicCode = obj.optString("public_code", "").orEmpty()
 
-            applyBookingGateUi()
-            loadSlotPreviewFromDb()
-            gateLoaded = true
-            maybeAutoOpenSlots()
-        }
+        applyBookingGateUi()
     }
 
     private fun isTerminalStatus(s: String): Boolean {
@@ -299,42 +308,31 @@ class PatientDoctorDetailsActivity : BaseActivity() {
         startActivity(itn)
     }
 
-    private fun loadDoctorFromDb() {
-        lifecycleScope.launch {
-            val d = withContext(Dispatchers.IO) {
-                PatientApi.getDoctorDetail(this@PatientDoctorDetailsActivity, doctorId)
-            }
-
-            if (d == null) {
-                Toast.makeText(
-                    this@PatientDoctorDetailsActivity,
-                    PatientApi.lastError ?: getString(R.string.failed),
-                    Toast.LENGTH_SHORT
-                ).show()
-                return@launch
-            }
-
-            bindDoctor(d)
-            doctorLoaded = true
-            maybeAutoOpenSlots()
+    private fun bindDoctorResult(res: CallResult<JSONObject>) {
+        val d = res.valueOrNull()
+        if (d == null) {
+            Toast.makeText(
+                this,
+                res.errorOrNull() ?: getString(R.string.failed),
+                Toast.LENGTH_SHORT
+            ).show()
+            return
         }
-    }
 
-    private fun loadSlotPreviewFromDb() {
-        lifecycleScope.launch {
-            val daysArr = withContext(Dispatchers.IO) {
-                PatientApi.getAvailableDays(this@PatientDoctorDetailsActivity, doctorId)
-            }
+        bindDoctor(d)
+        doctorLoaded = true
+        maybeAutoOpenSlots()
+    }
 
-            val todayIso = dfIso.format(Date())
-            val tomorrowIso = dfIso.format(Date(System.currentTimeMillis() + 24L * 60L * 60L * 1000L))
+    private fun renderSlotPreview(daysArr: JSONArray?) {
+        val todayIso = dfIso.format(Date())
+        val tomorrowIso = dfIso.format(Date(System.currentTimeMillis() + 24L * 60L * 60L * 1000L))
 
-            val todaySlots = extractEnabledSlots(daysArr, todayIso, maxSlots = 6)
-            val tomorrowSlots = extractEnabledSlots(daysArr, tomorrowIso, maxSlots = 6)
+        val todaySlots = extractEnabledSlots(daysArr, todayIso, maxSlots = 6)
+        val tomorrowSlots = extractEnabledSlots(daysArr, tomorrowIso, maxSlots = 6)
 
-            renderPreview(rvToday, tvTodayEmpty, todaySlots)
-            renderPreview(rvTomorrow, tvTomorrowEmpty, tomorrowSlots)
-        }
+        renderPreview(rvToday, tvTodayEmpty, todaySlots)
+        renderPreview(rvTomorrow, tvTomorrowEmpty, tomorrowSlots)
     }
 
     private fun extractEnabledSlots(daysArr: JSONArray?, dateIso: String, maxSlots: Int): JSONArray {
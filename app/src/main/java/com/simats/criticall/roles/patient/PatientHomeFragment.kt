@@ -16,13 +16,17 @@ import androidx.fragment.app.Fragment
 import androidx.lifecycle.lifecycleScope
 import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
-import com.simats.criticall.ApiConfig.BASE_URL
 import com.simats.criticall.AppPrefs
+import com.simats.criticall.CallResult
+import com.simats.criticall.FanOut
 import com.simats.criticall.LocalCache
+import com.simats.criticall.MutationOutbox
 import com.simats.criticall.PatientOfflineChatBottomSheet
 import com.simats.criticall.PredictedAlertRepository
 import com.simats.criticall.R
+import com.simats.criticall.SwrSnapshots
 import com.simats.criticall.TranslationManager
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.delay
@@ -31,8 +35,6 @@ import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import org.json.JSONArray
 import org.json.JSONObject
-import java.net.HttpURLConnection
-import java.net.URL
 import java.text.SimpleDateFormat
 import java.util.Locale
 import kotlin.math.max
@@ -71,22 +73,27 @@ class PatientHomeFragment : Fragment() {
     private val rows = ArrayList<ApptRow>()
     private lateinit var adapter: UpcomingAdapter
 
-    private var badgeLoading = false
     private var lastUnreadCount = 0
-
-    private var headerLoading = false
     private var lastHeaderName = ""
+    private var boundUpcomingFp: String? = null
 
     private var pollingJob: Job? = null
-    private var loadingUpcoming = false
+    private var refreshing = false
 
     // ---- cache keys
-    private val KEY_HOME_UPCOMING_JSON = "patient_home_upcoming_json"
     private val KEY_HOME_BADGE_COUNT = "patient_home_badge_count"
-    private val KEY_HOME_HEADER_NAME = "patient_home_header_name"
-    private val KEY_HOME_UPCOMING_TS = "patient_home_upcoming_ts"
     private val KEY_HOME_BADGE_TS = "patient_home_badge_ts"
-    private val KEY_HOME_HEADER_TS = "patient_home_header_ts"
+
+    // ---- stale-while-revalidate snapshots (per user)
+    private val SNAP_DASHBOARD = "patient_dashboard"
+    private val SNAP_UPCOMING = "patient_upcoming"
+    // pre-snapshot LocalCache keys, moved over once by adoptLegacyCaches
+    private val LEGACY_UPCOMING_JSON = "patient_home_upcoming_json"
+    private val LEGACY_UPCOMING_TS = "patient_home_upcoming_ts"
+    private val LEGACY_HEADER_NAME = "patient_home_header_name"
+    private val LEGACY_HEADER_TS = "patient_home_header_ts"
+
+    private val REFRESH_DEADLINE_MS = 20_000L
 
     override fun onCreateView(i: LayoutInflater, c: ViewGroup?, s: Bundle?): View {
         return i.inflate(R.layout.fragment_patient_home, c, false)
@@ -165,16 +172,13 @@ class PatientHomeFragment : Fragment() {
         bindTile(v, R.id.card_ai_assistant) { openAiAssistant() }
         v.findViewById<View>(R.id.btn_ai_assistant)?.setOnClickListener { openAiAssistant() }
 
-        // ✅ show cached immediately (offline fast)
+        // ✅ show last snapshot immediately (offline fast); onResume revalidates it
+        boundUpcomingFp = null
+        adoptLegacyCaches()
         loadCachedHeaderName()
         loadCachedUpcoming()
         loadCachedBadge()
 
-        // then refresh online (if token valid)
-        loadHeaderName(force = true)
-        loadUpcoming(force = true)
-        loadUnreadBadge(force = true)
-
         applyTranslations()
     }
 
@@ -201,15 +205,8 @@ class PatientHomeFragment : Fragment() {
 
     override fun onResume() {
         super.onResume()
-        // show cache instantly again (no flicker)
-        loadCachedHeaderName()
-        loadCachedUpcoming()
-        loadCachedBadge()
-
-        // refresh online
-        loadHeaderName(force = false)
-        loadUpcoming(force = true)
-        loadUnreadBadge(force = true)
+        // views still hold the last bound data; just revalidate (binds only on a real change)
+        refreshOnline(force = true, withHeader = true)
 
         applyTranslations()
     }
@@ -219,8 +216,7 @@ class PatientHomeFragment : Fragment() {
         pollingJob = viewLifecycleOwner.lifecycleScope.launch {
             while (isActive) {
                 delay(15_000)
-                loadUpcoming(force = false)
-                loadUnreadBadge(force = false)
+                refreshOnline(force = false, withHeader = false)
             }
         }
     }
@@ -257,11 +253,23 @@ class PatientHomeFragment : Fragment() {
         }
     }
 
+    // caches written before SwrSnapshots (no-op once they are gone)
+    private fun adoptLegacyCaches() {
+        val ctx = requireContext()
+        SwrSnapshots.adoptLegacy(ctx, SNAP_DASHBOARD, LEGACY_HEADER_NAME, LEGACY_HEADER_TS) { name ->
+            JSONObject().put("full_name", name.trim()).toString()
+        }
+        SwrSnapshots.adoptLegacy(ctx, SNAP_UPCOMING, LEGACY_UPCOMING_JSON, LEGACY_UPCOMING_TS) { json ->
+            runCatching { JSONArray(json).toString() }.getOrNull()
+        }
+    }
+
     // ----------------------------
     // ✅ Cached Header Name
     // ----------------------------
     private fun loadCachedHeaderName() {
-        val cached = LocalCache.getString(requireContext(), KEY_HOME_HEADER_NAME).orEmpty().trim()
+        val snap = SwrSnapshots.load(requireContext(), SNAP_DASHBOARD)?.json() ?: return
+        val cached = extractFullNameFromDashboard(snap)
         if (cached.isNotBlank()) {
             lastHeaderName = cached
             tvName.text = formatNameForHeader(cached)
@@ -269,43 +277,53 @@ class PatientHomeFragment : Fragment() {
     }
 
     // ----------------------------
-    // Header name from dashboard.php
+    // Online refresh: dashboard + upcoming + unread badge in parallel (one shared deadline)
     // ----------------------------
-    private fun loadHeaderName(force: Boolean) {
-        if (headerLoading && !force) return
+    private fun refreshOnline(force: Boolean, withHeader: Boolean) {
+        if (refreshing && !force) return
+        refreshing = true
 
-        val token = AppPrefs.getToken(requireContext()).orEmpty()
-        if (token.isBlank()) return // offline ok (cache already shown)
+        val ctx = requireContext().applicationContext
+        val hasToken = AppPrefs.getToken(ctx).orEmpty().isNotBlank()
+        if (!hasToken) loadCachedBadge() // offline ok (cache already shown)
 
-        headerLoading = true
         viewLifecycleOwner.lifecycleScope.launch {
             try {
-                val dash = withContext(Dispatchers.IO) {
-                    PatientApi.getDashboard(requireContext())
+                FanOut.within(REFRESH_DEADLINE_MS) {
+                    val dash = if (withHeader && hasToken) call { PatientApi.dashboard(ctx) } else null
+                    val upcoming = call { PatientApi.appointments(ctx, view = "UPCOMING", limit = 5, offset = 0) }
+                    val unread = if (hasToken) call { PatientApi.notifications(ctx, unreadOnly = true) } else null
+
+                    bindUpcoming(upcoming.await())
+                    dash?.let { bindHeaderName(it.await()) }
+                    unread?.let { bindUnreadBadge(it.await()) }
                 }
-                if (!isAdded) return@launch
-                if (dash == null || dash.optBoolean("ok", false) != true) return@launch
-
-                val fullName = extractFullNameFromDashboard(dash)
-                if (fullName.isBlank()) return@launch
-
-                if (fullName != lastHeaderName) {
-                    lastHeaderName = fullName
-                    tvName.text = formatNameForHeader(fullName)
-                }
-
-                // ✅ cache
-                LocalCache.putString(requireContext(), KEY_HOME_HEADER_NAME, fullName)
-                LocalCache.putLong(requireContext(), KEY_HOME_HEADER_TS, System.currentTimeMillis())
-
             } catch (t: Throwable) {
-                Log.e("PatientHome", "loadHeaderName failed", t)
+                if (t is CancellationException) throw t
+                Log.e("PatientHome", "refreshOnline failed", t)
             } finally {
-                headerLoading = false
+                refreshing = false
             }
         }
     }
 
+    // ----------------------------
+    // Header name from dashboard.php
+    // ----------------------------
+    private fun bindHeaderName(res: CallResult<JSONObject>) {
+        if (!isAdded) return
+        val dash = res.valueOrNull() ?: return
+        SwrSnapshots.save(requireContext(), SNAP_DASHBOARD, dash.toString())
+
+        val fullName = extractFullNameFromDashboard(dash)
+        if (fullName.isBlank()) return
+
+        if (fullName != lastHeaderName) {
+            lastHeaderName = fullName
+            tvName.text = formatNameForHeader(fullName)
+        }
+    }
+
     private fun extractFullNameFromDashboard(root: JSONObject): String {
         fun clean(s: String?): String {
             val t = (s ?: "").trim()
@@ -331,10 +349,7 @@ class PatientHomeFragment : Fragment() {
     // ✅ Cached Upcoming
     // ----------------------------
     private fun loadCachedUpcoming() {
-        val cached = LocalCache.getString(requireContext(), KEY_HOME_UPCOMING_JSON).orEmpty()
-        if (cached.isBlank()) return
-
-        val arr = runCatching { JSONArray(cached) }.getOrNull() ?: return
+        val arr = SwrSnapshots.load(requireContext(), SNAP_UPCOMING)?.array() ?: return
         val newRows = ArrayList<ApptRow>()
         for (i in 0 until arr.length()) {
             val o = arr.optJSONObject(i) ?: continue
@@ -345,61 +360,41 @@ class PatientHomeFragment : Fragment() {
             rows.addAll(newRows)
             adapter.notifyDataSetChanged()
             showEmpty(rows.isEmpty())
+            boundUpcomingFp = SwrSnapshots.fingerprint(arr)
         }
     }
 
     // ----------------------------
-    // Upcoming loader (refresh online; fallback to cache on fail)
+    // Upcoming (fallback to cache on fail)
     // ----------------------------
-    private fun loadUpcoming(force: Boolean) {
-        if (loadingUpcoming && !force) return
-        loadingUpcoming = true
-
-        viewLifecycleOwner.lifecycleScope.launch {
-            try {
-                val items: JSONArray? = withContext(Dispatchers.IO) {
-                    PatientApi.listAppointments(
-                        requireContext(),
-                        view = "UPCOMING",
-                        limit = 5,
-                        offset = 0
-                    )
-                }
-
-                if (!isAdded) return@launch
-
-                if (items == null) {
-                    // ✅ keep cached / keep current list
-                    Log.e("PatientHome", "listAppointments(UPCOMING) null: ${PatientApi.lastError}")
-                    if (rows.isEmpty()) loadCachedUpcoming()
-                    showEmpty(rows.isEmpty())
-                    return@launch
-                }
-
-                val newRows = ArrayList<ApptRow>()
-                for (i in 0 until items.length()) {
-                    val o = items.optJSONObject(i) ?: continue
-                    ApptRow.from(o)?.let { newRows.add(it) }
-                }
+    private fun bindUpcoming(res: CallResult<JSONArray>) {
+        if (!isAdded) return
 
-                rows.clear()
-                rows.addAll(newRows)
-                adapter.notifyDataSetChanged()
-                showEmpty(rows.isEmpty())
+        val items = res.valueOrNull()
+        if (items == null) {
+            // ✅ keep cached / keep current list
+            Log.e("PatientHome", "listAppointments(UPCOMING) failed: ${res.errorOrNull()}")
+            if (rows.isEmpty()) loadCachedUpcoming()
+            showEmpty(rows.isEmpty())
+            return
+        }
 
-                // ✅ cache raw array for offline
-                LocalCache.putString(requireContext(), KEY_HOME_UPCOMING_JSON, items.toString())
-                LocalCache.putLong(requireContext(), KEY_HOME_UPCOMING_TS, System.currentTimeMillis())
+        // ✅ same as what's on screen -> no re-bind
+        val fp = SwrSnapshots.fingerprint(items)
+        SwrSnapshots.save(requireContext(), SNAP_UPCOMING, items.toString(), fp)
+        if (fp == boundUpcomingFp) return
 
-            } catch (t: Throwable) {
-                if (!isAdded) return@launch
-                Log.e("PatientHome", "loadUpcoming failed", t)
-                if (rows.isEmpty()) loadCachedUpcoming()
-                showEmpty(rows.isEmpty())
-            } finally {
-                loadingUpcoming = false
-            }
+        val newRows = ArrayList<ApptRow>()
+        for (i in 0 until items.length()) {
+            val o = items.optJSONObject(i) ?: continue
+            ApptRow.from(o)?.let { newRows.add(it) }
         }
+
+        rows.clear()
+        rows.addAll(newRows)
+        adapter.notifyDataSetChanged()
+        showEmpty(rows.isEmpty())
+        boundUpcomingFp = fp
     }
 
     private fun showEmpty(empty: Boolean) {
@@ -417,54 +412,38 @@ class PatientHomeFragment : Fragment() {
     }
 
     // ----------------------------
-    // Unread badge loader (fallback to cached count)
+    // Unread badge (fallback to cached count)
     // ----------------------------
-    private fun loadUnreadBadge(force: Boolean) {
-        if (badgeLoading && !force) return
+    private suspend fun bindUnreadBadge(res: CallResult<JSONArray>) {
+        if (!isAdded) return
 
-        val token = AppPrefs.getToken(requireContext()).orEmpty()
-        if (token.isBlank()) {
-            loadCachedBadge()
+        val arr = res.valueOrNull()
+        if (arr == null) {
+            // token could be expired -> keep cached
+            setBadge(lastUnreadCount)
             return
         }
 
-        badgeLoading = true
-
-        val url = BASE_URL +
-                "patient/notifications_list.php?unread=1&limit=200&_ts=" +
-                System.currentTimeMillis()
-
-        viewLifecycleOwner.lifecycleScope.launch {
-            try {
-                val raw = withContext(Dispatchers.IO) { httpGetRaw(url, token) }
-                if (!isAdded) return@launch
-
-                if (raw == null) {
-                    setBadge(lastUnreadCount)
-                    return@launch
-                }
-
-                val body = raw.second
-                val json = runCatching { JSONObject(body) }.getOrNull()
-                if (json?.optBoolean("ok", false) != true) {
-                    // token could be expired -> keep cached
-                    setBadge(lastUnreadCount)
-                    return@launch
-                }
-
-                val arr = json.optJSONArray("data") ?: JSONArray()
-                val count = arr.length()
-                lastUnreadCount = count
-                setBadge(count)
-
-                // ✅ cache badge
-                LocalCache.putInt(requireContext(), KEY_HOME_BADGE_COUNT, count)
-                LocalCache.putLong(requireContext(), KEY_HOME_BADGE_TS, System.currentTimeMillis())
-
-            } finally {
-                badgeLoading = false
-            }
+        // minus what the outbox has already read/dismissed locally (SQLite read, off the main thread)
+        val ctx = requireContext().applicationContext
+        val done = withContext(Dispatchers.IO) {
+            (MutationOutbox.pending(ctx, MutationOutbox.KIND_NOTIF_READ) +
+                MutationOutbox.pending(ctx, MutationOutbox.KIND_NOTIF_DISMISS))
+                .map { it.optLong("notification_id", 0L) }
+                .toSet()
         }
+        if (!isAdded) return
+        var count = 0
+        for (i in 0 until arr.length()) {
+            val id = arr.optJSONObject(i)?.optLong("id", 0L) ?: 0L
+            if (id !in done) count++
+        }
+        lastUnreadCount = count
+        setBadge(count)
+
+        // ✅ cache badge
+        LocalCache.putInt(requireContext(), KEY_HOME_BADGE_COUNT, count)
+        LocalCache.putLong(requireContext(), KEY_HOME_BADGE_TS, System.currentTimeMillis())
     }
 
     private fun setBadge(count: Int) {
@@ -478,28 +457,6 @@ class PatientHomeFragment : Fragment() {
         tvBadge.text = if (count > 99) "99+" else count.toString()
     }
 
-    private fun httpGetRaw(urlStr: String, token: String): Pair<Int, String>? {
-        var conn: HttpURLConnection? = null
-        return try {
-            conn = (URL(urlStr).openConnection() as HttpURLConnection).apply {
-                requestMethod = "GET"
-                connectTimeout = 15000
-                readTimeout = 15000
-                setRequestProperty("Accept", "application/json")
-                setRequestProperty("Authorization", "Bearer $token")
-            }
-            val code = conn.responseCode
-            val stream = if (code in 200..299) conn.inputStream else conn.errorStream
-            val text = stream?.bufferedReader()?.use { it.readText() }.orEmpty()
-            Pair(code, text)
-        } catch (t: Throwable) {
-            Log.e("PatientHome", "GET error", t)
-            null
-        } finally {
-            try { conn?.disconnect() } catch (_: Throwable) {}
-        }
-    }
-
     private fun dp(v: Int): Int = (resources.displayMetrics.density * v).toInt()
 
     private fun openAiAssistant() {
@@ -24,6 +24,7 @@ import com.google.android.material.card.MaterialCardView
 import com.simats.criticall.ApiConfig.BASE_URL
 import com.simats.criticall.AppPrefs
 import com.simats.criticall.BaseActivity
+import com.simats.criticall.MutationOutbox
 import com.simats.criticall.R
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
@@ -250,23 +251,26 @@ class PatientMedicineDetailsActivity : BaseActivity() {
             return
         }
 
-        val url = API_BASE + "patient/medicine_request_create.php"
-
         lifecycleScope.launch {
-            val res = withContext(Dispatchers.IO) {
-                postJson(url, token, JSONObject().apply {
-                    put("pharmacist_user_id", pharmacistUserId)
-                    put("medicine_name", medicineName)
-                    put("strength", strength)
-                    put("quantity", qty)
-                })
-            }
-
-            if (res?.optBoolean("ok", false) != true) {
-                val msg = res?.optString("error")?.ifBlank { getString(R.string.failed) }
-                    ?: getString(R.string.failed)
-                Toast.makeText(this@PatientMedicineDetailsActivity, msg, Toast.LENGTH_LONG).show()
-                // still allow dialer so user can proceed
+            // outbox: offline requests are kept and sent when the network is back
+            val res = MutationOutbox.submit(
+                this@PatientMedicineDetailsActivity,
+                MutationOutbox.createMedicineRequest(pharmacistUserId, medicineName, strength, qty)
+            )
+
+            // still allow dialer so user can proceed
+            when (res) {
+                is MutationOutbox.Submit.Sent -> Unit
+                is MutationOutbox.Submit.Queued -> Toast.makeText(
+                    this@PatientMedicineDetailsActivity,
+                    getString(R.string.saved_will_sync_when_online),
+                    Toast.LENGTH_LONG
+                ).show()
+                is MutationOutbox.Submit.Rejected -> Toast.makeText(
+                    this@PatientMedicineDetailsActivity,
+                    res.error.ifBlank { getString(R.string.failed) },
+                    Toast.LENGTH_LONG
+                ).show()
             }
 
             val granted = ContextCompat.checkSelfPermission(
@@ -307,40 +311,6 @@ class PatientMedicineDetailsActivity : BaseActivity() {
         }
     }
 
-    private fun postJson(urlStr: String, token: String, body: JSONObject): JSONObject? {
-        var conn: HttpURLConnection? = null
-        return try {
-            conn = (URL(urlStr).openConnection() as HttpURLConnection).apply {
-                requestMethod = "POST"
-                connectTimeout = 15000
-                readTimeout = 15000
-                doOutput = true
-                setRequestProperty("Accept", "application/json")
-                setRequestProperty("Content-Type", "application/json; charset=utf-8")
-                setRequestProperty("Authorization", "Bearer $token")
-            }
-            conn.outputStream.use { os ->
-                os.write(body.toString().toByteArray(Charsets.UTF_8))
-            }
-
-            val code = conn.responseCode
-            val stream = if (code in 200..299) conn.inputStream else conn.errorStream
-            val text = stream?.bufferedReader()?.use { it.readText() }.orEmpty()
-
-            runCatching { JSONObject(text) }.getOrElse {
-                JSONObject().apply {
-                    put("ok", false)
-                    put("error", "HTTP $code (non-JSON)")
-                    put("raw", text.take(800))
-                }
-            }
-        } catch (_: Throwable) {
-            null
-        } finally {
-            try { conn?.disconnect() } catch (_: Throwable) {}
-        }
-    }
-
     // ============================================
     // Existing loadDetails()
     // ============================================
@@ -10,6 +10,7 @@ import androidx.lifecycle.lifecycleScope
 import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import com.simats.criticall.BaseActivity
+import com.simats.criticall.MutationOutbox
 import com.simats.criticall.R
 import com.simats.criticall.notifications.NotificationsAdapter
 import kotlinx.coroutines.Dispatchers
@@ -102,6 +103,10 @@ class PatientNotificationsActivity : BaseActivity() {
             val arr = withContext(Dispatchers.IO) {
                 PatientApi.listNotifications(this@PatientNotificationsActivity, unreadOnly = unreadOnly)
             }
+            // read/dismiss still sitting in the outbox are shown as already applied
+            val (pendingRead, pendingDismiss) = withContext(Dispatchers.IO) {
+                pendingIds(MutationOutbox.KIND_NOTIF_READ) to pendingIds(MutationOutbox.KIND_NOTIF_DISMISS)
+            }
 
             if (arr == null) {
                 Toast.makeText(
@@ -116,7 +121,16 @@ class PatientNotificationsActivity : BaseActivity() {
             }
 
             val newItems = ArrayList<JSONObject>()
-            for (i in 0 until arr.length()) arr.optJSONObject(i)?.let { newItems.add(it) }
+            for (i in 0 until arr.length()) {
+                val o = arr.optJSONObject(i) ?: continue
+                val id = readNotifId(o)
+                if (id in pendingDismiss) continue
+                if (id in pendingRead) {
+                    if (unreadOnly) continue
+                    o.put("is_read", 1)
+                }
+                newItems.add(o)
+            }
 
             items.clear()
             items.addAll(newItems)
@@ -135,40 +149,39 @@ class PatientNotificationsActivity : BaseActivity() {
         val id = readNotifId(o)
         if (id <= 0L) return
 
+        // optimistic: gone now, the outbox delivers it (also offline)
+        adapter.removeById(id)
+        updateEmpty()
+
         lifecycleScope.launch {
-            val ok = withContext(Dispatchers.IO) {
-                PatientApi.dismissNotification(this@PatientNotificationsActivity, id)
-            }
-            if (ok) {
-                adapter.removeById(id)
-                updateEmpty()
-            } else {
+            val res = MutationOutbox.submit(this@PatientNotificationsActivity, MutationOutbox.dismissNotification(id))
+            if (res is MutationOutbox.Submit.Rejected) {
                 Toast.makeText(
                     this@PatientNotificationsActivity,
-                    PatientApi.lastError ?: getString(R.string.failed),
+                    res.error.ifBlank { getString(R.string.failed) },
                     Toast.LENGTH_SHORT
                 ).show()
+                load()
             }
         }
     }
 
+    private fun pendingIds(kind: String): Set<Long> =
+        MutationOutbox.pending(this, kind).map { it.optLong("notification_id", 0L) }.toSet()
+
     private fun onOpen(o: JSONObject, markReadIfNeeded: Boolean) {
         val id = readNotifId(o)
         val isRead = o.optInt("is_read", 0) == 1
 
         if (markReadIfNeeded && id > 0L && !isRead) {
+            adapter.markReadById(id)
+            if (unreadOnly) {
+                // remove from list in Unread tab after marking read
+                adapter.removeById(id)
+                updateEmpty()
+            }
             lifecycleScope.launch {
-                val ok = withContext(Dispatchers.IO) {
-                    PatientApi.markNotificationRead(this@PatientNotificationsActivity, id)
-                }
-                if (ok) {
-                    adapter.markReadById(id)
-                    if (unreadOnly) {
-                        // remove from list in Unread tab after marking read
-                        adapter.removeById(id)
-                        updateEmpty()
-                    }
-                }
+                MutationOutbox.submit(this@PatientNotificationsActivity, MutationOutbox.markNotificationRead(id))
             }
         }
 
@@ -16,6 +16,7 @@ import com.google.android.material.button.MaterialButton
 import com.simats.criticall.ApiConfig.BASE_URL
 import com.simats.criticall.AppPrefs
 import com.simats.criticall.BaseActivity
+import com.simats.criticall.HttpTransport
 import com.simats.criticall.LocalCache
 import com.simats.criticall.R
 import kotlinx.coroutines.Dispatchers
@@ -23,8 +24,6 @@ import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import org.json.JSONArray
 import org.json.JSONObject
-import java.net.HttpURLConnection
-import java.net.URL
 import java.text.SimpleDateFormat
 import java.util.Locale
 import java.util.TimeZone
@@ -233,8 +232,7 @@ class PatientPrescriptionDetailsActivity : BaseActivity() {
             vLoading.isVisible = true
 
             val url = BASE_URL +
-                    "patient/prescription_detail.php?prescription_id=" + prescriptionId +
-                    "&_ts=" + System.currentTimeMillis()
+                    "patient/prescription_detail.php?prescription_id=" + prescriptionId
 
             val res = withContext(Dispatchers.IO) { getJsonAuth(url, token) }
 
@@ -481,25 +479,13 @@ class PatientPrescriptionDetailsActivity : BaseActivity() {
     }
 
     private fun getJsonAuth(urlStr: String, token: String): JSONObject {
-        var conn: HttpURLConnection? = null
         return try {
-            conn = (URL(urlStr).openConnection() as HttpURLConnection).apply {
-                requestMethod = "GET"
-                connectTimeout = 20000
-                readTimeout = 20000
-                setRequestProperty("Accept", "application/json")
-                setRequestProperty("Authorization", "Bearer $token")
-            }
-            val code = conn.responseCode
-            val stream = if (code in 200..299) conn.inputStream else conn.errorStream
-            val text = stream?.bufferedReader()?.use { it.readText() }.orEmpty()
+            val text = HttpTransport.getText(urlStr, token, 20000).body
             runCatching { JSONObject(text) }.getOrElse {
                 JSONObject().put("ok", false).put("error", "Invalid server response")
             }
         } catch (_: Throwable) {
             JSONObject().put("ok", false).put("error", "Network error")
-        } finally {
-            try { conn?.disconnect() } catch (_: Throwable) {}
         }
     }
 }
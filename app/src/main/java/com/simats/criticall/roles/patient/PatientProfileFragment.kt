@@ -21,6 +21,7 @@ import com.simats.criticall.BuildConfig
 import com.simats.criticall.LanguageChangeActivity
 import com.simats.criticall.R
 import com.simats.criticall.RoleSelectActivity
+import com.simats.criticall.SessionReset
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
@@ -289,6 +290,7 @@ class PatientProfileFragment : Fragment() {
         dialogView.findViewById<View>(R.id.btnLogout).setOnClickListener {
             dlg.dismiss()
             AppPrefs.setToken(requireContext(), "")
+            SessionReset.onLogout(requireContext())
             startActivity(Intent(requireContext(), RoleSelectActivity::class.java).apply {
                 flags = Intent.FLAG_ACTIVITY_NEW_TASK or Intent.FLAG_ACTIVITY_CLEAR_TASK
             })
@@ -6,7 +6,6 @@ import android.widget.EditText
 import android.widget.Toast
 import androidx.activity.OnBackPressedCallback
 import com.google.android.material.button.MaterialButton
-import com.simats.criticall.ApiConfig.BASE_URL
 import com.simats.criticall.AppPrefs
 import com.simats.criticall.BaseActivity
 import com.simats.criticall.R
@@ -14,10 +13,6 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.MainScope
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
-import org.json.JSONObject
-import java.net.HttpURLConnection
-import java.net.URL
-import java.util.Locale
 
 class PatientRecordVitalsActivity : BaseActivity() {
 
@@ -76,8 +71,8 @@ class PatientRecordVitalsActivity : BaseActivity() {
         btnRandom.setOnClickListener { setSugarContext("RANDOM") }
         setSugarContext("FASTING")
 
-        //  silent sync
-        scope.launch { syncPendingIfAny() }
+        //  silent sync (background worker: batched, survives leaving this screen)
+        VitalsSyncWorker.schedule(this)
 
         btnSave.setOnClickListener { onSave() }
     }
@@ -127,145 +122,34 @@ class PatientRecordVitalsActivity : BaseActivity() {
         }
 
         val recordedAtMs = System.currentTimeMillis()
-
-        //  Always local save first
-        val db = PatientVitalsLocalDb(this)
-        val localId = db.insertLocal(
-            patientId = patientIdLocal, // might be 0; OK
-            recordedAtMs = recordedAtMs,
-            systolic = systolic,
-            diastolic = diastolic,
-            sugar = sugar,
-            sugarContext = sugarContext,
-            temperatureF = tempF,
-            weightKg = weightKg,
-            notes = notes
-        )
-
-        toast(getString(R.string.vitals_saved_offline))
         btnSave.isEnabled = false
 
+        // local save only: VitalsSyncWorker is the one uploader, so a row can't be POSTed twice
         scope.launch {
-            val serverId = withContext(Dispatchers.IO) {
-                postVitalsToServer(
-                    token = token,
-                    systolic = systolic,
-                    diastolic = diastolic,
-                    sugar = sugar,
-                    sugarContext = sugarContext,
-                    tempF = tempF,
-                    weightKg = weightKg,
-                    notes = notes,
-                    clientRecordedAtMs = recordedAtMs
-                )
-            }
-
-            btnSave.isEnabled = true
-
-            if (serverId > 0L) {
-                db.markSynced(localId, serverId)
-                toast(getString(R.string.vitals_saved_online))
-            } else {
-                toast(getString(R.string.vitals_will_sync_later))
+            withContext(Dispatchers.IO) {
+                val db = PatientVitalsLocalDb(this@PatientRecordVitalsActivity)
+                try {
+                    db.insertLocal(
+                        patientId = patientIdLocal, // might be 0; OK
+                        recordedAtMs = recordedAtMs,
+                        systolic = systolic,
+                        diastolic = diastolic,
+                        sugar = sugar,
+                        sugarContext = sugarContext,
+                        temperatureF = tempF,
+                        weightKg = weightKg,
+                        notes = notes
+                    )
+                } finally {
+                    db.close()
+                }
             }
-
+            VitalsSyncWorker.schedule(this@PatientRecordVitalsActivity)
+            toast(getString(R.string.vitals_saved_offline))
             finishWithAiTransition()
         }
     }
 
-    private suspend fun syncPendingIfAny() {
-        val token = AppPrefs.getToken(this).orEmpty()
-        if (token.isBlank()) return
-
-        val db = PatientVitalsLocalDb(this)
-        val pending = db.listPendingAny(limit = 25)
-        if (pending.isEmpty()) return
-
-        for (p in pending) {
-            val serverId = withContext(Dispatchers.IO) {
-                postVitalsToServer(
-                    token = token,
-                    systolic = p.systolic,
-                    diastolic = p.diastolic,
-                    sugar = p.sugar,
-                    sugarContext = p.sugarContext,
-                    tempF = p.temperatureF,
-                    weightKg = p.weightKg,
-                    notes = p.notes,
-                    clientRecordedAtMs = p.recordedAtMs
-                )
-            }
-            if (serverId > 0L) {
-                db.markSynced(p.localId, serverId)
-            } else {
-                break
-            }
-        }
-    }
-
-    private fun postVitalsToServer(
-        token: String,
-        systolic: Int?,
-        diastolic: Int?,
-        sugar: Int?,
-        sugarContext: String,
-        tempF: Double?,
-        weightKg: Double?,
-        notes: String,
-        clientRecordedAtMs: Long
-    ): Long {
-        val urlStr = BASE_URL + "patient/vitals_create.php"
-        var conn: HttpURLConnection? = null
-
-        return try {
-            val body = JSONObject().apply {
-                if (systolic != null) put("systolic", systolic)
-                if (diastolic != null) put("diastolic", diastolic)
-                if (sugar != null) put("sugar", sugar)
-                put("sugar_context", sugarContext.uppercase(Locale.US))
-                if (tempF != null) put("temperature_f", tempF)
-                if (weightKg != null) put("weight_kg", weightKg)
-                if (notes.isNotBlank()) put("notes", notes)
-                put("client_recorded_at_ms", clientRecordedAtMs)
-            }
-
-            conn = (URL(urlStr).openConnection() as HttpURLConnection).apply {
-                requestMethod = "POST"
-                connectTimeout = 20000
-                readTimeout = 20000
-                doInput = true
-                doOutput = true
-                setRequestProperty("Accept", "application/json")
-                setRequestProperty("Content-Type", "application/json; charset=utf-8")
-                setRequestProperty("Authorization", "Bearer $token")
-            }
-
-            conn.outputStream.use { os ->
-                os.write(body.toString().toByteArray(Charsets.UTF_8))
-                os.flush()
-            }
-
-            val code = conn.responseCode
-            val stream = if (code in 200..299) conn.inputStream else conn.errorStream
-            val text = stream?.bufferedReader()?.use { it.readText() }.orEmpty()
-            val res = runCatching { JSONObject(text) }.getOrElse { JSONObject().put("ok", false) }
-
-            if (!res.optBoolean("ok", false)) return 0L
-            val data = res.optJSONObject("data") ?: return 0L
-            val idAny = data.opt("id") ?: return 0L
-
-            when (idAny) {
-                is Number -> idAny.toLong()
-                is String -> idAny.trim().toLongOrNull() ?: 0L
-                else -> 0L
-            }
-        } catch (_: Throwable) {
-            0L
-        } finally {
-            try { conn?.disconnect() } catch (_: Throwable) {}
-        }
-    }
-
     private fun toast(s: String) {
         Toast.makeText(this, s, Toast.LENGTH_SHORT).show()
     }
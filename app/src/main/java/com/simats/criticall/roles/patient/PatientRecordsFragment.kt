@@ -17,17 +17,15 @@ import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import com.simats.criticall.ApiConfig.BASE_URL
 import com.simats.criticall.AppPrefs
+import com.simats.criticall.HttpTransport
+import com.simats.criticall.JsonRowStream
 import com.simats.criticall.LocalCache
 import com.simats.criticall.R
-import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.withContext
 import org.json.JSONArray
 import org.json.JSONObject
-import java.net.HttpURLConnection
-import java.net.URL
 import java.net.URLEncoder
 import java.text.SimpleDateFormat
 import java.util.Locale
@@ -168,43 +166,60 @@ class PatientRecordsFragment : Fragment() {
 
             val url = BASE_URL +
                     "patient/prescriptions_list.php?limit=200&offset=0&q=" +
-                    URLEncoder.encode(q, "UTF-8") +
-                    "&_ts=" + System.currentTimeMillis()
+                    URLEncoder.encode(q, "UTF-8")
+
+            val req = HttpTransport.jsonRequest(url)
+                .header("Authorization", "Bearer $token")
+                .get()
+                .build()
+
+            // rows arrive in chunks; first screenful replaces the list before the rest is read
+            val shownBefore = ArrayList(rows)
+            var firstRxId = 0L
+            val newList = ArrayList<Row>()
+            var ok = false
+            var total = 0
+            JsonRowStream.rows(req, 20_000, arrayKeys = setOf("items", "prescriptions")).collect { chunk ->
+                if (!isAdded) return@collect
+
+                if (newList.isEmpty() && chunk.rows.isNotEmpty()) {
+                    // latest prescription id for AI assistant fallback (stored once the response is known good)
+                    val first = chunk.rows[0]
+                    firstRxId = first.optLong("id", 0L).takeIf { it > 0L }
+                        ?: first.optLong("prescription_id", 0L).takeIf { it > 0L }
+                        ?: 0L
+                }
 
-            val res = withContext(Dispatchers.IO) { getJsonAuth(url, token) }
+                for (o in chunk.rows) newList.add(parseRow(o))
+
+                if (chunk.last) {
+                    ok = chunk.ok
+                    total = chunk.header.optInt("total", newList.size)
+                } else {
+                    vLoading.isVisible = false
+                    rows.clear()
+                    rows.addAll(newList)
+                    adapter.notifyDataSetChanged()
+                    showEmpty(false)
+                }
+            }
             if (!isAdded) return@launch
 
             vLoading.isVisible = false
 
-            if (!res.optBoolean("ok", false)) {
-                // ✅ keep cached visible instead of wiping
+            if (!ok) {
+                // ✅ stream broke midway: drop the partial list, put back what was shown (or the cache)
+                rows.clear()
+                rows.addAll(shownBefore)
+                adapter.notifyDataSetChanged()
                 if (rows.isEmpty()) loadCachedListIntoUi()
+                if (newList.isNotEmpty()) toast(getString(R.string.failed_to_load))
                 showEmpty(rows.isEmpty())
                 return@launch
             }
 
-            val data = res.optJSONObject("data") ?: res
-            val arr = data.optJSONArray("items")
-                ?: data.optJSONArray("prescriptions")
-                ?: JSONArray()
-
-            val total = runCatching { data.optInt("total", arr.length()) }.getOrElse { arr.length() }
-
-            // Cache latest prescription id for AI assistant fallback
-            runCatching {
-                val first = arr.optJSONObject(0)
-                val pid = first?.optLong("id", 0L).takeIf { it != null && it > 0L }
-                    ?: first?.optLong("prescription_id", 0L).takeIf { it != null && it > 0L }
-                    ?: 0L
-                if (pid > 0L) {
-                    LocalCache.putLong(requireContext(), "assistant_rx_last_id", pid)
-                }
-            }
-
-            val newList = ArrayList<Row>(arr.length())
-            for (i in 0 until arr.length()) {
-                val o = arr.optJSONObject(i) ?: continue
-                newList.add(parseRow(o))
+            if (firstRxId > 0L) {
+                LocalCache.putLong(requireContext(), "assistant_rx_last_id", firstRxId)
             }
 
             rows.clear()
@@ -215,7 +230,9 @@ class PatientRecordsFragment : Fragment() {
                 allCache.clear()
                 allCache.addAll(newList)
 
-                // ✅ cache full list for offline
+                // ✅ cache full list for offline (from the parsed rows; the raw response isn't kept)
+                val arr = JSONArray()
+                for (r in newList) arr.put(toCacheJson(r))
                 LocalCache.putString(requireContext(), KEY_RECORDS_LIST_JSON, arr.toString())
                 LocalCache.putLong(requireContext(), KEY_RECORDS_LIST_TS, System.currentTimeMillis())
             }
@@ -271,10 +288,22 @@ class PatientRecordsFragment : Fragment() {
             specialization = speciality,
             dateLabel = prettyDate(dateYmd),
             medicinesLabel = getString(R.string.medicines_count_fmt, medsCount),
-            verified = verified
+            verified = verified,
+            dateYmd = dateYmd,
+            medsCount = medsCount
         )
     }
 
+    // just the fields parseRow reads, so the cached list parses back the same way
+    private fun toCacheJson(r: Row): JSONObject = JSONObject()
+        .put("id", r.id)
+        .put("title", r.title)
+        .put("doctor_name", r.doctorName)
+        .put("specialization", r.specialization)
+        .put("date", r.dateYmd)
+        .put("medicines_count", r.medsCount)
+        .put("doctor_verified", if (r.verified) 1 else 0)
+
     private fun extractYmd(s: String): String {
         val t = s.trim()
         if (t.isBlank()) return ""
@@ -306,29 +335,6 @@ class PatientRecordsFragment : Fragment() {
         Toast.makeText(requireContext(), s, Toast.LENGTH_SHORT).show()
     }
 
-    private fun getJsonAuth(urlStr: String, token: String): JSONObject {
-        var conn: HttpURLConnection? = null
-        return try {
-            conn = (URL(urlStr).openConnection() as HttpURLConnection).apply {
-                requestMethod = "GET"
-                connectTimeout = 20000
-                readTimeout = 20000
-                setRequestProperty("Accept", "application/json")
-                setRequestProperty("Authorization", "Bearer $token")
-            }
-            val code = conn.responseCode
-            val stream = if (code in 200..299) conn.inputStream else conn.errorStream
-            val text = stream?.bufferedReader()?.use { it.readText() }.orEmpty()
-            runCatching { JSONObject(text) }.getOrElse {
-                JSONObject().put("ok", false).put("error", "Invalid server response")
-            }
-        } catch (_: Throwable) {
-            JSONObject().put("ok", false).put("error", "Network error")
-        } finally {
-            try { conn?.disconnect() } catch (_: Throwable) {}
-        }
-    }
-
     // ---------------- Adapter INSIDE Fragment ----------------
 
     private data class Row(
@@ -338,7 +344,9 @@ class PatientRecordsFragment : Fragment() {
         val specialization: String,
         val dateLabel: String,
         val medicinesLabel: String,
-        val verified: Boolean
+        val verified: Boolean,
+        val dateYmd: String,
+        val medsCount: Int
     )
 
     private inner class PrescriptionsAdapter(private val items: List<Row>) :
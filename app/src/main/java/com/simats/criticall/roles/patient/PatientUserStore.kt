@@ -5,6 +5,7 @@ import android.util.Base64
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.MutableLiveData
 import com.simats.criticall.AppPrefs
+import com.simats.criticall.MemoryGovernor
 import org.json.JSONObject
 
 data class PatientMe(
@@ -27,9 +28,19 @@ object PatientUserStore {
     private val _state = MutableLiveData<PatientMeState>()
     val state: LiveData<PatientMeState> = _state
 
-    private var cached: PatientMe? = null
+    @Volatile private var cached: PatientMe? = null
     fun getCached(): PatientMe? = cached
 
+    init {
+        // decoded from the stored token again on the next refresh()
+        MemoryGovernor.register("patient_user", MemoryGovernor.Priority.LOW, object : MemoryGovernor.Trimmable {
+            override fun memoryBytes(): Long = if (cached != null) 256L else 0L
+            override fun trimTo(keepFraction: Float) {
+                if (keepFraction <= 0f) cached = null
+            }
+        })
+    }
+
     suspend fun refresh(ctx: Context) {
         _state.postValue(PatientMeState.Loading)
 
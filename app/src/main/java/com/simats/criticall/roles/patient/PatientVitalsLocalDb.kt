@@ -1,11 +1,58 @@
 package com.simats.criticall.roles.patient
 
-import android.content.ContentValues
 import android.content.Context
+import android.database.Cursor
 import android.database.sqlite.SQLiteDatabase
 import android.database.sqlite.SQLiteOpenHelper
+import android.database.sqlite.SQLiteStatement
+import java.util.Calendar
 
-class PatientVitalsLocalDb(ctx: Context) : SQLiteOpenHelper(ctx, DB_NAME, null, DB_VER) {
+/**
+ * Home vitals, saved locally first and synced by [VitalsSyncWorker].
+ *
+ * Besides the raw rows, daily and weekly min/max/avg per metric are kept in `vitals_rollup`,
+ * updated in the same transaction as each insert, so charts over months or years read a few
+ * hundred rollup rows instead of every reading (see [aggregates], [series], [downsample]).
+ *
+ * Writes go through compiled statements ([insertBatch] for imports, [markSyncedBatch] after sync)
+ * and the database runs in WAL mode, so the sync worker's reads don't wait on an import.
+ */
+class PatientVitalsLocalDb @JvmOverloads constructor(
+    ctx: Context,
+    name: String? = DB_NAME // tests pass their own file
+) : SQLiteOpenHelper(ctx, name, null, DB_VER) {
+
+    enum class Metric(val column: String) {
+        SYSTOLIC("systolic"),
+        DIASTOLIC("diastolic"),
+        SUGAR("sugar"),
+        TEMPERATURE("temperature_f"),
+        WEIGHT("weight_kg")
+    }
+
+    /** Buckets start at local midnight (DAY) or local Monday midnight (WEEK). */
+    enum class Bucket(val code: String) { DAY("D"), WEEK("W") }
+
+    /** One reading to save; [insertBatch] takes thousands of these in one transaction. */
+    data class NewReading(
+        val patientId: Long,
+        val recordedAtMs: Long,
+        val systolic: Int?,
+        val diastolic: Int?,
+        val sugar: Int?,
+        val sugarContext: String,
+        val temperatureF: Double?,
+        val weightKg: Double?,
+        val notes: String
+    )
+
+    data class Aggregate(
+        val bucketStartMs: Long,
+        val count: Int,
+        val min: Double,
+        val max: Double,
+        val avg: Double
+    )
 
     data class Row(
         val localId: Long,
@@ -22,6 +69,10 @@ class PatientVitalsLocalDb(ctx: Context) : SQLiteOpenHelper(ctx, DB_NAME, null,
         val synced: Int
     )
 
+    init {
+        setWriteAheadLoggingEnabled(true)
+    }
+
     override fun onCreate(db: SQLiteDatabase) {
         db.execSQL(
             """
@@ -43,10 +94,133 @@ class PatientVitalsLocalDb(ctx: Context) : SQLiteOpenHelper(ctx, DB_NAME, null,
         )
         db.execSQL("CREATE INDEX IF NOT EXISTS idx_vitals_local_patient ON vitals_local(patient_id, recorded_at_ms DESC);")
         db.execSQL("CREATE INDEX IF NOT EXISTS idx_vitals_local_synced ON vitals_local(synced, recorded_at_ms);")
+        createRollups(db)
     }
 
     override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
         if (oldVersion < 1) onCreate(db)
+        if (oldVersion == 1) {
+            createRollups(db)
+            backfillRollups(db)
+        }
+    }
+
+    private fun createRollups(db: SQLiteDatabase) {
+        db.execSQL(
+            """
+            CREATE TABLE IF NOT EXISTS vitals_rollup (
+              patient_id INTEGER NOT NULL,
+              bucket TEXT NOT NULL,
+              bucket_start_ms INTEGER NOT NULL,
+              metric TEXT NOT NULL,
+              n INTEGER NOT NULL DEFAULT 0,
+              total REAL NOT NULL DEFAULT 0,
+              min_v REAL,
+              max_v REAL,
+              PRIMARY KEY (patient_id, bucket, metric, bucket_start_ms)
+            );
+            """.trimIndent()
+        )
+    }
+
+    // rows saved before rollups existed (DB v1)
+    private fun backfillRollups(db: SQLiteDatabase) {
+        val cols = Metric.values().joinToString(",") { it.column }
+        val w = Writer(db)
+        try {
+            db.rawQuery("SELECT patient_id, recorded_at_ms, $cols FROM vitals_local", null).use { c ->
+                val values = arrayOfNulls<Double>(Metric.values().size)
+                while (c.moveToNext()) {
+                    for (m in Metric.values().indices) values[m] = if (c.isNull(2 + m)) null else c.getDouble(2 + m)
+                    w.addToRollups(c.getLong(0), c.getLong(1), values)
+                }
+            }
+        } finally {
+            w.close()
+        }
+    }
+
+    /**
+     * Compiled insert + rollup statements, reused for every row of a batch.
+     * Use inside a transaction and [close] afterwards.
+     */
+    private class Writer(db: SQLiteDatabase) {
+        private val insert: SQLiteStatement = db.compileStatement(
+            "INSERT INTO vitals_local(server_id, patient_id, recorded_at_ms, systolic, diastolic, sugar, " +
+                "sugar_context, temperature_f, weight_kg, notes, synced) VALUES(0,?,?,?,?,?,?,?,?,?,0)"
+        )
+        // no UPSERT before SQLite 3.24 (API 30): make sure the row exists, then fold the value in
+        private val ensure: SQLiteStatement = db.compileStatement(
+            "INSERT OR IGNORE INTO vitals_rollup(patient_id, bucket, bucket_start_ms, metric) VALUES(?,?,?,?)"
+        )
+        private val fold: SQLiteStatement = db.compileStatement(
+            "UPDATE vitals_rollup SET n=n+1, total=total+?1, " +
+                "min_v=CASE WHEN min_v IS NULL OR ?1<min_v THEN ?1 ELSE min_v END, " +
+                "max_v=CASE WHEN max_v IS NULL OR ?1>max_v THEN ?1 ELSE max_v END " +
+                "WHERE patient_id=?2 AND bucket=?3 AND bucket_start_ms=?4 AND metric=?5"
+        )
+        private val cal = Calendar.getInstance()
+        private val values = arrayOfNulls<Double>(Metric.values().size)
+
+        fun insert(r: NewReading): Long {
+            val pid = if (r.patientId > 0) r.patientId else 0L
+            insert.clearBindings()
+            insert.bindLong(1, pid)
+            insert.bindLong(2, r.recordedAtMs)
+            bindInt(3, r.systolic)
+            bindInt(4, r.diastolic)
+            bindInt(5, r.sugar)
+            insert.bindString(6, r.sugarContext)
+            bindReal(7, r.temperatureF)
+            bindReal(8, r.weightKg)
+            insert.bindString(9, r.notes)
+            val id = insert.executeInsert()
+            if (id == -1L) return id
+
+            values[Metric.SYSTOLIC.ordinal] = r.systolic?.toDouble()
+            values[Metric.DIASTOLIC.ordinal] = r.diastolic?.toDouble()
+            values[Metric.SUGAR.ordinal] = r.sugar?.toDouble()
+            values[Metric.TEMPERATURE.ordinal] = r.temperatureF
+            values[Metric.WEIGHT.ordinal] = r.weightKg
+            addToRollups(pid, r.recordedAtMs, values)
+            return id
+        }
+
+        // values indexed by Metric.ordinal
+        fun addToRollups(patientId: Long, recordedAtMs: Long, values: Array<Double?>) {
+            for (bucket in Bucket.values()) {
+                val start = bucketStart(bucket, recordedAtMs, cal)
+                for (m in Metric.values()) {
+                    val v = values[m.ordinal] ?: continue
+                    ensure.bindLong(1, patientId)
+                    ensure.bindString(2, bucket.code)
+                    ensure.bindLong(3, start)
+                    ensure.bindString(4, m.name)
+                    ensure.executeInsert()
+
+                    fold.bindDouble(1, v)
+                    fold.bindLong(2, patientId)
+                    fold.bindString(3, bucket.code)
+                    fold.bindLong(4, start)
+                    fold.bindString(5, m.name)
+                    fold.executeUpdateDelete()
+                }
+            }
+        }
+
+        fun close() {
+            insert.close()
+            ensure.close()
+            fold.close()
+        }
+
+        private fun bindInt(i: Int, v: Int?) {
+            if (v != null) insert.bindLong(i, v.toLong()) else insert.bindNull(i)
+        }
+
+        private fun bindReal(i: Int, v: Double?) {
+            if (v != null) insert.bindDouble(i, v) else insert.bindNull(i)
+        }
     }
 
     fun insertLocal(
@@ -60,28 +234,137 @@ class PatientVitalsLocalDb(ctx: Context) : SQLiteOpenHelper(ctx, DB_NAME, null,
         weightKg: Double?,
         notes: String
     ): Long {
-        val cv = ContentValues().apply {
-            put("server_id", 0)
-            put("patient_id", if (patientId > 0) patientId else 0)
-            put("recorded_at_ms", recordedAtMs)
-            if (systolic != null) put("systolic", systolic) else putNull("systolic")
-            if (diastolic != null) put("diastolic", diastolic) else putNull("diastolic")
-            if (sugar != null) put("sugar", sugar) else putNull("sugar")
-            put("sugar_context", sugarContext)
-            if (temperatureF != null) put("temperature_f", temperatureF) else putNull("temperature_f")
-            if (weightKg != null) put("weight_kg", weightKg) else putNull("weight_kg")
-            put("notes", notes)
-            put("synced", 0)
-        }
-        return writableDatabase.insert("vitals_local", null, cv)
+        val r = NewReading(patientId, recordedAtMs, systolic, diastolic, sugar, sugarContext, temperatureF, weightKg, notes)
+        return inTransaction { it.insert(r) }
+    }
+
+    /**
+     * Bulk import (glucometer exports etc.): every row and its rollups in one transaction,
+     * through the same compiled statements. Returns how many rows were inserted.
+     */
+    fun insertBatch(rows: List<NewReading>): Int {
+        if (rows.isEmpty()) return 0
+        return inTransaction { w ->
+            var n = 0
+            for (r in rows) if (w.insert(r) != -1L) n++
+            n
+        }
+    }
+
+    private fun <T> inTransaction(block: (Writer) -> T): T {
+        val db = writableDatabase
+        db.beginTransaction()
+        val w = Writer(db)
+        try {
+            val out = block(w)
+            db.setTransactionSuccessful()
+            return out
+        } finally {
+            w.close()
+            db.endTransaction()
+        }
+    }
+
+    // ---------- time-series queries ----------
+
+    /**
+     * Daily/weekly min/max/avg of [metric] over readings in [fromMs, toMs), oldest first. Buckets are aligned
+     * (see [Bucket]); when [fromMs] falls inside one, that first bucket covers only [fromMs] up to its end,
+     * is read from the raw rows and reports [fromMs] as its start.
+     */
+    fun aggregates(patientId: Long, metric: Metric, bucket: Bucket, fromMs: Long, toMs: Long): List<Aggregate> {
+        val out = ArrayList<Aggregate>()
+        val first = bucketStart(bucket, fromMs)
+        val rollupFrom = if (first < fromMs) nextBucketStart(bucket, first) else first
+        if (first < fromMs) rawAggregate(patientId, metric, fromMs, minOf(rollupFrom, toMs))?.let { out.add(it) }
+        readableDatabase.rawQuery(
+            "SELECT bucket_start_ms, n, min_v, max_v, total FROM vitals_rollup " +
+                "WHERE patient_id=? AND bucket=? AND metric=? AND bucket_start_ms>=? AND bucket_start_ms<? AND n>0 " +
+                "ORDER BY bucket_start_ms ASC",
+            arrayOf(patientId.toString(), bucket.code, metric.name, rollupFrom.toString(), toMs.toString())
+        ).use { c ->
+            while (c.moveToNext()) {
+                val n = c.getInt(1)
+                out.add(Aggregate(c.getLong(0), n, c.getDouble(2), c.getDouble(3), c.getDouble(4) / n))
+            }
+        }
+        return out
+    }
+
+    // one partial bucket straight from vitals_local; null when it has no readings
+    private fun rawAggregate(patientId: Long, metric: Metric, fromMs: Long, toMs: Long): Aggregate? {
+        if (toMs <= fromMs) return null
+        readableDatabase.rawQuery(
+            "SELECT COUNT(${metric.column}), MIN(${metric.column}), MAX(${metric.column}), SUM(${metric.column}) " +
+                "FROM vitals_local WHERE patient_id=? AND recorded_at_ms>=? AND recorded_at_ms<? AND ${metric.column} IS NOT NULL",
+            arrayOf(patientId.toString(), fromMs.toString(), toMs.toString())
+        ).use { c ->
+            if (!c.moveToFirst()) return null
+            val n = c.getInt(0)
+            if (n == 0) return null
+            return Aggregate(fromMs, n, c.getDouble(1), c.getDouble(2), c.getDouble(3) / n)
+        }
+    }
+
+    /** Raw readings of [metric] in [fromMs, toMs), oldest first (rows without that metric are skipped). */
+    fun series(patientId: Long, metric: Metric, fromMs: Long, toMs: Long): List<Lttb.Point> {
+        val out = ArrayList<Lttb.Point>()
+        readableDatabase.rawQuery(
+            "SELECT recorded_at_ms, ${metric.column} FROM vitals_local " +
+                "WHERE patient_id=? AND recorded_at_ms>=? AND recorded_at_ms<? AND ${metric.column} IS NOT NULL " +
+                "ORDER BY recorded_at_ms ASC",
+            arrayOf(patientId.toString(), fromMs.toString(), toMs.toString())
+        ).use { c ->
+            while (c.moveToNext()) out.add(Lttb.Point(c.getLong(0), c.getDouble(1)))
+        }
+        return out
     }
 
+    /**
+     * At most [maxPoints] points of [metric] over [fromMs, toMs) for plotting (LTTB).
+     * Long ranges start from daily averages instead of raw rows, so a multi-year chart never scans every reading.
+     */
+    fun downsample(patientId: Long, metric: Metric, fromMs: Long, toMs: Long, maxPoints: Int): List<Lttb.Point> {
+        val raw = countReadings(patientId, metric, fromMs, toMs)
+        val points = if (raw <= RAW_SCAN_LIMIT) {
+            series(patientId, metric, fromMs, toMs)
+        } else {
+            aggregates(patientId, metric, Bucket.DAY, fromMs, toMs).map { Lttb.Point(it.bucketStartMs, it.avg) }
+        }
+        return Lttb.downsample(points, maxPoints)
+    }
+
+    private fun countReadings(patientId: Long, metric: Metric, fromMs: Long, toMs: Long): Long =
+        readableDatabase.rawQuery(
+            "SELECT COUNT(*) FROM vitals_local " +
+                "WHERE patient_id=? AND recorded_at_ms>=? AND recorded_at_ms<? AND ${metric.column} IS NOT NULL",
+            arrayOf(patientId.toString(), fromMs.toString(), toMs.toString())
+        ).use { c -> if (c.moveToFirst()) c.getLong(0) else 0L }
+
     fun markSynced(localId: Long, serverId: Long) {
-        val cv = ContentValues().apply {
-            put("server_id", serverId)
-            put("synced", 1)
+        markSyncedBatch(mapOf(localId to serverId))
+    }
+
+    /** localId -> serverId, all in one transaction (used by VitalsSyncWorker). */
+    fun markSyncedBatch(synced: Map<Long, Long>) {
+        if (synced.isEmpty()) return
+        val db = writableDatabase
+        db.beginTransaction()
+        try {
+            val st = db.compileStatement("UPDATE vitals_local SET server_id=?, synced=1 WHERE local_id=?")
+            try {
+                for ((localId, serverId) in synced) {
+                    st.bindLong(1, serverId)
+                    st.bindLong(2, localId)
+                    st.executeUpdateDelete()
+                }
+            } finally {
+                st.close()
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
         }
-        writableDatabase.update("vitals_local", cv, "local_id=?", arrayOf(localId.toString()))
     }
 
     /**  Use this when you DO NOT know patient_id (your case). */
@@ -92,7 +375,8 @@ class PatientVitalsLocalDb(ctx: Context) : SQLiteOpenHelper(ctx, DB_NAME, null,
             arrayOf(limit.toString())
         )
         c.use {
-            while (it.moveToNext()) out.add(readRow(it))
+            val cols = Cols(it)
+            while (it.moveToNext()) out.add(readRow(it, cols))
         }
         return out
     }
@@ -105,31 +389,76 @@ class PatientVitalsLocalDb(ctx: Context) : SQLiteOpenHelper(ctx, DB_NAME, null,
             arrayOf(patientId.toString(), limit.toString())
         )
         c.use {
-            while (it.moveToNext()) out.add(readRow(it))
+            val cols = Cols(it)
+            while (it.moveToNext()) out.add(readRow(it, cols))
         }
         return out
     }
 
-    private fun readRow(c: android.database.Cursor): Row {
-        fun i(name: String) = c.getColumnIndexOrThrow(name)
+    /** Column positions looked up once per cursor, not once per field per row. */
+    private class Cols(c: Cursor) {
+        val localId = c.getColumnIndexOrThrow("local_id")
+        val serverId = c.getColumnIndexOrThrow("server_id")
+        val patientId = c.getColumnIndexOrThrow("patient_id")
+        val recordedAtMs = c.getColumnIndexOrThrow("recorded_at_ms")
+        val systolic = c.getColumnIndexOrThrow("systolic")
+        val diastolic = c.getColumnIndexOrThrow("diastolic")
+        val sugar = c.getColumnIndexOrThrow("sugar")
+        val sugarContext = c.getColumnIndexOrThrow("sugar_context")
+        val temperatureF = c.getColumnIndexOrThrow("temperature_f")
+        val weightKg = c.getColumnIndexOrThrow("weight_kg")
+        val notes = c.getColumnIndexOrThrow("notes")
+        val synced = c.getColumnIndexOrThrow("synced")
+    }
+
+    private fun readRow(c: Cursor, k: Cols): Row {
         return Row(
-            localId = c.getLong(i("local_id")),
-            serverId = c.getLong(i("server_id")),
-            patientId = c.getLong(i("patient_id")),
-            recordedAtMs = c.getLong(i("recorded_at_ms")),
-            systolic = if (c.isNull(i("systolic"))) null else c.getInt(i("systolic")),
-            diastolic = if (c.isNull(i("diastolic"))) null else c.getInt(i("diastolic")),
-            sugar = if (c.isNull(i("sugar"))) null else c.getInt(i("sugar")),
-            sugarContext = c.getString(i("sugar_context")) ?: "FASTING",
-            temperatureF = if (c.isNull(i("temperature_f"))) null else c.getDouble(i("temperature_f")),
-            weightKg = if (c.isNull(i("weight_kg"))) null else c.getDouble(i("weight_kg")),
-            notes = c.getString(i("notes")) ?: "",
-            synced = c.getInt(i("synced"))
+            localId = c.getLong(k.localId),
+            serverId = c.getLong(k.serverId),
+            patientId = c.getLong(k.patientId),
+            recordedAtMs = c.getLong(k.recordedAtMs),
+            systolic = if (c.isNull(k.systolic)) null else c.getInt(k.systolic),
+            diastolic = if (c.isNull(k.diastolic)) null else c.getInt(k.diastolic),
+            sugar = if (c.isNull(k.sugar)) null else c.getInt(k.sugar),
+            sugarContext = c.getString(k.sugarContext) ?: "FASTING",
+            temperatureF = if (c.isNull(k.temperatureF)) null else c.getDouble(k.temperatureF),
+            weightKg = if (c.isNull(k.weightKg)) null else c.getDouble(k.weightKg),
+            notes = c.getString(k.notes) ?: "",
+            synced = c.getInt(k.synced)
         )
     }
 
     companion object {
         private const val DB_NAME = "criticall_local.db"
-        private const val DB_VER = 1
+        private const val DB_VER = 2
+
+        // above this many readings in range, downsample() works from daily rollups
+        private const val RAW_SCAN_LIMIT = 5_000L
+
+        /** Local start of the day/week containing [ms]. */
+        fun bucketStart(bucket: Bucket, ms: Long): Long = bucketStart(bucket, ms, Calendar.getInstance())
+
+        // [start] is a bucket start; calendar arithmetic so DST days are still one bucket
+        private fun nextBucketStart(bucket: Bucket, start: Long): Long = Calendar.getInstance().run {
+            timeInMillis = start
+            add(Calendar.DAY_OF_MONTH, if (bucket == Bucket.WEEK) 7 else 1)
+            timeInMillis
+        }
+
+        // batch writers pass one Calendar for all rows
+        private fun bucketStart(bucket: Bucket, ms: Long, cal: Calendar): Long {
+            cal.apply {
+                timeInMillis = ms
+                set(Calendar.HOUR_OF_DAY, 0)
+                set(Calendar.MINUTE, 0)
+                set(Calendar.SECOND, 0)
+                set(Calendar.MILLISECOND, 0)
+            }
+            if (bucket == Bucket.WEEK) {
+                val back = (cal.get(Calendar.DAY_OF_WEEK) - Calendar.MONDAY + 7) % 7
+                cal.add(Calendar.DAY_OF_MONTH, -back)
+            }
+            return cal.timeInMillis
+        }
     }
 }
@@ -390,6 +390,8 @@ class SelectTimeSlotActivity : BaseActivity() {
                     Toast.LENGTH_SHORT
                 ).show()
                 btn.isEnabled = true
+                // refused by the server (slot likely taken): slots were invalidated, show fresh ones
+                if ((PatientApi.lastHttpCode ?: 0) in 200..499) loadDays()
                 return@launch
             }
 
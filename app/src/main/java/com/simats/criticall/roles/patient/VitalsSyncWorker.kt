@@ -0,0 +1,171 @@
+package com.simats.criticall.roles.patient
+
+import android.content.Context
+import android.util.Log
+import androidx.work.BackoffPolicy
+import androidx.work.Constraints
+import androidx.work.CoroutineWorker
+import androidx.work.ExistingWorkPolicy
+import androidx.work.NetworkType
+import androidx.work.OneTimeWorkRequestBuilder
+import androidx.work.WorkManager
+import androidx.work.WorkerParameters
+import com.simats.criticall.ApiClient
+import com.simats.criticall.AppPrefs
+import com.simats.criticall.CallResult
+import com.simats.criticall.EndpointCapabilities
+import org.json.JSONArray
+import org.json.JSONObject
+import java.util.Locale
+import java.util.concurrent.TimeUnit
+
+/**
+ * Drains `vitals_local` in the background (no longer tied to PatientRecordVitalsActivity being open).
+ *
+ * Rows go up [BATCH] at a time through patient/vitals_bulk_create.php and each batch is marked synced
+ * in one transaction. If the backend doesn't have the bulk endpoint yet (404/405/...) we fall back to
+ * one vitals_create.php POST per row; [EndpointCapabilities] remembers which one works.
+ * This worker is the only thing that uploads vitals; the record screen just saves locally and schedules it.
+ */
+class VitalsSyncWorker(ctx: Context, params: WorkerParameters) : CoroutineWorker(ctx, params) {
+
+    override suspend fun doWork(): Result {
+        val ctx = applicationContext
+        val token = AppPrefs.getToken(ctx).orEmpty()
+        if (token.isBlank()) return Result.success() // nothing we can send; next login reschedules
+
+        val uploader = Uploader(ctx) { path, body -> ApiClient.postJsonWithAuth(path, body, token, TIMEOUT_MS) }
+        val db = PatientVitalsLocalDb(ctx)
+        try {
+            // re-list after every batch, so rows saved while this run is going are picked up by it
+            while (!isStopped) {
+                val pending = db.listPendingAny(limit = BATCH)
+                if (pending.isEmpty()) return Result.success()
+
+                val synced = uploader.push(pending)
+                if (synced.isNullOrEmpty()) {
+                    Log.w(TAG, "sync failed (HTTP ${uploader.lastHttpCode}), retrying later")
+                    return Result.retry()
+                }
+                db.markSyncedBatch(synced)
+                if (synced.size < pending.size) return Result.retry() // partial: back off, keep order
+            }
+            return Result.retry()
+        } finally {
+            db.close()
+        }
+    }
+
+    /**
+     * One batch up: bulk endpoint, or one POST per row where the backend lacks it (remembered by
+     * [EndpointCapabilities]). [post] is the HTTP call, passed in so the fallback can be tested offline.
+     */
+    class Uploader(
+        private val ctx: Context,
+        private val post: (path: String, body: JSONObject) -> ApiClient.ApiResult
+    ) {
+        /** HTTP status of the last failed [push] (for logging). */
+        @Volatile var lastHttpCode: Int? = null
+            private set
+
+        /** localId -> serverId for the rows the server stored; null (never empty) when nothing was stored. */
+        fun push(rows: List<PatientVitalsLocalDb.Row>): Map<Long, Long>? {
+            val r = EndpointCapabilities.firstWorking(
+                ctx, FEATURE,
+                listOf(VARIANT_BULK, VARIANT_SINGLE)
+            ) { variant ->
+                if (variant == VARIANT_BULK) postBulk(rows) else postEach(rows)
+            }
+            lastHttpCode = (r as? CallResult.Failed)?.httpCode
+            return r.valueOrNull()
+        }
+
+        private fun postBulk(rows: List<PatientVitalsLocalDb.Row>): CallResult<Map<Long, Long>> {
+            val items = JSONArray()
+            for (r in rows) items.put(toJson(r).put("client_local_id", r.localId))
+
+            val res = post(PATH_BULK, JSONObject().put("items", items))
+            if (!res.ok) return CallResult.Failed(res.errorMessage ?: "Failed", res.httpCode)
+
+            val arr = res.json?.optJSONObject("data")?.optJSONArray("items")
+                ?: res.json?.optJSONArray("items")
+                ?: return CallResult.Failed("Invalid response", res.httpCode)
+            val out = HashMap<Long, Long>(arr.length())
+            for (i in 0 until arr.length()) {
+                val o = arr.optJSONObject(i) ?: continue
+                val localId = o.optLong("client_local_id", 0L)
+                val serverId = o.optLong("id", 0L)
+                if (localId > 0L && serverId > 0L) out[localId] = serverId
+            }
+            // a 2xx we can't map back is a failed batch, not "bulk works" (and not a reason to fall back)
+            if (out.isEmpty()) {
+                Log.w(TAG, "bulk reply had no usable items")
+                return CallResult.Failed("No usable items", res.httpCode)
+            }
+            return CallResult.Ok(out)
+        }
+
+        // old backend: one POST per row, stop at the first failure so rows stay in recorded order
+        private fun postEach(rows: List<PatientVitalsLocalDb.Row>): CallResult<Map<Long, Long>> {
+            val out = LinkedHashMap<Long, Long>()
+            var failed: CallResult.Failed? = null
+            for (r in rows) {
+                val res = post(PATH_SINGLE, toJson(r))
+                val idAny = if (res.ok) res.json?.optJSONObject("data")?.opt("id") else null
+                val serverId = when (idAny) {
+                    is Number -> idAny.toLong()
+                    is String -> idAny.trim().toLongOrNull() ?: 0L
+                    else -> 0L
+                }
+                if (serverId <= 0L) {
+                    failed = CallResult.Failed(res.errorMessage ?: "Failed", res.httpCode)
+                    break
+                }
+                out[r.localId] = serverId
+            }
+            return if (out.isEmpty()) failed ?: CallResult.Failed("Nothing sent") else CallResult.Ok(out)
+        }
+
+        // same body PatientRecordVitalsActivity used to send
+        private fun toJson(r: PatientVitalsLocalDb.Row): JSONObject = JSONObject().apply {
+            if (r.systolic != null) put("systolic", r.systolic)
+            if (r.diastolic != null) put("diastolic", r.diastolic)
+            if (r.sugar != null) put("sugar", r.sugar)
+            put("sugar_context", r.sugarContext.uppercase(Locale.US))
+            if (r.temperatureF != null) put("temperature_f", r.temperatureF)
+            if (r.weightKg != null) put("weight_kg", r.weightKg)
+            if (r.notes.isNotBlank()) put("notes", r.notes)
+            put("client_recorded_at_ms", r.recordedAtMs)
+        }
+    }
+
+    companion object {
+        private const val TAG = "VitalsSyncWorker"
+        private const val WORK_NAME = "vitals_sync"
+        private const val BATCH = 100
+        private const val TIMEOUT_MS = 30_000
+        const val FEATURE = "patient.vitals_bulk"
+        const val VARIANT_BULK = "bulk"
+        const val VARIANT_SINGLE = "single"
+        const val PATH_BULK = "patient/vitals_bulk_create.php"
+        const val PATH_SINGLE = "patient/vitals_create.php"
+
+        /** Queue a sync once there is a network and the battery isn't low. Safe to call often. */
+        fun schedule(ctx: Context) {
+            val req = OneTimeWorkRequestBuilder<VitalsSyncWorker>()
+                .setConstraints(
+                    Constraints.Builder()
+                        .setRequiredNetworkType(NetworkType.CONNECTED)
+                        .setRequiresBatteryNotLow(true)
+                        .build()
+                )
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, 30, TimeUnit.SECONDS)
+                .build()
+            // APPEND_OR_REPLACE, not KEEP: a running sync may already have seen an empty queue, and rows
+            // saved after that would wait for some unrelated later trigger. The appended run starts after
+            // it and finds nothing if it was drained (an empty run is one local query).
+            WorkManager.getInstance(ctx.applicationContext)
+                .enqueueUniqueWork(WORK_NAME, ExistingWorkPolicy.APPEND_OR_REPLACE, req)
+        }
+    }
+}
@@ -17,14 +17,14 @@ import androidx.fragment.app.Fragment
 import androidx.lifecycle.lifecycleScope
 import com.simats.criticall.ApiConfig.BASE_URL
 import com.simats.criticall.AppPrefs
+import com.simats.criticall.HttpTransport
+import com.simats.criticall.MutationOutbox
 import com.simats.criticall.R
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import org.json.JSONArray
 import org.json.JSONObject
-import java.net.HttpURLConnection
-import java.net.URL
 import java.text.SimpleDateFormat
 import java.util.Locale
 import java.util.TimeZone
@@ -195,11 +195,11 @@ class PharmacistHomeFragment : Fragment() {
 
         // 1) Inventory list (same source as UpdateStock)
         val inv = withContext(Dispatchers.IO) {
-            postJsonAuth(
-                url = BASE_URL + "pharmacist/inventory_list.php",
-                token = token,
-                body = JSONObject()
-            )
+            PharmacistInventoryApi.list(token, 60000)
+        }
+        // stock edits still in the outbox win over the server's numbers (same as UpdateStock)
+        val pendingQty = withContext(Dispatchers.IO) {
+            MutationOutbox.pendingQuantities(requireContext().applicationContext)
         }
 
         val ok = inv.optBoolean("ok", false)
@@ -225,6 +225,7 @@ class PharmacistHomeFragment : Fragment() {
         val lowList = ArrayList<JSONObject>()
         for (i in 0 until items.length()) {
             val o = items.optJSONObject(i) ?: continue
+            pendingQty[o.optLong("id", 0L)]?.let { o.put("quantity", it) }
             val qty = o.optInt("quantity", 0)
             val rl = o.optInt("reorder_level", 5)
             val isOut = qty <= 0
@@ -266,7 +267,7 @@ class PharmacistHomeFragment : Fragment() {
     }
 
     private suspend fun refreshRecentRequests(root: View, token: String) {
-        val url = BASE_URL + "pharmacist/requests_list.php?view=PENDING&limit=5&_ts=" + System.currentTimeMillis()
+        val url = BASE_URL + "pharmacist/requests_list.php?view=PENDING&limit=5"
         val res = withContext(Dispatchers.IO) { getJsonAuth(url, token) }
         if (!isAdded) return
 
@@ -484,48 +485,12 @@ class PharmacistHomeFragment : Fragment() {
 
     // -------------------- Network helpers --------------------
 
-    private fun postJsonAuth(url: String, token: String, body: JSONObject): JSONObject {
-        val conn = (URL(url).openConnection() as HttpURLConnection)
-        return try {
-            conn.requestMethod = "POST"
-            conn.connectTimeout = 60000
-            conn.readTimeout = 60000
-            conn.doOutput = true
-            conn.setRequestProperty("Content-Type", "application/json; charset=utf-8")
-            conn.setRequestProperty("Accept", "application/json")
-            conn.setRequestProperty("Authorization", "Bearer $token")
-
-            conn.outputStream.use { it.write(body.toString().toByteArray(Charsets.UTF_8)) }
-
-            val code = conn.responseCode
-            val stream = if (code in 200..299) conn.inputStream else conn.errorStream
-            val txt = stream.bufferedReader().use { it.readText() }
-            runCatching { JSONObject(txt) }.getOrElse { JSONObject().put("ok", false).put("error", "Bad JSON") }
-        } catch (_: Throwable) {
-            JSONObject().put("ok", false).put("error", "Network error")
-        } finally {
-            try { conn.disconnect() } catch (_: Throwable) {}
-        }
-    }
-
     private fun getJsonAuth(url: String, token: String): JSONObject? {
-        var conn: HttpURLConnection? = null
         return try {
-            conn = (URL(url).openConnection() as HttpURLConnection).apply {
-                requestMethod = "GET"
-                connectTimeout = 20000
-                readTimeout = 20000
-                setRequestProperty("Accept", "application/json")
-                setRequestProperty("Authorization", "Bearer $token")
-            }
-            val code = conn.responseCode
-            val stream = if (code in 200..299) conn.inputStream else conn.errorStream
-            val txt = stream?.bufferedReader()?.use { it.readText() }.orEmpty()
+            val txt = HttpTransport.getText(url, token, 20000).body
             if (txt.isBlank()) null else runCatching { JSONObject(txt) }.getOrNull()
         } catch (_: Throwable) {
             null
-        } finally {
-            try { conn?.disconnect() } catch (_: Throwable) {}
         }
     }
 
@@ -0,0 +1,28 @@
+package com.simats.criticall.roles.pharmacist
+
+import com.simats.criticall.ApiConfig.BASE_URL
+import com.simats.criticall.HttpTransport
+import okhttp3.RequestBody.Companion.toRequestBody
+import org.json.JSONObject
+
+/**
+ * pharmacist/inventory_list.php is a read sent as POST {}. Home, Requests and UpdateStock often
+ * load it at the same moment, so concurrent calls share one in-flight response.
+ */
+object PharmacistInventoryApi {
+
+    private const val PATH = "pharmacist/inventory_list.php"
+
+    fun list(token: String, timeoutMs: Int): JSONObject {
+        return try {
+            val req = HttpTransport.jsonRequest(BASE_URL + PATH, idempotent = true)
+                .header("Authorization", "Bearer $token")
+                .post(JSONObject().toString().toRequestBody(HttpTransport.JSON_MEDIA))
+                .build()
+            val (_, txt) = HttpTransport.fetchText(req, timeoutMs, shareInFlight = true)
+            runCatching { JSONObject(txt) }.getOrElse { JSONObject().put("ok", false).put("error", "Bad JSON") }
+        } catch (_: Throwable) {
+            JSONObject().put("ok", false).put("error", "Network error")
+        }
+    }
+}
@@ -23,6 +23,9 @@ import androidx.recyclerview.widget.RecyclerView
 import com.simats.criticall.ApiConfig.BASE_URL
 import com.simats.criticall.AppPrefs
 import com.simats.criticall.BaseActivity
+import com.simats.criticall.HttpTransport
+import com.simats.criticall.JsonRowStream
+import com.simats.criticall.MutationOutbox
 import com.simats.criticall.R
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
@@ -31,10 +34,8 @@ import kotlinx.coroutines.cancel
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
-import org.json.JSONArray
+import okhttp3.RequestBody.Companion.toRequestBody
 import org.json.JSONObject
-import java.net.HttpURLConnection
-import java.net.URL
 import java.text.NumberFormat
 import java.text.SimpleDateFormat
 import java.util.Locale
@@ -218,17 +219,39 @@ class PharmacistMedicineSearchActivity : BaseActivity() {
 
         uiScope.launch {
             try {
-                val res = withContext(Dispatchers.IO) {
-                    postJsonAuth(
-                        url = BASE_URL + "pharmacist/inventory_list.php",
-                        token = token,
-                        body = JSONObject()
-                    )
+                val req = HttpTransport.jsonRequest(BASE_URL + "pharmacist/inventory_list.php", idempotent = true)
+                    .header("Authorization", "Bearer $token")
+                    .post(JSONObject().toString().toRequestBody(HttpTransport.JSON_MEDIA))
+                    .build()
+                // stock edits still in the outbox win over the server's numbers (same as UpdateStock)
+                val pendingQty = withContext(Dispatchers.IO) {
+                    MutationOutbox.pendingQuantities(this@PharmacistMedicineSearchActivity)
+                }
+
+                // rows arrive in chunks; first screenful is shown before the whole list is read
+                val shownBefore = ArrayList(all)
+                var fresh = true
+                var last: JsonRowStream.Chunk? = null
+                JsonRowStream.rows(req, 20_000).collect { chunk ->
+                    if (fresh) {
+                        all.clear()
+                        fresh = false
+                    }
+                    for (o in chunk.rows) all.add(toMedRow(o, pendingQty))
+                    if (chunk.last) last = chunk
+                    else applyFilterAndSearch(etSearch.text?.toString().orEmpty())
                 }
 
-                if (!res.optBoolean("ok", false)) {
-                    toast(res.optString("error", getString(R.string.failed)))
+                val res = last
+                if (res == null || !res.ok) {
+                    toast(res?.header?.optString("error", getString(R.string.failed)) ?: getString(R.string.failed))
+                    // stream broke midway: drop the partial list, put back what was shown before
                     all.clear()
+                    all.addAll(shownBefore)
+                    if (all.isNotEmpty()) {
+                        applyFilterAndSearch(etSearch.text?.toString().orEmpty())
+                        return@launch
+                    }
                     visible.clear()
                     adapter.notifyDataSetChanged()
                     tvCount.text = getString(R.string.medicine_count_fmt, 0)
@@ -240,24 +263,6 @@ class PharmacistMedicineSearchActivity : BaseActivity() {
                     return@launch
                 }
 
-                val arr = res.optJSONObject("data")?.optJSONArray("items") ?: JSONArray()
-
-                all.clear()
-                for (i in 0 until arr.length()) {
-                    val o = arr.optJSONObject(i) ?: continue
-                    all.add(
-                        MedRow(
-                            id = o.optLong("id", 0L),
-                            medicineName = o.optString("medicine_name", "").trim(),
-                            strength = o.optString("strength", "").trim(),
-                            quantity = o.optInt("quantity", 0),
-                            reorderLevel = o.optInt("reorder_level", 5),
-                            priceAmount = o.optString("price_amount", "").trim(),
-                            updatedAt = o.optString("updated_at", "").trim()
-                        )
-                    )
-                }
-
                 applyFilterAndSearch(etSearch.text?.toString().orEmpty())
             } catch (_: Throwable) {
                 toast(getString(R.string.failed))
@@ -267,6 +272,19 @@ class PharmacistMedicineSearchActivity : BaseActivity() {
         }
     }
 
+    private fun toMedRow(o: JSONObject, pendingQty: Map<Long, Int>): MedRow {
+        val id = o.optLong("id", 0L)
+        return MedRow(
+            id = id,
+            medicineName = o.optString("medicine_name", "").trim(),
+            strength = o.optString("strength", "").trim(),
+            quantity = pendingQty[id] ?: o.optInt("quantity", 0),
+            reorderLevel = o.optInt("reorder_level", 5),
+            priceAmount = o.optString("price_amount", "").trim(),
+            updatedAt = o.optString("updated_at", "").trim()
+        )
+    }
+
     private fun applyFilterAndSearch(queryRaw: String) {
         val q = queryRaw.trim().lowercase(Locale.getDefault())
 
@@ -399,31 +417,6 @@ class PharmacistMedicineSearchActivity : BaseActivity() {
         Toast.makeText(this, s, Toast.LENGTH_SHORT).show()
     }
 
-    private fun postJsonAuth(url: String, token: String, body: JSONObject): JSONObject {
-        val conn = (URL(url).openConnection() as HttpURLConnection)
-        return try {
-            conn.requestMethod = "POST"
-            conn.connectTimeout = 20000
-            conn.readTimeout = 20000
-            conn.doOutput = true
-            conn.setRequestProperty("Accept", "application/json")
-            conn.setRequestProperty("Content-Type", "application/json; charset=utf-8")
-            conn.setRequestProperty("Authorization", "Bearer $token")
-
-            conn.outputStream.use { it.write(body.toString().toByteArray(Charsets.UTF_8)) }
-
-            val code = conn.responseCode
-            val stream = if (code in 200..299) conn.inputStream else conn.errorStream
-            val txt = stream?.bufferedReader()?.use { it.readText() }.orEmpty()
-            runCatching { JSONObject(txt) }
-                .getOrElse { JSONObject().put("ok", false).put("error", "Non-JSON response") }
-        } catch (_: Throwable) {
-            JSONObject().put("ok", false).put("error", "Network error")
-        } finally {
-            try { conn.disconnect() } catch (_: Throwable) {}
-        }
-    }
-
     // -------------------- Model + Adapter --------------------
 
     private data class MedRow(
@@ -16,6 +16,7 @@ import com.simats.criticall.ApiConfig
 import com.simats.criticall.LanguageChangeActivity
 import com.simats.criticall.R
 import com.simats.criticall.RoleSelectActivity
+import com.simats.criticall.SessionReset
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
@@ -325,6 +326,7 @@ class PharmacistProfileFragment : Fragment() {
         v.findViewById<View>(R.id.btnLogout).setOnClickListener {
             dialog.dismiss()
             AppPrefs.setToken(requireContext(), "")
+            SessionReset.onLogout(requireContext())
             startActivity(Intent(requireContext(), RoleSelectActivity::class.java).apply {
                 flags = Intent.FLAG_ACTIVITY_NEW_TASK or Intent.FLAG_ACTIVITY_CLEAR_TASK
             })
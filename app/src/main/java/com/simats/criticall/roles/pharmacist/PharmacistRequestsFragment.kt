@@ -16,14 +16,14 @@ import androidx.fragment.app.Fragment
 import androidx.lifecycle.lifecycleScope
 import com.simats.criticall.ApiConfig.BASE_URL
 import com.simats.criticall.AppPrefs
+import com.simats.criticall.HttpTransport
+import com.simats.criticall.MutationOutbox
 import com.simats.criticall.R
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import org.json.JSONArray
 import org.json.JSONObject
-import java.net.HttpURLConnection
-import java.net.URL
 import java.text.SimpleDateFormat
 import java.util.Locale
 import java.util.TimeZone
@@ -99,9 +99,7 @@ class PharmacistRequestsFragment : Fragment() {
             return
         }
 
-        val url = BASE_URL +
-                "pharmacist/requests_list.php?view=PENDING&limit=50&_ts=" +
-                System.currentTimeMillis()
+        val url = BASE_URL + "pharmacist/requests_list.php?view=PENDING&limit=50"
 
         isLoading = true
 
@@ -173,9 +171,8 @@ class PharmacistRequestsFragment : Fragment() {
         val now = System.currentTimeMillis()
         if (now - lastInvFetchMs < INV_REFRESH_MS) return
 
-        val invUrl = BASE_URL + "pharmacist/inventory_list.php"
-        val invJson = withContext(Dispatchers.IO) { postJson(invUrl, token, JSONObject()) }
-        if (invJson?.optBoolean("ok", false) != true) return
+        val invJson = withContext(Dispatchers.IO) { PharmacistInventoryApi.list(token, 15000) }
+        if (!invJson.optBoolean("ok", false)) return
 
         val items = invJson.optJSONObject("data")?.optJSONArray("items") ?: JSONArray()
         val map = mutableMapOf<String, InvRow>()
@@ -282,20 +279,18 @@ class PharmacistRequestsFragment : Fragment() {
         val token = AppPrefs.getToken(requireContext()).orEmpty()
         if (token.isBlank()) return
 
-        val url = BASE_URL + "pharmacist/requests_mark_available.php"
-
         viewLifecycleOwner.lifecycleScope.launch {
-            val res = withContext(Dispatchers.IO) {
-                postJson(url, token, JSONObject().apply { put("request_id", requestId) })
-            }
+            val res = MutationOutbox.submit(requireContext(), MutationOutbox.markRequestAvailable(requestId))
             if (!isAdded) return@launch
 
-            if (res?.optBoolean("ok", false) == true) {
-                toast(getString(R.string.request_fulfilled_toast))
-                lastInvFetchMs = 0L
-                rootRef?.let { loadRequests(it) }
-            } else {
-                toast(res?.optString("error") ?: getString(R.string.failed))
+            when (res) {
+                is MutationOutbox.Submit.Sent -> {
+                    toast(getString(R.string.request_fulfilled_toast))
+                    lastInvFetchMs = 0L
+                    rootRef?.let { loadRequests(it) }
+                }
+                is MutationOutbox.Submit.Queued -> toast(getString(R.string.saved_will_sync_when_online))
+                is MutationOutbox.Submit.Rejected -> toast(res.error.ifBlank { getString(R.string.failed) })
             }
         }
     }
@@ -345,49 +340,12 @@ class PharmacistRequestsFragment : Fragment() {
     }
 
     private fun httpGetRaw(urlStr: String, token: String): Pair<Int, String>? {
-        var conn: HttpURLConnection? = null
         return try {
-            conn = (URL(urlStr).openConnection() as HttpURLConnection).apply {
-                requestMethod = "GET"
-                connectTimeout = 15000
-                readTimeout = 15000
-                setRequestProperty("Accept", "application/json")
-                setRequestProperty("Authorization", "Bearer $token")
-            }
-            val code = conn.responseCode
-            val stream = if (code in 200..299) conn.inputStream else conn.errorStream
-            val text = stream?.bufferedReader()?.use { it.readText() }.orEmpty()
+            val (code, text) = HttpTransport.getText(urlStr, token, 15000)
             Pair(code, text)
         } catch (t: Throwable) {
             Log.e(TAG, "GET error", t)
             null
-        } finally {
-            try { conn?.disconnect() } catch (_: Throwable) {}
-        }
-    }
-
-    private fun postJson(urlStr: String, token: String, body: JSONObject): JSONObject? {
-        var conn: HttpURLConnection? = null
-        return try {
-            conn = (URL(urlStr).openConnection() as HttpURLConnection).apply {
-                requestMethod = "POST"
-                connectTimeout = 15000
-                readTimeout = 15000
-                doOutput = true
-                setRequestProperty("Accept", "application/json")
-                setRequestProperty("Content-Type", "application/json; charset=utf-8")
-                setRequestProperty("Authorization", "Bearer $token")
-            }
-            conn.outputStream.use { it.write(body.toString().toByteArray(Charsets.UTF_8)) }
-
-            val code = conn.responseCode
-            val stream = if (code in 200..299) conn.inputStream else conn.errorStream
-            val text = stream?.bufferedReader()?.use { it.readText() }.orEmpty()
-            runCatching { JSONObject(text) }.getOrNull()
-        } catch (_: Throwable) {
-            null
-        } finally {
-            try { conn?.disconnect() } catch (_: Throwable) {}
         }
     }
 
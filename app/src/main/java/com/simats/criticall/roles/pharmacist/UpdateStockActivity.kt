@@ -16,18 +16,14 @@ import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import com.google.android.material.textfield.TextInputEditText
 import com.simats.criticall.AppPrefs
 import com.simats.criticall.BaseActivity
+import com.simats.criticall.MutationOutbox
 import com.simats.criticall.R
 import kotlinx.coroutines.*
 import org.json.JSONArray
-import org.json.JSONObject
-import java.net.HttpURLConnection
-import java.net.URL
-import com.simats.criticall.ApiConfig.BASE_URL
 import java.util.Locale
 
 class UpdateStockActivity : BaseActivity() {
 
-    private val API_BASE = BASE_URL;
     private val uiScope = MainScope()
 
     private lateinit var ivBack: ImageView
@@ -111,11 +107,11 @@ class UpdateStockActivity : BaseActivity() {
 
         uiScope.launch {
             val res = withContext(Dispatchers.IO) {
-                postJsonAuth(
-                    url = API_BASE + "pharmacist/inventory_list.php",
-                    token = token,
-                    body = JSONObject()
-                )
+                PharmacistInventoryApi.list(token, 60000)
+            }
+            // edits not yet replayed win over what the server still has
+            val pendingQty = withContext(Dispatchers.IO) {
+                MutationOutbox.pendingQuantities(this@UpdateStockActivity)
             }
 
             val ok = res.optBoolean("ok", false)
@@ -131,12 +127,13 @@ class UpdateStockActivity : BaseActivity() {
 
             for (i in 0 until items.length()) {
                 val o = items.optJSONObject(i) ?: continue
+                val id = o.optLong("id", 0L)
                 all.add(
                     StockRow(
-                        id = o.optLong("id", 0L),
+                        id = id,
                         medicineName = o.optString("medicine_name", ""),
                         strength = o.optString("strength", ""),
-                        quantity = o.optInt("quantity", 0),
+                        quantity = pendingQty[id] ?: o.optInt("quantity", 0),
                         reorderLevel = o.optInt("reorder_level", 5)
                     )
                 )
@@ -190,27 +187,12 @@ class UpdateStockActivity : BaseActivity() {
         }
     }
 
+    // queued in the outbox: survives offline, repeated sets on one item collapse to the last
     private suspend fun pushQtyToServer(row: StockRow) {
-        val token = AppPrefs.getToken(this).orEmpty()
-        if (token.isBlank()) return
-
-        val res = withContext(Dispatchers.IO) {
-            postJsonAuth(
-                url = API_BASE + "pharmacist/inventory_set_quantity.php",
-                token = token,
-                body = JSONObject().apply {
-                    put("item_id", row.id)
-                    put("quantity", row.quantity)
-                }
-            )
-        }
-
-        val ok = res.optBoolean("ok", false)
-        if (!ok) {
-            withContext(Dispatchers.Main) {
-                toast(res.optString("error", getString(R.string.failed)))
-                loadInventory()
-            }
+        val r = MutationOutbox.submit(this, MutationOutbox.setQuantity(row.id, row.quantity))
+        if (r is MutationOutbox.Submit.Rejected) {
+            toast(r.error.ifBlank { getString(R.string.failed) })
+            loadInventory()
         }
     }
 
@@ -245,29 +227,6 @@ class UpdateStockActivity : BaseActivity() {
         uiScope.cancel()
         super.onDestroy()
     }
-
-    private fun postJsonAuth(url: String, token: String, body: JSONObject): JSONObject {
-        val conn = (URL(url).openConnection() as HttpURLConnection)
-        return try {
-            conn.requestMethod = "POST"
-            conn.connectTimeout = 60000
-            conn.readTimeout = 60000
-            conn.doOutput = true
-            conn.setRequestProperty("Content-Type", "application/json; charset=utf-8")
-            conn.setRequestProperty("Authorization", "Bearer $token")
-
-            conn.outputStream.use { it.write(body.toString().toByteArray(Charsets.UTF_8)) }
-
-            val code = conn.responseCode
-            val stream = if (code in 200..299) conn.inputStream else conn.errorStream
-            val txt = stream.bufferedReader().use { it.readText() }
-            JSONObject(txt)
-        } catch (_: Throwable) {
-            JSONObject().put("ok", false).put("error", "Network error")
-        } finally {
-            conn.disconnect()
-        }
-    }
 }
 
 private data class StockRow(
@@ -0,0 +1,87 @@
+package com.simats.criticall;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * The shared client revalidates ETag'd responses (no Cache-Control from the server) and serves
+ * the body from the disk cache on 304, but never to a request carrying another token.
+ */
+public class HttpTransportCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        HttpTransport.installCacheDir(tmp.newFolder("http"));
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void secondGet_isConditional_andServedFromCacheOn304() throws Exception {
+        String body = "{\"ok\":true,\"data\":[1,2,3]}";
+        server.enqueue(new MockResponse()
+                .setHeader("Content-Type", "application/json")
+                .setHeader("ETag", "\"v1\"")
+                .setBody(body));
+        server.enqueue(new MockResponse().setResponseCode(304).setHeader("ETag", "\"v1\""));
+
+        String url = server.url("/api/list.php").toString();
+
+        HttpTransport.Text first = HttpTransport.getText(url, "t0k", 5000);
+        assertEquals(200, first.getCode());
+        assertEquals(body, first.getBody());
+
+        HttpTransport.Text second = HttpTransport.getText(url, "t0k", 5000);
+        assertEquals(200, second.getCode());
+        assertEquals(body, second.getBody());
+
+        RecordedRequest r1 = server.takeRequest();
+        assertNull(r1.getHeader("If-None-Match"));
+        RecordedRequest r2 = server.takeRequest();
+        assertEquals("\"v1\"", r2.getHeader("If-None-Match"));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void otherToken_neverRevalidatesAgainstCachedBody() throws Exception {
+        server.enqueue(new MockResponse()
+                .setHeader("Content-Type", "application/json")
+                .setHeader("ETag", "\"a\"")
+                .setBody("{\"ok\":true,\"user\":\"A\"}"));
+        server.enqueue(new MockResponse()
+                .setHeader("Content-Type", "application/json")
+                .setHeader("ETag", "\"b\"")
+                .setBody("{\"ok\":true,\"user\":\"B\"}"));
+
+        String url = server.url("/api/records.php").toString();
+
+        HttpTransport.Text a = HttpTransport.getText(url, "token-a", 5000);
+        HttpTransport.Text b = HttpTransport.getText(url, "token-b", 5000);
+        assertTrue(a.getBody().contains("\"A\""));
+        assertTrue(b.getBody().contains("\"B\""));
+
+        server.takeRequest();
+        RecordedRequest second = server.takeRequest();
+        assertNull(second.getHeader("If-None-Match"));
+        assertEquals("Bearer token-b", second.getHeader("Authorization"));
+    }
+}
@@ -0,0 +1,230 @@
+package com.simats.criticall;
+
+import org.junit.Test;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Clause semantics of {@link ThresholdRule}, and {@link ThresholdUtils#parseThreshold} parity with the
+ * regex parser it replaced (first clause as (value, op)).
+ */
+public class ThresholdRuleTest {
+
+    private static final String GE = "\u2265"; // ≥
+    private static final String LE = "\u2264"; // ≤
+    private static final String EN_DASH = "\u2013";
+
+    @Test
+    public void greaterThan_isUpperBoundInclusive() {
+        ThresholdRule r = ThresholdRule.compile("> 180");
+        assertTrue(r.isCriticalHigh(180f));
+        assertTrue(r.isCriticalHigh(250f));
+        assertFalse(r.isCriticalHigh(179.9f));
+        assertFalse(r.isCriticalLow(10f));
+        assertEquals(1, r.clauseCount());
+    }
+
+    @Test
+    public void unicodeGreaterOrEqual() {
+        ThresholdRule r = ThresholdRule.compile(GE + " 7");
+        assertTrue(r.isCriticalHigh(7f));
+        assertFalse(r.isCriticalHigh(6.99f));
+        assertEquals(">=", r.firstBound().op);
+    }
+
+    @Test
+    public void lessOrEqual_isLowerBound() {
+        ThresholdRule r = ThresholdRule.compile("<= 3.5");
+        assertTrue(r.isCriticalLow(3.5f));
+        assertTrue(r.isCriticalLow(2f));
+        assertFalse(r.isCriticalLow(3.6f));
+        assertFalse(r.isCriticalHigh(100f));
+
+        ThresholdRule u = ThresholdRule.compile(LE + " 3.5 mmol/L");
+        assertTrue(u.isCriticalLow(3.5f));
+        assertEquals("mmol/L", u.unit);
+        assertEquals("<=", u.firstBound().op);
+    }
+
+    @Test
+    public void bareNumber_isHighAboveAndLowBelow() {
+        ThresholdRule r = ThresholdRule.compile("120");
+        assertTrue(r.isCriticalHigh(120.5f));
+        assertFalse(r.isCriticalHigh(120f));
+        assertTrue(r.isCriticalLow(119.5f));
+        assertFalse(r.isCriticalLow(120f));
+        assertEquals("", r.firstBound().op);
+    }
+
+    @Test
+    public void hyphenRange() {
+        ThresholdRule r = ThresholdRule.compile("70-110");
+        assertTrue(r.isCriticalHigh(111f));
+        assertFalse(r.isCriticalHigh(110f));
+        assertTrue(r.isCriticalLow(69f));
+        assertFalse(r.isCriticalLow(70f));
+        assertFalse(r.isCritical(90f));
+        assertEquals(70f, r.firstBound().value, 0f);
+        assertEquals("", r.unit);
+
+        ThresholdRule d = ThresholdRule.compile("70 " + EN_DASH + " 110");
+        assertTrue(d.isCriticalHigh(111f));
+        assertTrue(d.isCriticalLow(69f));
+    }
+
+    @Test
+    public void wordRange_withUnit() {
+        ThresholdRule r = ThresholdRule.compile("70 to 110 mg/dL");
+        assertTrue(r.isCriticalHigh(110.1f));
+        assertTrue(r.isCriticalLow(69.9f));
+        assertFalse(r.isCritical(100f));
+        assertEquals("mg/dL", r.unit);
+    }
+
+    @Test
+    public void negativeBounds() {
+        ThresholdRule lt = ThresholdRule.compile("< -5");
+        assertTrue(lt.isCriticalLow(-5f));
+        assertTrue(lt.isCriticalLow(-8f));
+        assertFalse(lt.isCriticalLow(-4f));
+        assertEquals(-5f, lt.firstBound().value, 0f);
+
+        ThresholdRule range = ThresholdRule.compile("-10 to -2");
+        assertTrue(range.isCriticalLow(-11f));
+        assertTrue(range.isCriticalHigh(-1f));
+        assertFalse(range.isCritical(-5f));
+    }
+
+    @Test
+    public void unitAfterOperatorClause() {
+        ThresholdRule r = ThresholdRule.compile("> 180 mg/dL");
+        assertEquals("mg/dL", r.unit);
+        assertTrue(r.isCriticalHigh(181f));
+    }
+
+    @Test
+    public void multipleClauses_anyMatchCounts() {
+        ThresholdRule r = ThresholdRule.compile("> 250; < 40");
+        assertEquals(2, r.clauseCount());
+        assertTrue(r.isCriticalHigh(250f));
+        assertTrue(r.isCriticalLow(40f));
+        assertFalse(r.isCritical(100f));
+        assertFalse(r.isCriticalHigh(39f));
+        assertEquals(250f, r.firstBound().value, 0f);
+        assertEquals(">", r.firstBound().op);
+    }
+
+    @Test
+    public void nextBound_overEveryClause() {
+        ThresholdRule r = ThresholdRule.compile("70-110; > 250; < 40");
+        assertEquals(110f, r.nextBound(100f, true), 0f);
+        assertEquals(250f, r.nextBound(200f, true), 0f);
+        assertEquals(250f, r.nextBound(300f, true), 0f); // already past: last one crossed
+        assertEquals(70f, r.nextBound(100f, false), 0f);
+        assertEquals(40f, r.nextBound(60f, false), 0f);
+        assertTrue(Float.isNaN(ThresholdRule.compile("< 40").nextBound(100f, true)));
+    }
+
+    @Test
+    public void emptyNullAndNaN() {
+        for (String s : new String[]{null, "", "   ", "n/a"}) {
+            ThresholdRule r = ThresholdRule.compile(s);
+            assertTrue(String.valueOf(s), r.isEmpty());
+            assertFalse(r.isCritical(1000f));
+            assertTrue(Float.isNaN(r.firstBound().value));
+        }
+        assertFalse(ThresholdRule.compile("> 1").isCriticalHigh(Float.NaN));
+    }
+
+    @Test
+    public void compile_internsPerString() {
+        assertSame(ThresholdRule.compile("> 180"), ThresholdRule.compile("> 180"));
+    }
+
+    @Test
+    public void parseThreshold_matchesOldFirstClauseParser() {
+        String[] corpus = {
+                "> 180", ">= 180", GE + " 7", "< 40", "<= 3.5", LE + " 3.5 mmol/L", "120", "120 mg/dL",
+                "70-110", "70 - 110", "70 " + EN_DASH + " 110", "70 to 110 mg/dL", "< -5", "-10 to -2",
+                "> 250; < 40", "< 40; > 250", "  >  6.5 % ", "5.", ".5", "abc", "", "   ", "> ", ";< 3"
+        };
+        for (String s : corpus) {
+            ThresholdUtils.Threshold now = ThresholdUtils.parseThreshold(s);
+            float[] oldValue = new float[1];
+            String oldOp = legacyParse(s, oldValue);
+            assertEquals("op of '" + s + "'", oldOp, now.op);
+            assertEquals("value of '" + s + "'", 0, Float.compare(oldValue[0], now.value));
+        }
+        assertTrue(Float.isNaN(ThresholdUtils.parseThreshold(null).value));
+    }
+
+    @Test
+    public void singleClauseChecks_matchOldHelpers() {
+        String[] corpus = {"> 180", ">= 180", "< 40", "<= 3.5", "120", "< -5"};
+        float[] values = {-10f, -5f, 0f, 3.5f, 40f, 119f, 120f, 121f, 180f, 500f};
+        for (String s : corpus) {
+            for (float v : values) {
+                assertEquals("high " + s + " @ " + v, legacyHigh(s, v), ThresholdUtils.isCriticalHigh(s, v));
+                assertEquals("low " + s + " @ " + v, legacyLow(s, v), ThresholdUtils.isCriticalLow(s, v));
+            }
+        }
+    }
+
+    // ---- reference: same logic as the regex-based parser and checks ThresholdRule replaced
+
+    private static final Pattern OLD_NUMBER = Pattern.compile("(-?\\d+(?:\\.\\d+)?)");
+
+    private static String legacyParse(String threshold, float[] valueOut) {
+        valueOut[0] = Float.NaN;
+        if (threshold == null) return "";
+        String t = threshold.trim();
+        if (t.isEmpty()) return "";
+        String[] parts = t.split(";");
+        String first = parts.length > 0 ? parts[0].trim() : "";
+
+        String op = "";
+        if (first.contains(LE) || first.contains("<=")) op = "<=";
+        else if (first.contains(GE) || first.contains(">=")) op = ">=";
+        else if (first.contains("<")) op = "<";
+        else if (first.contains(">")) op = ">";
+
+        Matcher m = OLD_NUMBER.matcher(first);
+        if (m.find()) valueOut[0] = Float.parseFloat(m.group(1));
+        return op;
+    }
+
+    private static boolean legacyHigh(String s, float value) {
+        float[] v = new float[1];
+        String op = legacyParse(s, v);
+        if (Float.isNaN(value) || Float.isNaN(v[0])) return false;
+        switch (op) {
+            case ">":
+            case ">=":
+                return value >= v[0];
+            case "<":
+            case "<=":
+                return false;
+            default:
+                return value > v[0];
+        }
+    }
+
+    private static boolean legacyLow(String s, float value) {
+        float[] v = new float[1];
+        String op = legacyParse(s, v);
+        if (Float.isNaN(value) || Float.isNaN(v[0])) return false;
+        switch (op) {
+            case "<":
+            case "<=":
+                return value <= v[0];
+            case ">":
+            case ">=":
+                return false;
+            default:
+                return value < v[0];
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.simats.criticall;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link TrendBatch} must give, per series, exactly what {@link TrendEngine#buildPredictions} gives for
+ * that patient.
+ */
+public class TrendBatchTest {
+
+    private static final String[] PARAMS = {"glucose", "potassium", "creatinine", "hemoglobin"};
+    private static final long HOUR = 3_600_000L;
+
+    /** One patient's history plus the same data as columns. */
+    private static final class Panel {
+        final List<String> patientIds = new ArrayList<>();
+        final Map<String, List<TrendPredictor.HistoryEntry>> history = new LinkedHashMap<>();
+        TrendBatch.Columns columns;
+    }
+
+    @Test
+    public void batch_matchesEnginePerSeries() {
+        Panel p = panel(300, 7L); // 1200 series: wide enough to go through the fork-join path
+        Set<String> params = new LinkedHashSet<>(Arrays.asList(PARAMS));
+        TrendBatch.Result r = TrendBatch.predict(p.columns);
+
+        assertEquals(p.patientIds.size() * PARAMS.length, r.count.length);
+        for (int s = 0; s < r.count.length; s++) {
+            String pid = p.columns.patientIds[s];
+            String param = p.columns.parameters[s];
+            TrendPredictor.Prediction want = TrendEngine.buildPredictions(p.history.get(pid), params).get(param);
+            TrendPredictor.Prediction got = r.prediction(s);
+            if (want == null) {
+                assertNull(pid + "/" + param, got);
+                continue;
+            }
+            assertNotNull(pid + "/" + param, got);
+            assertEquals(want.predictedValue, got.predictedValue, 1e-5f);
+            assertEquals(want.lastValue, got.lastValue, 0f);
+            assertEquals(want.confidence, got.confidence, 1e-6f);
+            assertEquals(want.slopePerHour, got.slopePerHour, 1e-6f);
+            assertEquals(want.suggestedValue, got.suggestedValue);
+        }
+
+        // grouped view agrees with the engine's map for a patient
+        String pid = p.patientIds.get(5);
+        assertEquals(TrendEngine.buildPredictions(p.history.get(pid), params).keySet(),
+                r.predictionsFor(pid).keySet());
+    }
+
+    @Test
+    public void emptyAndNumericFreeSeries() {
+        // series 0: no rows, series 1: one row, series 2: only NaN
+        TrendBatch.Columns c = new TrendBatch.Columns(
+                new long[]{1000L, 2000L, 3000L},
+                new float[]{5f, Float.NaN, Float.NaN},
+                new int[]{0, 0, 1, 3},
+                null, null);
+        TrendBatch.Result r = TrendBatch.predict(c);
+        assertEquals(0, r.count[0]);
+        assertNull(r.prediction(0));
+        assertEquals(1, r.count[1]);
+        assertEquals(5f, r.predictedValue[1], 0f);
+        assertEquals(0, r.count[2]);
+        assertNull(r.prediction(2));
+    }
+
+    @Test
+    public void columns_rejectBadOffsets() {
+        long[] ts = {1000L, 2000L, 3000L};
+        float[] vs = {1f, 2f, 3f};
+        assertBadOffsets(ts, vs, new int[]{-1, 2, 3});
+        assertBadOffsets(ts, vs, new int[]{0, 2, 1, 3});
+        assertBadOffsets(ts, vs, new int[]{0, 4});
+        assertBadOffsets(ts, vs, new int[]{});
+    }
+
+    private static void assertBadOffsets(long[] ts, float[] vs, int[] offsets) {
+        try {
+            new TrendBatch.Columns(ts, vs, offsets, null, null);
+            fail("accepted offsets " + Arrays.toString(offsets));
+        } catch (IllegalArgumentException expected) {
+            // ok
+        }
+    }
+
+    // patients with 3..12 lab entries each, timestamps shuffled; every entry has most parameters
+    private static Panel panel(int patients, long seed) {
+        Random rnd = new Random(seed);
+        Panel p = new Panel();
+        Map<String, List<long[]>> tsBySeries = new HashMap<>();
+        Map<String, List<Float>> vBySeries = new HashMap<>();
+
+        for (int i = 0; i < patients; i++) {
+            String pid = "p" + i;
+            p.patientIds.add(pid);
+            List<TrendPredictor.HistoryEntry> hist = new ArrayList<>();
+            int entries = 3 + rnd.nextInt(10);
+            long base = 1_700_000_000_000L + rnd.nextInt(1000) * HOUR;
+            for (int e = 0; e < entries; e++) {
+                long ts = base + rnd.nextInt(24 * 30) * HOUR; // not sorted
+                Map<String, String> results = new LinkedHashMap<>();
+                for (String param : PARAMS) {
+                    if (rnd.nextInt(5) == 0) continue; // some parameters missing from some entries
+                    float v = Math.round((50 + rnd.nextGaussian() * 20) * 100) / 100f;
+                    results.put(param, Float.toString(v));
+                    tsBySeries.computeIfAbsent(pid + "|" + param, k -> new ArrayList<>()).add(new long[]{ts});
+                    vBySeries.computeIfAbsent(pid + "|" + param, k -> new ArrayList<>()).add(v);
+                }
+                hist.add(new TrendPredictor.HistoryEntry(ts, results));
+            }
+            p.history.put(pid, hist);
+        }
+
+        // columns: series in (patient, parameter) order, rows in the order the engine sees them
+        int seriesCount = patients * PARAMS.length;
+        int rows = 0;
+        for (List<Float> v : vBySeries.values()) rows += v.size();
+        long[] ts = new long[rows];
+        float[] vs = new float[rows];
+        int[] offsets = new int[seriesCount + 1];
+        String[] pids = new String[seriesCount];
+        String[] params = new String[seriesCount];
+        int s = 0, row = 0;
+        for (String pid : p.patientIds) {
+            for (String param : PARAMS) {
+                offsets[s] = row;
+                pids[s] = pid;
+                params[s] = param;
+                List<long[]> t = tsBySeries.get(pid + "|" + param);
+                List<Float> v = vBySeries.get(pid + "|" + param);
+                if (t != null) {
+                    for (int k = 0; k < t.size(); k++) {
+                        ts[row] = t.get(k)[0];
+                        vs[row] = v.get(k);
+                        row++;
+                    }
+                }
+                s++;
+            }
+        }
+        offsets[seriesCount] = row;
+        p.columns = new TrendBatch.Columns(ts, vs, offsets, pids, params);
+        return p;
+    }
+}